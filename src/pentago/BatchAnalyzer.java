@@ -0,0 +1,363 @@
+package pentago;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Analyzes large sets of positions in parallel, for throughput rather than the latency of a single position.
+ * - Positions are analyzed on a thread pool. Each thread reuses its evaluation function and endgame solver, and
+ *   all threads share an in memory position cache, so repeated positions (e.g. the openings of logged games) are
+ *   only searched once.
+ * - Results are streamed in input order, with a bounded amount of positions in flight.
+ * Input formats:
+ *  text    - one position per line: the 36 characters of the state ('.', 'b' or 'w', row by row), a space and
+ *            the token to move. Anything after that is ignored, so games encoded by PentagoServer can be used.
+ *            Blank lines and lines starting with # are skipped.
+ *  records - game record archives (see GameRecordWriter). Every position of every game is analyzed.
+ * Output: one tab separated line per position: index, then the fields of PositionAnalysis (move, score, depth,
+ * nodes, principal variation), or index and "-" if the game is over in the position. With --multi-pv N, up to N
+ * lines per position with the same index, best move first.
+ * Usage: java pentago.BatchAnalyzer [--engine spec] [--threads N] [--cache-slots N] [--multi-pv N] [--records]
+ *                                   [--output file] [input ...]
+ * - Reads standard input if no input is given. See EngineConfig.parse for the engine spec format.
+ */
+public class BatchAnalyzer {
+    
+    /** The amount of positions in flight per thread. Large enough to hide differences in analysis time. */
+    private static final int POSITIONS_IN_FLIGHT = 16;
+    
+    /** The engine used to analyze positions. A time budget applies per position. */
+    private final EngineConfig engine;
+    
+    /** The amount of threads to analyze on. */
+    private final int threads;
+    
+    /** The cache shared by all threads. */
+    private final PositionCache cache;
+    
+    /** The evaluation function and endgame solver of each thread. */
+    private final ThreadLocal<Worker> workers;
+    
+    /** The amount of best moves reported per position. */
+    private int multiPv;
+    
+    /** The amount of positions analyzed and nodes generated. */
+    private long positions, nodes;
+    
+    /**
+     * Creates a batch analyzer.
+     * @param engine the engine used to analyze positions.
+     * @param threads the amount of threads to analyze on.
+     * @param cacheSlots the amount of slots of the shared position cache.
+     */
+    public BatchAnalyzer(EngineConfig engine, int threads, int cacheSlots) {
+        this.engine = engine;
+        this.threads = threads;
+        cache = new PositionCache(cacheSlots);
+        workers = ThreadLocal.withInitial(() -> new Worker(engine.createEvaluationFunction()));
+        multiPv = 1;
+    }
+    
+    /**
+     * Sets the amount of best moves reported per position, each with an exact score (see GameTree.setMultiPv).
+     * @param multiPv the amount of best moves, at least 1.
+     */
+    public void setMultiPv(int multiPv) {
+        this.multiPv = Math.max(multiPv, 1);
+    }
+    
+    /**
+     * Analyzes a single position. Thread safe.
+     * With a time budget, the look ahead is deepened one level at a time while the next level is expected to
+     * finish within the budget.
+     * @param state the state to analyze.
+     * @param token the token to move.
+     * @return the analysis of the best moves (at most multiPv), best first. Empty if the game is over in the state.
+     */
+    public List<PositionAnalysis> analyze(char[][] state, char token) {
+        List<PositionAnalysis> analysis = new ArrayList<PositionAnalysis>();
+        if (GameState.isWinningState(state) != 'n' || !GameState.canMakeMove(state))
+            return analysis;
+        Worker worker = workers.get();
+        SearchStats levels = new SearchStats();
+        MatchRunner.deepen(engine, worker.function, state, token, tree -> {
+            tree.setPositionCache(cache);
+            tree.setEndgameSolver(worker.solver);
+            tree.setMultiPv(multiPv);
+        }, (tree, choice) -> {
+            levels.add(tree.getStats());
+            analysis.clear();
+            if (tree.getStats().getSearches() == 0) { //Known move (endgame solver or cache), deeper levels give the same.
+                analysis.add(new PositionAnalysis(choice.getArgs(), choice.getScore(), knownDepth(state, token, choice, tree.getSearchedDepth()), 
+                        levels.getNodes(), tree.getPrincipalVariation()));
+                return false;
+            }
+            for (PositionAnalysis move : tree.getRootMoves())
+                analysis.add(new PositionAnalysis(move.getMove(), move.getScore(), tree.getSearchedDepth(), levels.getNodes(), 
+                        move.getPrincipalVariation()));
+            return true;
+        });
+        return analysis;
+    }
+    
+    /**
+     * Returns the depth of a move known without searching: the depth of the position cache entry which supplied it, 
+     * which may be deeper than the level, or the level for the endgame solver. 
+     * @param level the look ahead of the level which found the move.
+     */
+    private int knownDepth(char[][] state, char token, GameTreeNode choice, int level) {
+        long entry = cache.probe(BitBoard.hash(state, token));
+        if (entry != PositionCache.MISS && BitBoard.toArgs(PositionCache.moveOf(entry)).equals(choice.getArgs()))
+            return Math.max(PositionCache.depthOf(entry), level);
+        return level;
+    }
+    
+    /**
+     * Analyzes the positions of a text input (see the class documentation) and streams the results.
+     * @param in the input to read.
+     * @param out the output to write the results to.
+     */
+    public void analyzeText(BufferedReader in, PrintWriter out) throws IOException, InterruptedException {
+        analyzeAll(() -> {
+            String line;
+            do {
+                line = in.readLine();
+            } while (line != null && (line.isBlank() || line.startsWith("#")));
+            return line == null ? null : parsePosition(line.trim());
+        }, out);
+    }
+    
+    /**
+     * Analyzes every position of the games of a game record archive and streams the results.
+     * @param archive the path of the archive.
+     * @param out the output to write the results to.
+     */
+    public void analyzeRecords(Path archive, PrintWriter out) throws IOException, InterruptedException {
+        try (GameRecordReader reader = new GameRecordReader(archive)) {
+            analyzeAll(new PositionSource() {
+                private char[][] state;
+                private char token;
+                private int move = -1; //The index of the next move of the current game, -1 before the first game.
+                
+                @Override
+                public Position next() throws IOException {
+                    if (move < 0 || move >= reader.getMoveCount()) { //Start the next game.
+                        if (!reader.next())
+                            return null;
+                        state = GameState.initialState;
+                        token = reader.getFirstToken();
+                        move = 0;
+                        if (reader.getMoveCount() == 0)
+                            return next();
+                    }
+                    Position position = new Position(state, token);
+                    state = GameState.alter(state, token, BitBoard.toArgs(reader.getMoves()[move++]));
+                    token = token == 'b' ? 'w' : 'b';
+                    return position;
+                }
+            }, out);
+        }
+    }
+    
+    /**
+     * Analyzes the positions of a source on the thread pool, writing the results in input order.
+     * @param source the positions to analyze.
+     * @param out the output to write the results to.
+     */
+    private void analyzeAll(PositionSource source, PrintWriter out) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<List<PositionAnalysis>>> inFlight = new ArrayDeque<Future<List<PositionAnalysis>>>();
+        long index = positions;
+        try {
+            Position position;
+            while ((position = source.next()) != null) {
+                char[][] state = position.state;
+                char token = position.token;
+                inFlight.add(pool.submit(() -> analyze(state, token)));
+                if (inFlight.size() >= threads * POSITIONS_IN_FLIGHT)
+                    index = write(inFlight.poll(), index, out);
+            }
+            while (!inFlight.isEmpty())
+                index = write(inFlight.poll(), index, out);
+        } finally {
+            pool.shutdownNow();
+            out.flush();
+        }
+    }
+    
+    /**
+     * Writes the result of a position.
+     * @param result the pending analysis of the position.
+     * @param index the index of the position.
+     * @param out the output to write to.
+     * @return the index of the next position.
+     */
+    private long write(Future<List<PositionAnalysis>> result, long index, PrintWriter out) throws InterruptedException {
+        List<PositionAnalysis> analysis;
+        try {
+            analysis = result.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Analysis of position " + index + " failed", e.getCause());
+        }
+        if (analysis.isEmpty())
+            out.println(index + "\t-");
+        for (PositionAnalysis move : analysis)
+            out.println(index + "\t" + move);
+        positions++;
+        if (!analysis.isEmpty())
+            nodes += analysis.get(0).getNodes();
+        return index + 1;
+    }
+    
+    /**
+     * Parses a position of the text format.
+     * @param line the line to parse.
+     * @return the position.
+     * @throws IllegalArgumentException if the line is not a valid position.
+     */
+    static Position parsePosition(String line) {
+        if (line.length() < 38 || line.charAt(36) != ' ' || (line.charAt(37) != 'b' && line.charAt(37) != 'w'))
+            throw new IllegalArgumentException("Invalid position: " + line);
+        char[][] state = new char[6][6];
+        for (int i = 0; i < 36; i++) {
+            char c = line.charAt(i);
+            if (c != '.' && c != 'b' && c != 'w')
+                throw new IllegalArgumentException("Invalid position: " + line);
+            state[i / 6][i % 6] = c;
+        }
+        return new Position(state, line.charAt(37));
+    }
+    
+    public long getPositions() {
+        return positions;
+    }
+    
+    public long getNodes() {
+        return nodes;
+    }
+    
+    /**
+     * A position to analyze.
+     */
+    static class Position {
+        
+        private final char[][] state;
+        
+        private final char token;
+        
+        Position(char[][] state, char token) {
+            this.state = state;
+            this.token = token;
+        }
+        
+        char[][] getState() {
+            return state;
+        }
+        
+        char getToken() {
+            return token;
+        }
+    }
+    
+    /**
+     * A source of positions.
+     */
+    private interface PositionSource {
+        
+        /**
+         * Returns the next position.
+         * @return the next position, or null at the end of the input.
+         */
+        Position next() throws IOException;
+    }
+    
+    /**
+     * The reusable search objects of a thread.
+     */
+    private static class Worker {
+        
+        private final UtilityFunction function;
+        
+        private final EndgameSolver solver;
+        
+        private Worker(UtilityFunction function) {
+            this.function = function;
+            solver = new EndgameSolver();
+        }
+    }
+    
+    /**
+     * Analyzes positions and prints statistics to standard error.
+     * @param args the options described in the class documentation.
+     */
+    public static void main(String[] args) throws Exception {
+        EngineConfig engine = EngineConfig.parse("depth=2", "analysis");
+        int threads = Runtime.getRuntime().availableProcessors();
+        int cacheSlots = 1 << 22;
+        int multiPv = 1;
+        boolean records = false;
+        String output = null;
+        List<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--engine":
+                    engine = EngineConfig.parse(args[++i], "analysis");
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--cache-slots":
+                    cacheSlots = Integer.parseInt(args[++i]);
+                    break;
+                case "--multi-pv":
+                    multiPv = Integer.parseInt(args[++i]);
+                    break;
+                case "--records":
+                    records = true;
+                    break;
+                case "--output":
+                    output = args[++i];
+                    break;
+                default:
+                    inputs.add(args[i]);
+            }
+        }
+        BatchAnalyzer analyzer = new BatchAnalyzer(engine, threads, cacheSlots);
+        analyzer.setMultiPv(multiPv);
+        long start = System.nanoTime();
+        try (PrintWriter out = new PrintWriter(output == null ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                : Files.newBufferedWriter(Paths.get(output)))) {
+            if (inputs.isEmpty()) {
+                analyzer.analyzeText(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), out);
+            } else {
+                for (String input : inputs) {
+                    if (records) {
+                        analyzer.analyzeRecords(Paths.get(input), out);
+                    } else {
+                        try (BufferedReader in = Files.newBufferedReader(Paths.get(input))) {
+                            analyzer.analyzeText(in, out);
+                        }
+                    }
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d positions in %.2f s: %.1f positions/s, %.0f nodes/s (%s, %d threads)%n", analyzer.getPositions(),
+                seconds, analyzer.getPositions() / seconds, analyzer.getNodes() / seconds, engine, threads);
+    }
+}
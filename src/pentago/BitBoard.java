@@ -0,0 +1,408 @@
+package pentago;
+
+/**
+ * Bitboard representation of a pentago board. Each player's tokens are stored in the low 36 bits of a long,
+ * where cell index = row * 6 + column (row and column as indexed in a GameState char[][]).
+ * Moves are encoded as a single integer in the range [0, 288):
+ *  move = cell * 8 + (block - 1) * 2 + direction
+ * Where direction is 0 for a left rotation and 1 for a right rotation.
+ * - Contains no state. All methods are static, like GameState.
+ */
+public final class BitBoard {
+    
+    /** The amount of cells on the board. */
+    public static final int CELLS = 36;
+    
+    /** The amount of distinct move codes (36 cells * 4 blocks * 2 directions). */
+    public static final int MOVES = 288;
+    
+    /** A mask containing every cell of the board. */
+    public static final long FULL = (1L << CELLS) - 1;
+    
+    /** Every five in a row on the board: 12 horizontal, 12 vertical and 8 diagonal. */
+    public static final long[] WIN_LINES = buildWinLines();
+    
+    /** The cell masks of each block (index 0 = block 1). */
+    public static final long[] BLOCK_MASKS = buildBlockMasks();
+    
+    /**
+     * Rotation lookup table indexed by [block][direction][9 bit block pattern].
+     * The value is the pattern rotated and shifted back into its board position.
+     */
+    private static final long[][][] ROTATIONS = buildRotations();
+    
+    /** The amount of symmetries of the board (4 rotations, each optionally mirrored). */
+    public static final int SYMMETRIES = 8;
+    
+    /** Cell permutation of each symmetry, indexed by [symmetry][cell]. */
+    private static final int[][] SYMMETRY_CELLS = buildSymmetryCells();
+    
+    /** Symmetry lookup table indexed by [symmetry][byte of bitboard][byte value]. */
+    private static final long[][][] SYMMETRY_BYTES = buildSymmetryBytes();
+    
+    /** Random value xor'd into a hash when 'w' is to move. */
+    private static final long WHITE_TO_MOVE = 0x9E3779B97F4A7C15L;
+    
+    private BitBoard() {
+    }
+    
+    /**
+     * Converts the tokens of a player in a state to a bitboard.
+     * @param state the state to convert.
+     * @param token the token to collect (b or w).
+     * @return the bitboard of the tokens position.
+     */
+    public static long fromState(char[][] state, char token) {
+        long bits = 0;
+        for (int i = 0; i < 6; i++) {
+            for (int j = 0; j < 6; j++) {
+                if (state[i][j] == token)
+                    bits |= 1L << (i * 6 + j);
+            }
+        }
+        return bits;
+    }
+    
+    /**
+     * Converts a pair of bitboards back to a state.
+     * @param black the b tokens.
+     * @param white the w tokens.
+     * @return a new state containing the tokens.
+     */
+    public static char[][] toState(long black, long white) {
+        char[][] state = new char[6][6];
+        for (int i = 0; i < 6; i++) {
+            for (int j = 0; j < 6; j++) {
+                long bit = 1L << (i * 6 + j);
+                if ((black & bit) != 0)
+                    state[i][j] = 'b';
+                else if ((white & bit) != 0)
+                    state[i][j] = 'w';
+                else
+                    state[i][j] = '.';
+            }
+        }
+        return state;
+    }
+    
+    /**
+     * Rotates the tokens contained in a block.
+     * @param bits the bitboard to rotate.
+     * @param block the block to rotate (0 - 3).
+     * @param direction 0 for left, 1 for right.
+     * @return the rotated bitboard.
+     */
+    public static long rotate(long bits, int block, int direction) {
+        int shift = (block >> 1) * 18 + (block & 1) * 3; //Index of the top left cell of the block.
+        int pattern = (int) ((bits >>> shift) & 7)
+                | (int) (((bits >>> (shift + 6)) & 7) << 3)
+                | (int) (((bits >>> (shift + 12)) & 7) << 6);
+        return (bits & ~BLOCK_MASKS[block]) | ROTATIONS[block][direction][pattern];
+    }
+    
+    /**
+     * Returns true if the tokens contain five in a row.
+     * @param bits the tokens to check.
+     * @return true if the tokens contain five in a row.
+     */
+    public static boolean hasFive(long bits) {
+        for (long line : WIN_LINES) {
+            if ((bits & line) == line)
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the winner of a board using the same characters as GameState.isWinningState:
+     * 'n' - no winner, 'b' or 'w' - the winner, 't' - both players have five in a row.
+     * @param black the b tokens.
+     * @param white the w tokens.
+     * @return a character indicating the winner.
+     */
+    public static char winner(long black, long white) {
+        boolean blackWins = hasFive(black);
+        boolean whiteWins = hasFive(white);
+        if (blackWins && whiteWins)
+            return 't';
+        else if (blackWins)
+            return 'b';
+        else if (whiteWins)
+            return 'w';
+        return 'n';
+    }
+    
+    /**
+     * Hashes a position.
+     * @param black the b tokens.
+     * @param white the w tokens.
+     * @param toMove the token which is to move next.
+     * @return a 64 bit hash of the position.
+     */
+    public static long hash(long black, long white, char toMove) {
+        long h = mix(black ^ mix(white + 0x632BE59BD9B4E019L));
+        return toMove == 'w' ? h ^ WHITE_TO_MOVE : h;
+    }
+    
+    /**
+     * Hashes a state.
+     * @param state the state to hash.
+     * @param toMove the token which is to move next.
+     * @return a 64 bit hash of the state.
+     */
+    public static long hash(char[][] state, char toMove) {
+        return hash(fromState(state, 'b'), fromState(state, 'w'), toMove);
+    }
+    
+    /**
+     * Finalizer of the splitmix64 generator. Spreads the bits of a value over the whole long.
+     * @param z the value to mix.
+     * @return the mixed value.
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    /**
+     * Applies a symmetry of the board to a bitboard.
+     * Symmetry s rotates the whole board clockwise (s & 3) times, mirroring columns first when (s & 4) != 0.
+     * @param bits the bitboard to transform.
+     * @param symmetry the symmetry to apply (0 - 7).
+     * @return the transformed bitboard.
+     */
+    public static long transform(long bits, int symmetry) {
+        long[][] table = SYMMETRY_BYTES[symmetry];
+        return table[0][(int) (bits & 0xFF)] | table[1][(int) ((bits >>> 8) & 0xFF)]
+                | table[2][(int) ((bits >>> 16) & 0xFF)] | table[3][(int) ((bits >>> 24) & 0xFF)]
+                | table[4][(int) ((bits >>> 32) & 0xFF)];
+    }
+    
+    /**
+     * Applies a symmetry of the board to a move, so that playing the transformed move on the transformed
+     * board results in the transformed result. Mirroring swaps the rotation direction.
+     * @param move the move to transform.
+     * @param symmetry the symmetry to apply (0 - 7).
+     * @return the transformed move.
+     */
+    public static int transformMove(int move, int symmetry) {
+        int[] cells = SYMMETRY_CELLS[symmetry];
+        int block = block(move);
+        int center = cells[((block >> 1) * 3 + 1) * 6 + (block & 1) * 3 + 1];
+        int newBlock = (center / 6 / 3) * 2 + (center % 6) / 3;
+        int newDirection = (symmetry & 4) != 0 ? 1 - direction(move) : direction(move);
+        return encode(cells[cell(move)], newBlock, newDirection);
+    }
+    
+    /**
+     * Returns the symmetry which undoes another symmetry.
+     * @param symmetry the symmetry to invert.
+     * @return the inverse symmetry.
+     */
+    public static int inverse(int symmetry) {
+        if ((symmetry & 4) != 0) //Mirrored symmetries are their own inverse.
+            return symmetry;
+        return (4 - symmetry) & 3;
+    }
+    
+    /**
+     * Returns the symmetry which maps a position to its canonical form: the form with the lowest hash
+     * out of all 8 symmetric forms.
+     * @param black the b tokens.
+     * @param white the w tokens.
+     * @param toMove the token to move.
+     * @return the symmetry mapping the position to its canonical form.
+     */
+    public static int canonicalSymmetry(long black, long white, char toMove) {
+        int best = 0;
+        long bestHash = hash(black, white, toMove);
+        for (int symmetry = 1; symmetry < SYMMETRIES; symmetry++) {
+            long h = hash(transform(black, symmetry), transform(white, symmetry), toMove);
+            if (Long.compareUnsigned(h, bestHash) < 0) {
+                bestHash = h;
+                best = symmetry;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Returns the hash of the canonical form of a position. Symmetric positions share the same canonical hash.
+     * @param black the b tokens.
+     * @param white the w tokens.
+     * @param toMove the token to move.
+     * @return the canonical hash.
+     */
+    public static long canonicalHash(long black, long white, char toMove) {
+        int symmetry = canonicalSymmetry(black, white, toMove);
+        return hash(transform(black, symmetry), transform(white, symmetry), toMove);
+    }
+    
+    /**
+     * Encodes a move.
+     * @param cell the cell to place a token in (0 - 35).
+     * @param block the block to rotate (0 - 3).
+     * @param direction 0 for left, 1 for right.
+     * @return the move code.
+     */
+    public static int encode(int cell, int block, int direction) {
+        return cell * 8 + block * 2 + direction;
+    }
+    
+    public static int cell(int move) {
+        return move >> 3;
+    }
+    
+    public static int block(int move) {
+        return (move >> 1) & 3;
+    }
+    
+    public static int direction(int move) {
+        return move & 1;
+    }
+    
+    /**
+     * Converts a move code to the argument format used by GameState.alter (b/p bd).
+     * @param move the move to convert.
+     * @return the arguments corresponding to the move.
+     */
+    public static String toArgs(int move) {
+        int cell = cell(move);
+        int row = cell / 6;
+        int column = cell % 6;
+        int placeBlock = (row / 3) * 2 + (column / 3) + 1;
+        int position = (row % 3) * 3 + (column % 3) + 1;
+        return placeBlock + "/" + position + " " + (block(move) + 1) + (direction(move) == 0 ? "l" : "r");
+    }
+    
+    /**
+     * Converts arguments (b/p bd) to a move code. Assumes the arguments are valid!
+     * @param args the arguments to convert.
+     * @return the move code of the arguments.
+     */
+    public static int fromArgs(String args) {
+        int placeBlock = args.charAt(0) - '1';
+        int position = args.charAt(2) - '1';
+        int rotateBlock = args.charAt(4) - '1';
+        int direction = Character.toLowerCase(args.charAt(5)) == 'r' ? 1 : 0;
+        int row = (placeBlock / 2) * 3 + position / 3;
+        int column = (placeBlock % 2) * 3 + position % 3;
+        return encode(row * 6 + column, rotateBlock, direction);
+    }
+    
+    /**
+     * Generates the masks of every five in a row.
+     * @return the win line masks.
+     */
+    private static long[] buildWinLines() {
+        long[] lines = new long[32];
+        int count = 0;
+        for (int i = 0; i < 6; i++) {
+            for (int start = 0; start < 2; start++) {
+                long horizontal = 0;
+                long vertical = 0;
+                for (int k = 0; k < 5; k++) {
+                    horizontal |= 1L << (i * 6 + start + k);
+                    vertical |= 1L << ((start + k) * 6 + i);
+                }
+                lines[count++] = horizontal;
+                lines[count++] = vertical;
+            }
+        }
+        for (int row = 0; row < 2; row++) {
+            for (int column = 0; column < 2; column++) {
+                long diagonal = 0;
+                long antiDiagonal = 0;
+                for (int k = 0; k < 5; k++) {
+                    diagonal |= 1L << ((row + k) * 6 + column + k);
+                    antiDiagonal |= 1L << ((row + k) * 6 + (5 - column - k));
+                }
+                lines[count++] = diagonal;
+                lines[count++] = antiDiagonal;
+            }
+        }
+        return lines;
+    }
+    
+    /**
+     * Generates the cell permutation of each symmetry.
+     * @return the symmetry cell table.
+     */
+    private static int[][] buildSymmetryCells() {
+        int[][] cells = new int[SYMMETRIES][CELLS];
+        for (int symmetry = 0; symmetry < SYMMETRIES; symmetry++) {
+            for (int cell = 0; cell < CELLS; cell++) {
+                int row = cell / 6;
+                int column = cell % 6;
+                if ((symmetry & 4) != 0) //Mirror columns.
+                    column = 5 - column;
+                for (int k = 0; k < (symmetry & 3); k++) { //Rotate clockwise: (r, c) -> (c, 5 - r).
+                    int oldRow = row;
+                    row = column;
+                    column = 5 - oldRow;
+                }
+                cells[symmetry][cell] = row * 6 + column;
+            }
+        }
+        return cells;
+    }
+    
+    /**
+     * Generates the symmetry lookup table from the cell permutations.
+     * @return the symmetry byte table.
+     */
+    private static long[][][] buildSymmetryBytes() {
+        long[][][] table = new long[SYMMETRIES][5][256];
+        for (int symmetry = 0; symmetry < SYMMETRIES; symmetry++) {
+            for (int chunk = 0; chunk < 5; chunk++) {
+                for (int value = 0; value < 256; value++) {
+                    for (int k = 0; k < 8 && chunk * 8 + k < CELLS; k++) {
+                        if ((value & (1 << k)) != 0)
+                            table[symmetry][chunk][value] |= 1L << SYMMETRY_CELLS[symmetry][chunk * 8 + k];
+                    }
+                }
+            }
+        }
+        return table;
+    }
+    
+    /**
+     * Generates the cell masks of each block.
+     * @return the block masks.
+     */
+    private static long[] buildBlockMasks() {
+        long[] masks = new long[4];
+        for (int block = 0; block < 4; block++) {
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++)
+                    masks[block] |= 1L << (((block >> 1) * 3 + i) * 6 + (block & 1) * 3 + j);
+            }
+        }
+        return masks;
+    }
+    
+    /**
+     * Generates the rotation lookup table. Rotations match GameState.rotate:
+     * right maps block position (i, j) to (j, 2 - i), left maps (i, j) to (2 - j, i).
+     * @return the rotation table.
+     */
+    private static long[][][] buildRotations() {
+        long[][][] table = new long[4][2][512];
+        for (int block = 0; block < 4; block++) {
+            int rowOffset = (block >> 1) * 3;
+            int columnOffset = (block & 1) * 3;
+            for (int pattern = 0; pattern < 512; pattern++) {
+                for (int k = 0; k < 9; k++) {
+                    if ((pattern & (1 << k)) == 0)
+                        continue;
+                    int i = k / 3;
+                    int j = k % 3;
+                    table[block][0][pattern] |= 1L << ((rowOffset + 2 - j) * 6 + columnOffset + i);
+                    table[block][1][pattern] |= 1L << ((rowOffset + j) * 6 + columnOffset + 2 - i);
+                }
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,244 @@
+package pentago;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A difficulty level of the AI, defined by how much it may search rather than by a weaker evaluation function.
+ * - A move deepens one level at a time, up to the look ahead, with streaming searches bounded by a node limit and a
+ *   time limit per move (see GameTree.setNodeLimit). A level which reaches a limit is discarded, and a level which
+ *   is predicted to reach the node limit is not started.
+ * - The best candidate moves of the last completed level are scored exactly (see GameTree.setMultiPv). The move is
+ *   chosen at random among the candidates scoring within the margin of the best one, so weak levels make plausible
+ *   mistakes instead of obvious ones.
+ * - Immediate wins and forced blocks are always played (see TacticalScan), except by the share of moves a level
+ *   plays at random. Random moves and the tactical scan alone lose only about 100 Elo to a depth 2 search, so the
+ *   weak levels need random moves to be measurably weaker.
+ * - A level may first try to prove a forced win within a part of its time limit (see ProofNumberSolver), which finds
+ *   wins beyond its look ahead. Deeper searches of the evaluation function are no stronger than depth 2.
+ * - Levels skip the endgame solver, whose cost is not bounded by the node limit.
+ * See DifficultyBenchmark for the cost and strength of the presets.
+ */
+public final class Difficulty {
+    
+    /** Plays 85% of its moves at random, and the others at random among the moves which are not lost. */
+    public static final Difficulty BEGINNER = new Difficulty("beginner", 1, 500, 50, BitBoard.MOVES, Integer.MAX_VALUE, 0.85, 0);
+    
+    /** Plays 30% of its moves at random, and the others at random among the moves which are not lost. */
+    public static final Difficulty EASY = new Difficulty("easy", 1, 500, 50, BitBoard.MOVES, Integer.MAX_VALUE, 0.3, 0);
+    
+    /** Searches up to 2 levels within 5000 nodes, and plays any move within 30 points of the best one. */
+    public static final Difficulty MEDIUM = new Difficulty("medium", 2, 5000, 100, BitBoard.MOVES, 30, 0, 0);
+    
+    /** Tries to prove a forced win for 300 ms, else searches up to 2 levels within 100000 nodes and plays the best move. */
+    public static final Difficulty HARD = new Difficulty("hard", 2, 100000, 1000, 1, 0, 0, 300);
+    
+    /** The presets, weakest first. */
+    private static final Difficulty[] PRESETS = {BEGINNER, EASY, MEDIUM, HARD};
+    
+    /** The name of the level. */
+    private final String name;
+    
+    /** The deepest look ahead. */
+    private final int lookAhead;
+    
+    /** The most nodes generated per move. */
+    private final long nodeLimit;
+    
+    /** The most time spent per move, in milliseconds. */
+    private final long timeLimitMillis;
+    
+    /** The amount of best moves scored exactly, which the move is chosen from. */
+    private final int candidates;
+    
+    /** The most a candidate may score below the best move and still be chosen. */
+    private final int margin;
+    
+    /** The share of moves played at random, from 0 to 1. */
+    private final double randomMoves;
+    
+    /** The most time spent proving a forced win per move, in milliseconds. 0 to not try. */
+    private final long proofMillis;
+    
+    /** The size of the transposition table of the proof number solver of each thread, in megabytes. */
+    private static final int PROOF_MEMORY = 16;
+    
+    /** The proof number solver of each thread, whose table is kept between the moves of the thread. */
+    private static final ThreadLocal<ProofNumberSolver> SOLVERS = ThreadLocal.withInitial(() -> new ProofNumberSolver(PROOF_MEMORY));
+    
+    /**
+     * Creates a difficulty level.
+     * @param name the name of the level.
+     * @param lookAhead the deepest look ahead, at least 1.
+     * @param nodeLimit the most nodes generated per move. The first level always completes.
+     * @param timeLimitMillis the most time spent per move, in milliseconds. The first level always completes.
+     * @param candidates the amount of best moves the move is chosen from, at least 1.
+     * @param margin the most a candidate may score below the best move and still be chosen, 0 to always play the
+     *               best move.
+     * @param randomMoves the share of moves played at random, without the tactical scan, from 0 to 1.
+     * @param proofMillis the most time spent proving a forced win per move, in milliseconds, 0 to not try. Part of
+     *                    the time limit.
+     */
+    public Difficulty(String name, int lookAhead, long nodeLimit, long timeLimitMillis, int candidates, int margin, double randomMoves, 
+            long proofMillis) {
+        this.name = name;
+        this.lookAhead = Math.max(lookAhead, 1);
+        this.nodeLimit = nodeLimit;
+        this.timeLimitMillis = timeLimitMillis;
+        this.candidates = Math.max(candidates, 1);
+        this.margin = margin;
+        this.randomMoves = randomMoves;
+        this.proofMillis = proofMillis;
+    }
+    
+    /**
+     * Returns the preset of a name.
+     * @param name the name of the preset (beginner, easy, medium or hard).
+     * @return the preset.
+     * @throws IllegalArgumentException if there is no preset of the name.
+     */
+    public static Difficulty forName(String name) {
+        for (Difficulty preset : PRESETS) {
+            if (preset.name.equalsIgnoreCase(name))
+                return preset;
+        }
+        throw new IllegalArgumentException("Unknown difficulty: " + name);
+    }
+    
+    /**
+     * Returns the presets, weakest first.
+     * @return the presets.
+     */
+    public static List<Difficulty> getPresets() {
+        return List.of(PRESETS);
+    }
+    
+    /**
+     * Chooses a move at this level.
+     * @param state the state to move in.
+     * @param token the token to move.
+     * @param function the evaluation function.
+     * @param random the random number generator the move is chosen with.
+     * @param moveStats the stats to add the search counters to. Discarded levels are not counted.
+     * @return the arguments of the chosen move, or null if no move can be made.
+     */
+    public String chooseMove(char[][] state, char token, UtilityFunction function, Random random, SearchStats moveStats) {
+        long start = System.nanoTime();
+        long deadline = start + timeLimitMillis * 1000000;
+        if (random.nextDouble() < randomMoves) //Not even an immediate win or a forced block. 
+            return GameState.canMakeMove(state) ? MatchRunner.randomMove(state, random) : null;
+        if (proofMillis > 0) {
+            ProofNumberSolver solver = SOLVERS.get();
+            int result = solver.solve(state, token, proofMillis);
+            List<String> line = solver.getLine();
+            moveStats.recordSearch(solver.getNodes(), System.nanoTime() - start, line.size());
+            if (result == ProofNumberSolver.PROVEN && !line.isEmpty())
+                return line.get(0);
+        }
+        long nodes = 0;
+        long lastLevelNodes = 0;
+        GameTreeNode choice = null;
+        List<PositionAnalysis> rootMoves = new ArrayList<PositionAnalysis>();
+        for (int depth = 1; depth <= lookAhead; depth++) {
+            if (depth > 1) {
+                if (nodes + lastLevelNodes * TimeManager.estimateGrowth(GameState.countEmpty(state)) > nodeLimit) //The level would not finish within the node limit.
+                    break;
+            }
+            GameTree tree = new GameTree(state, token, depth, function, true);
+            tree.setStreaming(true);
+            tree.setEndgameThreshold(0);
+            tree.setMultiPv(candidates);
+            if (depth > 1) {
+                tree.setNodeLimit(nodeLimit - nodes);
+                tree.setDeadline(deadline);
+            }
+            try {
+                choice = tree.getNext();
+            } catch (CancellationException e) { //The level reached a limit, keep the last completed one.
+                break;
+            }
+            moveStats.add(tree.getStats());
+            lastLevelNodes = tree.getStats().getNodes();
+            nodes += lastLevelNodes;
+            rootMoves = tree.getRootMoves();
+            if (choice == null || rootMoves.isEmpty()) //No moves, or the move was known without searching (e.g. a forced block).
+                break;
+            if (isDecided(choice.getScore()) || System.nanoTime() - deadline > 0)
+                break;
+        }
+        if (choice == null)
+            return null;
+        if (rootMoves.isEmpty())
+            return choice.getArgs();
+        return pick(rootMoves, token == 'b', random);
+    }
+    
+    /**
+     * Picks one of the candidates scoring within the margin of the best one, uniformly at random. A won score is
+     * never given up and a lost score is never chosen over one which is not lost.
+     * @param moves the candidates, best first.
+     * @param maximizer true if higher scores are better.
+     * @param random the random number generator to use.
+     * @return the arguments of the picked move.
+     */
+    private String pick(List<PositionAnalysis> moves, boolean maximizer, Random random) {
+        int best = moves.get(0).getScore();
+        if (margin <= 0 || isDecided(best))
+            return moves.get(0).getMove();
+        ArrayList<String> near = new ArrayList<String>();
+        for (PositionAnalysis move : moves) {
+            long loss = maximizer ? (long) best - move.getScore() : (long) move.getScore() - best;
+            if (loss <= margin && !isDecided(move.getScore()))
+                near.add(move.getMove());
+        }
+        return near.isEmpty() ? moves.get(0).getMove() : near.get(random.nextInt(near.size()));
+    }
+    
+    /**
+     * Returns true if a score is a certain win or loss.
+     */
+    private static boolean isDecided(int score) {
+        return score == Integer.MAX_VALUE || score == Integer.MIN_VALUE;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public int getLookAhead() {
+        return lookAhead;
+    }
+    
+    public long getNodeLimit() {
+        return nodeLimit;
+    }
+    
+    public long getTimeLimitMillis() {
+        return timeLimitMillis;
+    }
+    
+    public int getCandidates() {
+        return candidates;
+    }
+    
+    public int getMargin() {
+        return margin;
+    }
+    
+    public double getRandomMoves() {
+        return randomMoves;
+    }
+    
+    public long getProofMillis() {
+        return proofMillis;
+    }
+    
+    @Override
+    public String toString() {
+        return name + " (depth=" + lookAhead + ", nodes=" + nodeLimit + ", time=" + timeLimitMillis + "ms, candidates="
+                + candidates + ", margin=" + margin + (randomMoves > 0 ? ", random=" + randomMoves : "")
+                + (proofMillis > 0 ? ", proof=" + proofMillis + "ms" : "") + ")";
+    }
+}
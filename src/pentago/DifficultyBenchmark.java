@@ -0,0 +1,64 @@
+package pentago;
+
+/**
+ * Measures the cost and strength of each difficulty preset (see Difficulty), to size the capacity of each tier.
+ * Every preset plays a match against the same reference engine (see MatchRunner), and is reported with its CPU time
+ * and nodes per move, its move latency and its Elo relative to the reference, with a 95% confidence interval.
+ * Usage: java pentago.DifficultyBenchmark [--games N] [--threads N] [--seed N] [--reference spec]
+ * - See EngineConfig.parse for the engine spec format. The reference defaults to depth=2.
+ */
+public class DifficultyBenchmark {
+    
+    /**
+     * Runs the benchmark and prints a row per preset.
+     * @param args the options described in the class documentation.
+     */
+    public static void main(String[] args) throws Exception {
+        int games = 40;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        EngineConfig reference = EngineConfig.parse("depth=2", "reference");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--games":
+                    games = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--reference":
+                    reference = EngineConfig.parse(args[i + 1], "reference");
+                    break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+        System.out.println("Reference: " + reference + ", " + games + " games per level.");
+        String header = "%-10s %12s %12s %10s %8s %8s %20s";
+        String row = "%-10s %12.3f %12.0f %10.1f %8.3f %+8.0f %20s";
+        System.out.println(String.format(header, "level", "cpu ms/move", "nodes/move", "p99 ms", "score", "elo", "95% ci"));
+        MatchResult last = null;
+        for (Difficulty level : Difficulty.getPresets()) {
+            MatchResult result = new MatchRunner(reference.withDifficulty(level), reference, games, threads, seed, 2).run();
+            double[] interval = result.getEloInterval();
+            System.out.println(String.format(row, level.getName(), result.getCpuNanosPerMove(0) / 1e6, nodesPerMove(result, 0),
+                    result.getLatencyPercentile(0, 99) / 1e6, result.getScore(), result.getEloDifference(), 
+                    String.format("%+.0f to %+.0f", interval[0], interval[1])));
+            last = result;
+        }
+        if (last != null) //The reference plays the same in every match.
+            System.out.println(String.format(row, "reference", last.getCpuNanosPerMove(1) / 1e6, nodesPerMove(last, 1),
+                    last.getLatencyPercentile(1, 99) / 1e6, 0.5, 0.0, ""));
+    }
+    
+    /**
+     * Returns the average nodes per move of an engine of a match.
+     */
+    private static double nodesPerMove(MatchResult result, int engine) {
+        return result.getMoves(engine) == 0 ? 0 : (double) result.getStats(engine).getNodes() / result.getMoves(engine);
+    }
+}
@@ -0,0 +1,270 @@
+package pentago;
+
+/**
+ * Exact solver for positions with few empty cells. Searches every remaining move until the end of the game
+ * and proves the position as a win, draw or loss for the token to move.
+ * - Works on bitboards (see BitBoard) rather than char[][] states.
+ * - Results are stored in a dedicated transposition table.
+ * - Moves which win immediately are taken first, moves which draw immediately raise the lower bound before
+ *   any subtree is searched, and children known to be lost for the opponent are searched first.
+ * - If a tablebase is set, positions stored in it are not searched.
+ */
+public class EndgameSolver {
+    
+    /** The default maximum number of empty cells for which the solver is used. */
+    public static final int DEFAULT_THRESHOLD = 6;
+    
+    /** Result indicating the token to move wins. */
+    public static final int WIN = 1;
+    
+    /** Result indicating the game ends in a draw (tie or filled board). */
+    public static final int DRAW = 0;
+    
+    /** Result indicating the token to move loses. */
+    public static final int LOSS = -1;
+    
+    /** Transposition table bound flags. */
+    private static final int EXACT = 1;
+    private static final int LOWER = 2;
+    private static final int UPPER = 3;
+    
+    /** Transposition table keys (position hashes). */
+    private final long[] keys;
+    
+    /** Transposition table entries. Bits 0-1: result + 1, bits 2-3: bound flag. 0 = empty. */
+    private final byte[] entries;
+    
+    /** Mask used to index the transposition table. */
+    private final int tableMask;
+    
+    /** Children generated at each ply, stored as pairs of bitboards (mover, opponent). */
+    private final long[][] childBuffers;
+    
+    /** The table of exact values probed before searching a position. Null if no tablebase is used. */
+    private Tablebase tablebase;
+    
+    /** The amount of positions searched since the solver was created. */
+    private long nodes;
+    
+    /**
+     * Creates an endgame solver with a transposition table of 2^20 entries.
+     */
+    public EndgameSolver() {
+        this(20);
+    }
+    
+    /**
+     * Creates an endgame solver.
+     * @param tableBits the log2 size of the transposition table.
+     */
+    public EndgameSolver(int tableBits) {
+        keys = new long[1 << tableBits];
+        entries = new byte[1 << tableBits];
+        tableMask = (1 << tableBits) - 1;
+        childBuffers = new long[BitBoard.CELLS + 1][BitBoard.MOVES * 2];
+    }
+    
+    /**
+     * Solves a state.
+     * @param state the state to solve.
+     * @param token the token to move.
+     * @return WIN, DRAW or LOSS for the token to move.
+     */
+    public int solve(char[][] state, char token) {
+        long mine = BitBoard.fromState(state, token);
+        long theirs = BitBoard.fromState(state, token == 'b' ? 'w' : 'b');
+        return search(mine, theirs, LOSS, WIN, 0);
+    }
+    
+    /**
+     * Returns the best move of a state. Prefers wins, then draws.
+     * @param state the state to find the best move of.
+     * @param token the token to move.
+     * @return the move code of the best move (see BitBoard), or -1 if no moves can be made.
+     */
+    public int bestMove(char[][] state, char token) {
+        long mine = BitBoard.fromState(state, token);
+        long theirs = BitBoard.fromState(state, token == 'b' ? 'w' : 'b');
+        long empty = ~(mine | theirs) & BitBoard.FULL;
+        int bestMove = -1;
+        int bestValue = LOSS - 1;
+        for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+            if ((empty & (1L << cell)) == 0)
+                continue;
+            long placed = mine | (1L << cell);
+            if (BitBoard.hasFive(placed)) //Placing wins, the rotation is skipped.
+                return BitBoard.encode(cell, 0, 0);
+            for (int block = 0; block < 4; block++) {
+                for (int direction = 0; direction < 2; direction++) {
+                    int value = moveValue(placed, theirs, block, direction, bestValue);
+                    if (value > bestValue) {
+                        bestValue = value;
+                        bestMove = BitBoard.encode(cell, block, direction);
+                        if (value == WIN)
+                            return bestMove;
+                    }
+                }
+            }
+        }
+        return bestMove;
+    }
+    
+    /**
+     * Calculates the value of rotating a block after a token has been placed.
+     * @param placed the movers tokens after placing.
+     * @param theirs the opponents tokens.
+     * @param block the block to rotate.
+     * @param direction the direction to rotate.
+     * @param alpha the value which has to be beaten.
+     * @return the value of the move for the mover.
+     */
+    private int moveValue(long placed, long theirs, int block, int direction, int alpha) {
+        long mine = BitBoard.rotate(placed, block, direction);
+        long other = BitBoard.rotate(theirs, block, direction);
+        int terminal = terminalValue(mine, other);
+        if (terminal != Integer.MIN_VALUE)
+            return terminal;
+        return -search(other, mine, LOSS, -Math.max(alpha, LOSS), 1);
+    }
+    
+    /**
+     * Returns the value of a position after a rotation, or Integer.MIN_VALUE if the game continues.
+     * @param mine the tokens of the player who moved.
+     * @param theirs the tokens of the other player.
+     * @return the value for the player who moved.
+     */
+    static int terminalValue(long mine, long theirs) {
+        boolean iWin = BitBoard.hasFive(mine);
+        boolean theyWin = BitBoard.hasFive(theirs);
+        if (iWin && theyWin)
+            return DRAW;
+        else if (iWin)
+            return WIN;
+        else if (theyWin)
+            return LOSS;
+        else if ((mine | theirs) == BitBoard.FULL)
+            return DRAW;
+        return Integer.MIN_VALUE;
+    }
+    
+    /**
+     * Negamax search with alpha beta pruning over the results {LOSS, DRAW, WIN}.
+     * @param mine the tokens of the player to move.
+     * @param theirs the tokens of the opponent.
+     * @param alpha the lower bound.
+     * @param beta the upper bound.
+     * @param ply the distance from the root of the search.
+     * @return the value of the position for the player to move.
+     */
+    private int search(long mine, long theirs, int alpha, int beta, int ply) {
+        nodes++;
+        long key = BitBoard.hash(mine, theirs, 'b');
+        int index = (int) key & tableMask;
+        if (keys[index] == key && entries[index] != 0) { //Transposition table hit.
+            int value = (entries[index] & 3) - 1;
+            int flag = entries[index] >> 2;
+            if (flag == EXACT || (flag == LOWER && value >= beta) || (flag == UPPER && value <= alpha))
+                return value;
+        }
+        if (tablebase != null) {
+            int value = tablebase.probe(mine, theirs);
+            if (value != Tablebase.MISS)
+                return store(index, key, value, EXACT);
+        }
+        long empty = ~(mine | theirs) & BitBoard.FULL;
+        for (long e = empty; e != 0; e &= e - 1) { //Win first: placing five in a row ends the game.
+            if (BitBoard.hasFive(mine | Long.lowestOneBit(e)))
+                return store(index, key, WIN, EXACT);
+        }
+        int originalAlpha = alpha;
+        int best = LOSS;
+        long[] children = childBuffers[ply];
+        int childCount = 0;
+        for (long e = empty; e != 0; e &= e - 1) {
+            long placed = mine | Long.lowestOneBit(e);
+            boolean identityAdded = false;
+            for (int move = 0; move < 8; move++) {
+                long nextMine = BitBoard.rotate(placed, move >> 1, move & 1);
+                long nextTheirs = BitBoard.rotate(theirs, move >> 1, move & 1);
+                if (nextMine == placed && nextTheirs == theirs) { //Rotation leaves the board unchanged.
+                    if (identityAdded)
+                        continue;
+                    identityAdded = true;
+                }
+                int terminal = terminalValue(nextMine, nextTheirs);
+                if (terminal == WIN)
+                    return store(index, key, WIN, EXACT);
+                if (terminal != Integer.MIN_VALUE) { //Draws (and losses) need no search.
+                    best = Math.max(best, terminal);
+                    continue;
+                }
+                children[childCount * 2] = nextTheirs;
+                children[childCount * 2 + 1] = nextMine;
+                childCount++;
+            }
+        }
+        alpha = Math.max(alpha, best);
+        if (alpha >= beta)
+            return store(index, key, best, LOWER);
+        orderChildren(children, childCount);
+        for (int i = 0; i < childCount; i++) {
+            int value = -search(children[i * 2], children[i * 2 + 1], -beta, -alpha, ply + 1);
+            if (value > best) {
+                best = value;
+                alpha = Math.max(alpha, value);
+                if (alpha >= beta)
+                    break;
+            }
+        }
+        int flag = best <= originalAlpha ? UPPER : (best >= beta ? LOWER : EXACT);
+        return store(index, key, best, flag);
+    }
+    
+    /**
+     * Moves children that are known losses for the opponent to the front of the child list.
+     * @param children the child list (pairs of bitboards).
+     * @param childCount the amount of children.
+     */
+    private void orderChildren(long[] children, int childCount) {
+        int front = 0;
+        for (int i = 0; i < childCount; i++) {
+            long key = BitBoard.hash(children[i * 2], children[i * 2 + 1], 'b');
+            int index = (int) key & tableMask;
+            if (keys[index] == key && entries[index] != 0 && (entries[index] & 3) - 1 == LOSS) {
+                long first = children[front * 2];
+                long second = children[front * 2 + 1];
+                children[front * 2] = children[i * 2];
+                children[front * 2 + 1] = children[i * 2 + 1];
+                children[i * 2] = first;
+                children[i * 2 + 1] = second;
+                front++;
+            }
+        }
+    }
+    
+    /**
+     * Stores a result in the transposition table.
+     * @return the value stored.
+     */
+    private int store(int index, long key, int value, int flag) {
+        keys[index] = key;
+        entries[index] = (byte) ((value + 1) | (flag << 2));
+        return value;
+    }
+    
+    /**
+     * Sets the table of exact values probed before searching a position.
+     * @param tablebase the tablebase, or null to search every position.
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+    
+    /**
+     * Returns the amount of positions searched by this solver.
+     * @return the amount of positions searched.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+}
@@ -0,0 +1,355 @@
+package pentago;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Configuration of an AI engine: how deep it searches, which evaluation function it uses, whether it uses alpha
+ * beta pruning and how much time it may spend per move or per game. An engine with a difficulty level searches as
+ * the level decides instead (see Difficulty), with the evaluation function of the configuration.
+ */
+public class EngineConfig {
+    
+    /** The name of the engine, used in reports. */
+    private final String name;
+    
+    /** The look ahead of the game tree. */
+    private final int lookAhead;
+    
+    /** The blocking bonus of the evaluation function, or -1 for the basic evaluation function. */
+    private final int blockingBonus;
+    
+    /** Indicates if the game tree uses alpha beta pruning. */
+    private final boolean alphaBetaPruning;
+    
+    /** The time budget per move in milliseconds. 0 for no budget (always search to the full look ahead). */
+    private final long timeBudgetMillis;
+    
+    /** Indicates if the game tree searches depth first with bounded memory (see GameTree.setStreaming). */
+    private final boolean streaming;
+    
+    /** The amount of slots of the evaluation cache, 0 for no cache. */
+    private final int evaluationCacheSlots;
+    
+    /** The time of the engine for a whole game in milliseconds (see TimeManager). 0 for no game clock. */
+    private final long clockMillis;
+    
+    /** The time added to the game clock after each move in milliseconds. */
+    private final long incrementMillis;
+    
+    /** The difficulty level which chooses the moves of the engine, or null to search with this configuration. */
+    private final Difficulty difficulty;
+    
+    /** The network of the neural evaluation function (see NeuralEvaluator), or null for the line counting functions. */
+    private final NeuralNetwork network;
+    
+    /** The most nodes the game tree may hold (see GameTree.setMemoryBudget), Long.MAX_VALUE for no budget. */
+    private final long memoryBudget;
+    
+    /**
+     * Creates an engine configuration without a game clock, evaluation cache, difficulty level, neural network or 
+     * memory budget, searching with the whole tree in memory. The other options are set on copies (see withStreaming, 
+     * withEvaluationCache, withClock, withDifficulty, withNetwork and withMemoryBudget).
+     * @param name the name of the engine.
+     * @param lookAhead the look ahead of the game tree.
+     * @param blockingBonus the blocking bonus of the advanced evaluation function, or -1 for the basic function.
+     * @param alphaBetaPruning true to use alpha beta pruning.
+     * @param timeBudgetMillis the time budget per move in milliseconds, 0 for none.
+     */
+    public EngineConfig(String name, int lookAhead, int blockingBonus, boolean alphaBetaPruning, long timeBudgetMillis) {
+        this(name, lookAhead, blockingBonus, alphaBetaPruning, timeBudgetMillis, false, 0, 0, 0, null, null, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Creates an engine configuration with every option, for the copies.
+     */
+    private EngineConfig(String name, int lookAhead, int blockingBonus, boolean alphaBetaPruning, long timeBudgetMillis, boolean streaming, 
+            int evaluationCacheSlots, long clockMillis, long incrementMillis, Difficulty difficulty, NeuralNetwork network, long memoryBudget) {
+        this.name = name;
+        this.lookAhead = lookAhead;
+        this.blockingBonus = blockingBonus;
+        this.alphaBetaPruning = alphaBetaPruning;
+        this.timeBudgetMillis = timeBudgetMillis;
+        this.streaming = streaming;
+        this.evaluationCacheSlots = evaluationCacheSlots;
+        this.clockMillis = clockMillis;
+        this.incrementMillis = incrementMillis;
+        this.difficulty = difficulty;
+        this.network = network;
+        this.memoryBudget = memoryBudget;
+    }
+    
+    /**
+     * Parses a configuration of the form key=value,key=value. Keys:
+     *  name     - the name of the engine.
+     *  depth    - the look ahead (default 2).
+     *  eval     - basic, advanced (blocking bonus 2), advanced:N or neural:<weights file> (see NeuralTrainer) 
+     *             (default advanced).
+     *  pruning  - true or false (default true).
+     *  time     - the time budget per move in milliseconds (default 0, no budget).
+     *  stream   - true to search depth first with bounded memory, for deep look aheads (default false).
+     *  evalcache - the amount of slots of the evaluation cache (default 0, no cache).
+     *  clock    - the time for a whole game in milliseconds, spent by a TimeManager (default 0, no clock).
+     *  inc      - the time added to the clock after each move in milliseconds (default 0).
+     *  level    - a difficulty preset (beginner, easy, medium or hard) which chooses the moves, ignoring the depth,
+     *             pruning, time, stream and clock options (default none).
+     *  treenodes - the most nodes the game tree may hold; searches which would exceed it stop at a shallower depth 
+     *             (default none).
+     *  treemem  - the same budget in megabytes, at GameTreeNode.ESTIMATED_BYTES per node (default none).
+     * @param spec the configuration to parse.
+     * @param defaultName the name to use if none is given.
+     * @return the parsed configuration.
+     * @throws IllegalArgumentException if the configuration cannot be parsed.
+     */
+    public static EngineConfig parse(String spec, String defaultName) {
+        String name = defaultName;
+        int lookAhead = 2;
+        int blockingBonus = 2;
+        boolean pruning = true;
+        long time = 0;
+        boolean streaming = false;
+        int evaluationCacheSlots = 0;
+        long clock = 0;
+        long increment = 0;
+        Difficulty difficulty = null;
+        NeuralNetwork network = null;
+        long memoryBudget = Long.MAX_VALUE;
+        for (String option : spec.split(",")) {
+            if (option.isEmpty())
+                continue;
+            String[] keyValue = option.split("=", 2);
+            if (keyValue.length != 2)
+                throw new IllegalArgumentException("Invalid engine option: " + option);
+            String value = keyValue[1];
+            switch (keyValue[0]) {
+                case "name":
+                    name = value;
+                    break;
+                case "depth":
+                    lookAhead = Integer.parseInt(value);
+                    break;
+                case "eval":
+                    if (value.equals("basic"))
+                        blockingBonus = -1;
+                    else if (value.equals("advanced"))
+                        blockingBonus = 2;
+                    else if (value.startsWith("advanced:"))
+                        blockingBonus = Integer.parseInt(value.substring(9));
+                    else if (value.startsWith("neural:"))
+                        network = loadNetwork(value.substring(7));
+                    else
+                        throw new IllegalArgumentException("Unknown evaluation function: " + value);
+                    break;
+                case "pruning":
+                    pruning = Boolean.parseBoolean(value);
+                    break;
+                case "time":
+                    time = Long.parseLong(value);
+                    break;
+                case "stream":
+                    streaming = Boolean.parseBoolean(value);
+                    break;
+                case "evalcache":
+                    evaluationCacheSlots = Integer.parseInt(value);
+                    break;
+                case "clock":
+                    clock = Long.parseLong(value);
+                    break;
+                case "inc":
+                    increment = Long.parseLong(value);
+                    break;
+                case "level":
+                    difficulty = Difficulty.forName(value);
+                    break;
+                case "treenodes":
+                    memoryBudget = Long.parseLong(value);
+                    break;
+                case "treemem":
+                    memoryBudget = Long.parseLong(value) * 1048576 / GameTreeNode.ESTIMATED_BYTES;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown engine option: " + keyValue[0]);
+            }
+        }
+        return new EngineConfig(name, lookAhead, blockingBonus, pruning, time).withStreaming(streaming)
+                .withEvaluationCache(evaluationCacheSlots).withClock(clock, increment).withDifficulty(difficulty).withNetwork(network)
+                .withMemoryBudget(memoryBudget);
+    }
+    
+    /**
+     * Loads the weights of a neural evaluation function for parse. 
+     * @throws IllegalArgumentException if the weights cannot be loaded. 
+     */
+    private static NeuralNetwork loadNetwork(String path) {
+        try {
+            return NeuralNetwork.load(Paths.get(path));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot load weights: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Creates the evaluation function of this configuration. Evaluation functions only hold their evaluation cache,
+     * which is thread safe, so the result may be shared between threads.
+     * @return a new evaluation function, with a new evaluation cache if the configuration has one.
+     */
+    public UtilityFunction createEvaluationFunction() {
+        UtilityFunction function;
+        if (network != null)
+            function = new NeuralEvaluator(network);
+        else
+            function = blockingBonus < 0 ? new UtilityFunction() : new UtilityFunction(blockingBonus);
+        if (evaluationCacheSlots > 0)
+            function.setEvaluationCache(new EvaluationCache(evaluationCacheSlots));
+        return function;
+    }
+    
+    /**
+     * Creates the time manager of a game played with this configuration.
+     * @return a new time manager with a full clock, or null if the configuration has no game clock.
+     */
+    public TimeManager createTimeManager() {
+        return clockMillis > 0 ? new TimeManager(clockMillis, incrementMillis) : null;
+    }
+    
+    /**
+     * Returns a copy of this configuration which searches depth first with bounded memory, or not.
+     * @param streaming true to search depth first with bounded memory.
+     * @return the copy.
+     */
+    public EngineConfig withStreaming(boolean streaming) {
+        return new EngineConfig(name, lookAhead, blockingBonus, alphaBetaPruning, timeBudgetMillis, streaming, evaluationCacheSlots, 
+                clockMillis, incrementMillis, difficulty, network, memoryBudget);
+    }
+    
+    /**
+     * Returns a copy of this configuration with another evaluation cache.
+     * @param evaluationCacheSlots the amount of slots of the evaluation cache, 0 for no cache.
+     * @return the copy.
+     */
+    public EngineConfig withEvaluationCache(int evaluationCacheSlots) {
+        return new EngineConfig(name, lookAhead, blockingBonus, alphaBetaPruning, timeBudgetMillis, streaming, evaluationCacheSlots, 
+                clockMillis, incrementMillis, difficulty, network, memoryBudget);
+    }
+    
+    /**
+     * Returns a copy of this configuration with another game clock. With a game clock, the look ahead is the deepest 
+     * look ahead.
+     * @param clockMillis the time of the engine for a whole game in milliseconds, 0 for no game clock.
+     * @param incrementMillis the time added to the game clock after each move in milliseconds.
+     * @return the copy.
+     */
+    public EngineConfig withClock(long clockMillis, long incrementMillis) {
+        return new EngineConfig(name, lookAhead, blockingBonus, alphaBetaPruning, timeBudgetMillis, streaming, evaluationCacheSlots, 
+                clockMillis, incrementMillis, difficulty, network, memoryBudget);
+    }
+    
+    /**
+     * Returns a copy of this configuration with another neural evaluation function.
+     * @param network the network of the neural evaluation function, which replaces the blocking bonus, or null.
+     * @return the copy.
+     */
+    public EngineConfig withNetwork(NeuralNetwork network) {
+        return new EngineConfig(name, lookAhead, blockingBonus, alphaBetaPruning, timeBudgetMillis, streaming, evaluationCacheSlots, 
+                clockMillis, incrementMillis, difficulty, network, memoryBudget);
+    }
+    
+    /**
+     * Returns a copy of this configuration with another memory budget of the game tree.
+     * @param memoryBudget the most nodes the game tree may hold, Long.MAX_VALUE for no budget.
+     * @return the copy.
+     */
+    public EngineConfig withMemoryBudget(long memoryBudget) {
+        return new EngineConfig(name, lookAhead, blockingBonus, alphaBetaPruning, timeBudgetMillis, streaming, evaluationCacheSlots, 
+                clockMillis, incrementMillis, difficulty, network, memoryBudget);
+    }
+    
+    /**
+     * Returns a copy of this configuration whose moves are chosen by a difficulty level.
+     * @param difficulty the difficulty level, or null to search with the configuration.
+     * @return the copy.
+     */
+    public EngineConfig withDifficulty(Difficulty difficulty) {
+        return new EngineConfig(name, lookAhead, blockingBonus, alphaBetaPruning, timeBudgetMillis, streaming, evaluationCacheSlots, 
+                clockMillis, incrementMillis, difficulty, network, memoryBudget);
+    }
+    
+    /**
+     * Returns a copy of this configuration with another look ahead and time budget per move.
+     * @param lookAhead the look ahead of the game tree.
+     * @param timeBudgetMillis the time budget per move in milliseconds, 0 for none.
+     * @return the copy.
+     */
+    public EngineConfig withTimeBudget(int lookAhead, long timeBudgetMillis) {
+        return new EngineConfig(name, lookAhead, blockingBonus, alphaBetaPruning, timeBudgetMillis, streaming, evaluationCacheSlots, 
+                clockMillis, incrementMillis, difficulty, network, memoryBudget);
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public int getLookAhead() {
+        return lookAhead;
+    }
+    
+    public int getBlockingBonus() {
+        return blockingBonus;
+    }
+    
+    public boolean isAlphaBetaPruning() {
+        return alphaBetaPruning;
+    }
+    
+    public long getTimeBudgetMillis() {
+        return timeBudgetMillis;
+    }
+    
+    public boolean isStreaming() {
+        return streaming;
+    }
+    
+    public int getEvaluationCacheSlots() {
+        return evaluationCacheSlots;
+    }
+    
+    public long getClockMillis() {
+        return clockMillis;
+    }
+    
+    public long getIncrementMillis() {
+        return incrementMillis;
+    }
+    
+    public Difficulty getDifficulty() {
+        return difficulty;
+    }
+    
+    public NeuralNetwork getNetwork() {
+        return network;
+    }
+    
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+    
+    /**
+     * Describes the evaluation function, as in an engine spec. 
+     */
+    private String describeEvaluation() {
+        if (network != null)
+            return "neural";
+        return blockingBonus < 0 ? "basic" : "advanced:" + blockingBonus;
+    }
+    
+    @Override
+    public String toString() {
+        if (difficulty != null)
+            return name + " (level=" + difficulty.getName() + ", eval=" + describeEvaluation() + ")";
+        return name + " (depth=" + lookAhead + ", eval=" + describeEvaluation()
+                + ", pruning=" + alphaBetaPruning + ", time=" + timeBudgetMillis + "ms" + (streaming ? ", stream" : "")
+                + (evaluationCacheSlots > 0 ? ", evalcache=" + evaluationCacheSlots : "")
+                + (clockMillis > 0 ? ", clock=" + clockMillis + "+" + incrementMillis + "ms" : "")
+                + (memoryBudget != Long.MAX_VALUE ? ", treenodes=" + memoryBudget : "") + ")";
+    }
+}
@@ -0,0 +1,214 @@
+package pentago;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Engine counters published over JMX (see EngineMetricsMXBean), so running games can be watched without a profiler.
+ * - Moves are recorded by whoever chooses them: a GameTree (see GameTree.setMetrics) or the server, which
+ *   searches every move with new trees.
+ * - Move latencies go into a fixed histogram of 4 buckets per power of two of microseconds, so percentiles are
+ *   within 25% and memory does not grow with the amount of moves (unlike MatchResult, which keeps every latency).
+ * - Thread safe. Recording a move takes a lock for a few counter updates.
+ */
+public class EngineMetrics implements EngineMetricsMXBean {
+    
+    /** The length of the window rates are measured over, in seconds. */
+    public static final int WINDOW_SECONDS = 10;
+    
+    /** The amount of latency buckets: 8 exact values, then 4 per power of two up to 2^54 microseconds. */
+    private static final int BUCKETS = 212;
+    
+    /** The amount of moves per latency bucket. */
+    private final long[] latencyBuckets = new long[BUCKETS];
+    
+    /** The second each window slot counts, since the metrics were created. */
+    private final long[] windowSeconds = new long[WINDOW_SECONDS];
+    
+    /** The searches of each window slot. */
+    private final long[] windowSearches = new long[WINDOW_SECONDS];
+    
+    /** The nodes of each window slot. */
+    private final long[] windowNodes = new long[WINDOW_SECONDS];
+    
+    /** The time the metrics were created, in nanoseconds (System.nanoTime). */
+    private final long origin;
+    
+    /** Totals since the last reset. */
+    private long moves, searches, nodes, cacheProbes, cacheHits, truncatedSearches;
+    
+    /** The longest move since the last reset, in nanoseconds. */
+    private long maxLatency;
+    
+    /** The nodes of the tree searched for the last move which was searched. */
+    private long liveTreeNodes;
+    
+    /**
+     * Creates metrics with every counter at 0. They are not visible over JMX until registered.
+     */
+    public EngineMetrics() {
+        origin = System.nanoTime();
+    }
+    
+    /**
+     * Registers the metrics with the platform MBean server as pentago:type=EngineMetrics,name=[name].
+     * @param name the name of the engine, unique within the JVM.
+     * @return these metrics.
+     * @throws IllegalStateException if the metrics cannot be registered (e.g. the name is in use).
+     */
+    public EngineMetrics register(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("pentago:type=EngineMetrics,name=" + ObjectName.quote(name)));
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register metrics " + name + ": " + e.getMessage());
+        }
+        return this;
+    }
+    
+    /**
+     * Records a chosen move.
+     * @param nanos the time taken to choose the move.
+     * @param moveStats the searches made to choose the move (none if the move was known).
+     */
+    public synchronized void recordMove(long nanos, SearchStats moveStats) {
+        moves++;
+        searches += moveStats.getSearches();
+        nodes += moveStats.getNodes();
+        cacheProbes += moveStats.getEvaluationCacheProbes();
+        cacheHits += moveStats.getEvaluationCacheHits();
+        truncatedSearches += moveStats.getTruncatedSearches();
+        if (moveStats.getSearches() > 0)
+            liveTreeNodes = moveStats.getLastNodes();
+        maxLatency = Math.max(maxLatency, nanos);
+        latencyBuckets[bucket(Math.max(nanos, 0) / 1000)]++;
+        long second = (System.nanoTime() - origin) / 1000000000;
+        int slot = (int) (second % WINDOW_SECONDS);
+        if (windowSeconds[slot] != second) { //The slot counted a second which has left the window.
+            windowSeconds[slot] = second;
+            windowSearches[slot] = 0;
+            windowNodes[slot] = 0;
+        }
+        windowSearches[slot] += moveStats.getSearches();
+        windowNodes[slot] += moveStats.getNodes();
+    }
+    
+    @Override
+    public synchronized long getMoves() {
+        return moves;
+    }
+    
+    @Override
+    public synchronized long getSearches() {
+        return searches;
+    }
+    
+    @Override
+    public synchronized long getNodes() {
+        return nodes;
+    }
+    
+    @Override
+    public synchronized double getSearchesPerSecond() {
+        return windowRate(windowSearches);
+    }
+    
+    @Override
+    public synchronized double getNodesPerSecond() {
+        return windowRate(windowNodes);
+    }
+    
+    @Override
+    public double getMoveLatencyP50Millis() {
+        return getLatencyPercentile(50) / 1e6;
+    }
+    
+    @Override
+    public double getMoveLatencyP99Millis() {
+        return getLatencyPercentile(99) / 1e6;
+    }
+    
+    @Override
+    public synchronized double getMoveLatencyMaxMillis() {
+        return maxLatency / 1e6;
+    }
+    
+    @Override
+    public synchronized double getEvaluationCacheHitRate() {
+        return cacheProbes == 0 ? 0 : (double) cacheHits / cacheProbes;
+    }
+    
+    @Override
+    public synchronized long getLiveTreeNodes() {
+        return liveTreeNodes;
+    }
+    
+    @Override
+    public synchronized long getTruncatedSearches() {
+        return truncatedSearches;
+    }
+    
+    @Override
+    public synchronized void reset() {
+        moves = searches = nodes = cacheProbes = cacheHits = truncatedSearches = 0;
+        maxLatency = 0;
+        liveTreeNodes = 0;
+        Arrays.fill(latencyBuckets, 0);
+        Arrays.fill(windowSearches, 0);
+        Arrays.fill(windowNodes, 0);
+    }
+    
+    /**
+     * Returns a percentile of the move latencies: the upper bound of the bucket holding it, at most the longest move.
+     * @param percentile the percentile (0 - 100).
+     * @return the latency in nanoseconds, 0 if no move has been recorded.
+     */
+    public synchronized long getLatencyPercentile(double percentile) {
+        if (moves == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * moves));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += latencyBuckets[bucket];
+            if (seen >= rank)
+                return upperBound(bucket) >= maxLatency / 1000 ? maxLatency : upperBound(bucket) * 1000 + 999;
+        }
+        return maxLatency;
+    }
+    
+    /**
+     * Returns the per second rate of a window counter over the seconds of the window which have passed.
+     */
+    private double windowRate(long[] counts) {
+        long second = (System.nanoTime() - origin) / 1000000000;
+        long total = 0;
+        for (int slot = 0; slot < WINDOW_SECONDS; slot++) {
+            if (second - windowSeconds[slot] < WINDOW_SECONDS)
+                total += counts[slot];
+        }
+        return (double) total / Math.min(WINDOW_SECONDS, second + 1);
+    }
+    
+    /**
+     * Returns the bucket of a latency: the value itself below 8, else 4 buckets per power of two.
+     * @param micros the latency in microseconds.
+     */
+    static int bucket(long micros) {
+        if (micros < 8)
+            return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        return (exponent - 2) * 4 + (int) (micros >>> (exponent - 2));
+    }
+    
+    /**
+     * Returns the largest latency in microseconds which falls in a bucket.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < 8)
+            return bucket;
+        int mantissa = 4 + bucket % 4;
+        int exponent = (bucket - mantissa) / 4 + 2;
+        return ((long) (mantissa + 1) << (exponent - 2)) - 1;
+    }
+}
@@ -0,0 +1,38 @@
+package pentago;
+
+/**
+ * Management interface of EngineMetrics, as shown by JMX consoles (jconsole, VisualVM...).
+ * - Rates are measured over the last EngineMetrics.WINDOW_SECONDS seconds, totals since the last reset.
+ */
+public interface EngineMetricsMXBean {
+    
+    long getMoves();
+    
+    long getSearches();
+    
+    long getNodes();
+    
+    double getSearchesPerSecond();
+    
+    double getNodesPerSecond();
+    
+    double getMoveLatencyP50Millis();
+    
+    double getMoveLatencyP99Millis();
+    
+    double getMoveLatencyMaxMillis();
+    
+    double getEvaluationCacheHitRate();
+    
+    long getLiveTreeNodes();
+    
+    /**
+     * Returns the amount of searches the memory budget of the tree cut short of their look ahead.
+     */
+    long getTruncatedSearches();
+    
+    /**
+     * Clears every counter and the latency histogram.
+     */
+    void reset();
+}
@@ -0,0 +1,131 @@
+package pentago;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed size, lossy cache of leaf evaluations (see UtilityFunction.setEvaluationCache).
+ * - Keyed by the hash of the evaluated position, the token to move and whether the node is a maximizer. The score
+ *   of the advanced evaluation also depends on the parent's state, so its keys include the hash of the parent.
+ * - Slots are grouped in buckets of two. A new entry goes into the first slot of its bucket and moves the entry
+ *   there to the second slot, so the older of the two entries is the one replaced.
+ * - Entries are written without locks, like PositionCache: a slot stores (key ^ data, data) and is only accepted
+ *   if the two halves xor back to its key, so the cache may be shared by the threads of a search pool.
+ * - A cache must only be used by one evaluation function (scores depend on its blocking bonus).
+ */
+public class EvaluationCache {
+    
+    /** The default amount of slots (16 MB). */
+    public static final int DEFAULT_SLOTS = 1 << 20;
+    
+    /** Random value xor'd into the keys of maximizer nodes. */
+    private static final long MAXIMIZER = 0x2545F4914F6CDD1DL;
+    
+    /** Marks a slot as filled (bit 32 of the data, above the score). */
+    private static final long FILLED = 1L << 32;
+    
+    /** The key checks of the slots (key ^ data). */
+    private final long[] checks;
+    
+    /** The data of the slots: the score in the low 32 bits, FILLED above it. */
+    private final long[] data;
+    
+    /** Mask used to index buckets (slot count - 1, with the lowest bit cleared). */
+    private final int bucketMask;
+    
+    /** The amount of lookups. */
+    private final LongAdder probes;
+    
+    /** The amount of lookups which found a score. */
+    private final LongAdder hits;
+    
+    /**
+     * Creates a cache.
+     * @param slots the amount of slots. Rounded down to a power of two.
+     */
+    public EvaluationCache(int slots) {
+        slots = Integer.highestOneBit(Math.max(slots, 2));
+        checks = new long[slots];
+        data = new long[slots];
+        bucketMask = (slots - 1) & ~1;
+        probes = new LongAdder();
+        hits = new LongAdder();
+    }
+    
+    /**
+     * Returns the key of a leaf evaluated by the basic evaluation function.
+     * @param black the b tokens of the leaf.
+     * @param white the w tokens of the leaf.
+     * @param token the token of the leaf.
+     * @param maximizer true if the leaf is a maximizer node.
+     * @return the key.
+     */
+    public static long key(long black, long white, char token, boolean maximizer) {
+        long key = BitBoard.hash(black, white, token);
+        return maximizer ? key ^ MAXIMIZER : key;
+    }
+    
+    /**
+     * Returns the key of a leaf evaluated by the advanced evaluation function.
+     * @param parentHash the hash of the parent's state (BitBoard.hash with 'b' to move).
+     * @param black the b tokens of the leaf.
+     * @param white the w tokens of the leaf.
+     * @param token the token of the leaf.
+     * @param maximizer true if the leaf is a maximizer node.
+     * @return the key.
+     */
+    public static long key(long parentHash, long black, long white, char token, boolean maximizer) {
+        return key(black, white, token, maximizer) ^ BitBoard.mix(parentHash + 0x3C6EF372FE94F82AL);
+    }
+    
+    /**
+     * Looks up a score.
+     * @param key the key of the leaf.
+     * @return the score, or Long.MIN_VALUE on a miss.
+     */
+    public long probe(long key) {
+        probes.increment();
+        int bucket = (int) key & bucketMask;
+        for (int slot = bucket; slot < bucket + 2; slot++) {
+            long value = data[slot];
+            if ((value & FILLED) != 0 && (checks[slot] ^ value) == key) {
+                hits.increment();
+                return (int) value;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+    
+    /**
+     * Stores a score, replacing the older entry of the bucket.
+     * @param key the key of the leaf.
+     * @param score the score of the leaf.
+     */
+    public void store(long key, int score) {
+        int bucket = (int) key & bucketMask;
+        long value = (score & 0xFFFFFFFFL) | FILLED;
+        if ((checks[bucket] ^ data[bucket]) != key) { //Keep the newer entry, unless it is this key.
+            long firstCheck = checks[bucket];
+            long firstData = data[bucket];
+            checks[bucket + 1] = firstCheck;
+            data[bucket + 1] = firstData;
+        }
+        checks[bucket] = key ^ value;
+        data[bucket] = value;
+    }
+    
+    /**
+     * Returns the amount of lookups since the cache was created.
+     * @return the amount of lookups.
+     */
+    public long getProbes() {
+        return probes.sum();
+    }
+    
+    /**
+     * Returns the amount of lookups which found a score since the cache was created.
+     * @return the amount of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+}
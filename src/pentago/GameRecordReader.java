@@ -0,0 +1,139 @@
+package pentago;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the games of an archive written by GameRecordWriter. The archive is read through a large direct buffer,
+ * and games are decoded into a reused move array, so reading allocates nothing per game.
+ * Usage:
+ *  while (reader.next()) { reader.getFirstToken(); reader.getMoves(); reader.getMoveCount(); reader.getResult(); }
+ */
+public class GameRecordReader implements Closeable {
+    
+    /** The size of the read buffer. */
+    private static final int BUFFER_SIZE = 1 << 20;
+    
+    /** The archive being read. */
+    private final FileChannel channel;
+    
+    /** The read buffer. */
+    private final ByteBuffer buffer;
+    
+    /** The moves of the current game. A game has at most 36 moves. */
+    private final int[] moves;
+    
+    /** The amount of moves in the current game. */
+    private int moveCount;
+    
+    /** The token which moved first in the current game. */
+    private char firstToken;
+    
+    /** The result of the current game. */
+    private char result;
+    
+    /**
+     * Opens an archive for reading.
+     * @param path the path of the archive.
+     */
+    public GameRecordReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.flip();
+        moves = new int[BitBoard.CELLS];
+        if (!fill(4) || buffer.getInt() != GameRecordWriter.MAGIC) {
+            channel.close();
+            throw new IOException("Not a game record archive: " + path);
+        }
+    }
+    
+    /**
+     * Reads the next game.
+     * @return true if a game was read, false at the end of the archive.
+     * @throws EOFException if the archive ends in the middle of a game.
+     */
+    public boolean next() throws IOException {
+        if (!fill(1))
+            return false;
+        firstToken = (char) buffer.get();
+        moveCount = 0;
+        while (true) {
+            if (!fill(2))
+                throw new EOFException("Truncated game record.");
+            int move = buffer.getShort() & 0xFFFF;
+            if (move == GameRecordWriter.END_OF_GAME)
+                break;
+            if (moveCount == moves.length || move >= BitBoard.MOVES)
+                throw new IOException("Corrupt game record.");
+            moves[moveCount++] = move;
+        }
+        if (!fill(1))
+            throw new EOFException("Truncated game record.");
+        result = (char) buffer.get();
+        return true;
+    }
+    
+    /**
+     * Makes sure the buffer contains at least a number of bytes, reading more of the archive if needed.
+     * @param bytes the amount of bytes needed.
+     * @return false if the archive ends before the bytes are available.
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes)
+            return true;
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                buffer.flip();
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+    
+    /**
+     * Replays the current game through GameState.
+     * @return the final state of the current game.
+     */
+    public char[][] replay() {
+        char[][] state = GameState.initialState;
+        char token = firstToken;
+        for (int i = 0; i < moveCount; i++) {
+            state = GameState.alter(state, token, BitBoard.toArgs(moves[i]));
+            token = token == 'b' ? 'w' : 'b';
+        }
+        return state;
+    }
+    
+    /**
+     * Returns the moves of the current game. Only the first getMoveCount() entries are valid, and the array is
+     * overwritten by the next call to next().
+     * @return the move codes of the current game (see BitBoard).
+     */
+    public int[] getMoves() {
+        return moves;
+    }
+    
+    public int getMoveCount() {
+        return moveCount;
+    }
+    
+    public char getFirstToken() {
+        return firstToken;
+    }
+    
+    public char getResult() {
+        return result;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
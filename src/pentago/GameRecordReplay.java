@@ -0,0 +1,124 @@
+package pentago;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Batch replay tool for game record archives (see GameRecordWriter). Replays every game of one or more archives,
+ * checks that each recorded result matches the replayed final state, and reports the replay throughput.
+ * Usage: java pentago.GameRecordReplay [--bitboard] <archive> [archive ...]
+ * - By default games are replayed through GameState. --bitboard replays them on bitboards instead, which is much
+ *   faster for large archives.
+ */
+public class GameRecordReplay {
+    
+    /** The amount of games replayed. */
+    private long games;
+    
+    /** The amount of moves replayed. */
+    private long moves;
+    
+    /** The amount of games whose recorded result does not match the replayed state. */
+    private long mismatches;
+    
+    /** The amount of games containing a move onto an occupied position. */
+    private long illegal;
+    
+    /** Wins of b, wins of w, ties and filled boards, in that order. */
+    private final long[] results = new long[4];
+    
+    /** Indicates if games are replayed on bitboards instead of through GameState. */
+    private final boolean bitboard;
+    
+    /**
+     * Creates a replay tool.
+     * @param bitboard true to replay on bitboards, false to replay through GameState.
+     */
+    public GameRecordReplay(boolean bitboard) {
+        this.bitboard = bitboard;
+    }
+    
+    /**
+     * Replays every game of an archive.
+     * @param reader the archive to replay.
+     */
+    public void replay(GameRecordReader reader) throws IOException {
+        while (reader.next()) {
+            games++;
+            moves += reader.getMoveCount();
+            char result;
+            try {
+                result = bitboard ? replayBitBoard(reader) : GameState.isWinningState(reader.replay());
+            } catch (IllegalArgumentException e) { //GameState.alter rejected a move. 
+                illegal++;
+                continue;
+            }
+            if (result != reader.getResult())
+                mismatches++;
+            switch (result) {
+                case 'b':
+                    results[0]++;
+                    break;
+                case 'w':
+                    results[1]++;
+                    break;
+                case 't':
+                    results[2]++;
+                    break;
+                default:
+                    results[3]++;
+            }
+        }
+    }
+    
+    /**
+     * Replays the current game of a reader on bitboards.
+     * @param reader the reader positioned on a game.
+     * @return the result of the game (see BitBoard.winner).
+     */
+    private static char replayBitBoard(GameRecordReader reader) {
+        long mine = 0;
+        long theirs = 0;
+        int[] moves = reader.getMoves();
+        for (int i = 0; i < reader.getMoveCount(); i++) {
+            int move = moves[i];
+            mine |= 1L << BitBoard.cell(move);
+            if (!BitBoard.hasFive(mine)) { //Rotation is skipped when placing wins (see GameState.alter).
+                mine = BitBoard.rotate(mine, BitBoard.block(move), BitBoard.direction(move));
+                theirs = BitBoard.rotate(theirs, BitBoard.block(move), BitBoard.direction(move));
+            }
+            long swap = mine; //The other token moves next.
+            mine = theirs;
+            theirs = swap;
+        }
+        boolean firstMovedLast = (reader.getMoveCount() & 1) == 1;
+        long first = firstMovedLast ? theirs : mine;
+        long second = firstMovedLast ? mine : theirs;
+        return reader.getFirstToken() == 'b' ? BitBoard.winner(first, second) : BitBoard.winner(second, first);
+    }
+    
+    /**
+     * Replays archives and prints statistics.
+     * @param args [--bitboard] archive files.
+     */
+    public static void main(String[] args) throws IOException {
+        boolean bitboard = args.length > 0 && args[0].equals("--bitboard");
+        if (args.length < (bitboard ? 2 : 1)) {
+            System.out.println("Usage: java pentago.GameRecordReplay [--bitboard] <archive> [archive ...]");
+            return;
+        }
+        GameRecordReplay replay = new GameRecordReplay(bitboard);
+        long start = System.nanoTime();
+        for (int i = bitboard ? 1 : 0; i < args.length; i++) {
+            try (GameRecordReader reader = new GameRecordReader(Paths.get(args[i]))) {
+                replay.replay(reader);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("Games: " + replay.games + ", moves: " + replay.moves + ", result mismatches: " + replay.mismatches
+                + ", illegal games: " + replay.illegal);
+        System.out.println("B wins: " + replay.results[0] + ", W wins: " + replay.results[1] + ", ties: " + replay.results[2]
+                + ", filled boards: " + replay.results[3]);
+        System.out.printf("%.3f s, %.0f moves/s%n", seconds, replay.moves / Math.max(seconds, 1e-9));
+    }
+}
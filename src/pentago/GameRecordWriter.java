@@ -0,0 +1,108 @@
+package pentago;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams games to a binary game record archive. Moves are written as they are played.
+ * Archive format (big endian):
+ *  int magic (MAGIC)
+ *  games, each:
+ *      byte  the token which moved first (b or w)
+ *      short per move, the move code (see BitBoard)
+ *      short END_OF_GAME
+ *      byte  the result, as returned by GameState.isWinningState ('n' if the board was filled)
+ * - Not thread safe. Records one game at a time.
+ */
+public class GameRecordWriter implements Closeable {
+    
+    /** The magic number at the start of every archive ("PGR1"). */
+    public static final int MAGIC = 0x50475231;
+    
+    /** Marks the end of the moves of a game. */
+    public static final int END_OF_GAME = 0xFFFF;
+    
+    /** The archive output stream. */
+    private final DataOutputStream out;
+    
+    /** Indicates if a game has been started and not yet ended. */
+    private boolean inGame;
+    
+    /**
+     * Opens an archive for writing. Games are appended to an existing archive.
+     * @param path the path of the archive.
+     * @throws IOException if the file cannot be written, or is not empty and not an archive.
+     */
+    public GameRecordWriter(Path path) throws IOException {
+        boolean newFile = !Files.exists(path) || Files.size(path) == 0;
+        if (!newFile) { //Appending to another kind of file would corrupt it.
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+                if (Files.size(path) < 4 || in.readInt() != MAGIC)
+                    throw new IOException("Not a game record archive: " + path);
+            }
+        }
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND), 1 << 16));
+        if (newFile)
+            out.writeInt(MAGIC);
+    }
+    
+    /**
+     * Starts recording a game.
+     * @param firstToken the token which moves first.
+     */
+    public void startGame(char firstToken) throws IOException {
+        if (inGame)
+            throw new IllegalStateException("The previous game has not ended.");
+        out.writeByte(firstToken);
+        inGame = true;
+    }
+    
+    /**
+     * Records a move of the current game.
+     * @param args the arguments of the move (b/p bd).
+     */
+    public void recordMove(String args) throws IOException {
+        recordMove(BitBoard.fromArgs(args));
+    }
+    
+    /**
+     * Records a move of the current game.
+     * @param move the move code (see BitBoard).
+     */
+    public void recordMove(int move) throws IOException {
+        if (!inGame)
+            throw new IllegalStateException("No game has been started.");
+        out.writeShort(move);
+    }
+    
+    /**
+     * Ends the current game.
+     * @param result the result of the game (see GameState.isWinningState).
+     */
+    public void endGame(char result) throws IOException {
+        if (!inGame)
+            throw new IllegalStateException("No game has been started.");
+        out.writeShort(END_OF_GAME);
+        out.writeByte(result);
+        inGame = false;
+    }
+    
+    /**
+     * Writes buffered moves to the archive.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
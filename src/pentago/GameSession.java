@@ -0,0 +1,116 @@
+package pentago;
+
+/**
+ * A game served by PentagoServer. Holds the current state, whose turn it is and the engine the AI plays with.
+ * - Methods are synchronized, so requests of the same game are applied one at a time.
+ */
+public class GameSession {
+    
+    /** The current state of the game. */
+    private char[][] state;
+    
+    /** The token which moves next. */
+    private char toMove;
+    
+    /** The token the AI plays. */
+    private final char aiToken;
+    
+    /** The engine the AI plays with. */
+    private final EngineConfig engine;
+    
+    /** The evaluation function of the engine, kept for the whole game so its evaluation cache is reused. */
+    private final UtilityFunction evaluationFunction;
+    
+    /** The time the session was last used, in milliseconds. */
+    private volatile long lastUsed;
+    
+    /**
+     * Creates a new game.
+     * @param aiToken the token the AI plays.
+     * @param firstToken the token which moves first.
+     * @param engine the engine the AI plays with.
+     */
+    public GameSession(char aiToken, char firstToken, EngineConfig engine) {
+        this.aiToken = aiToken;
+        this.engine = engine;
+        evaluationFunction = engine.createEvaluationFunction();
+        state = GameState.initialState;
+        toMove = firstToken;
+        lastUsed = System.currentTimeMillis();
+    }
+    
+    /**
+     * Applies a move of the token to move.
+     * @param args the arguments of the move.
+     * @throws IllegalArgumentException if the arguments are invalid or the position is occupied.
+     * @throws IllegalStateException if the game is over.
+     */
+    public synchronized void move(String args) {
+        if (isOver())
+            throw new IllegalStateException("The game is over.");
+        if (!GameState.isValidArgument(args))
+            throw new IllegalArgumentException("Invalid move: " + args);
+        if (!GameState.canReplace(state, args))
+            throw new IllegalArgumentException("Position is occupied: " + args);
+        state = GameState.alter(state, toMove, args.toLowerCase());
+        toMove = toMove == 'b' ? 'w' : 'b';
+        lastUsed = System.currentTimeMillis();
+    }
+    
+    /**
+     * Applies a move chosen by a search, unless the game has changed since the search started.
+     * @param searchedState the state the search was started from (as returned by getState).
+     * @param args the arguments of the move.
+     * @throws IllegalStateException if the game has changed since the search started.
+     */
+    public synchronized void moveFrom(char[][] searchedState, String args) {
+        if (state != searchedState)
+            throw new IllegalStateException("The game changed during the search.");
+        move(args);
+    }
+    
+    /**
+     * Returns true if the game is over (a winner, tie, or a filled board).
+     * @return true if the game is over.
+     */
+    public synchronized boolean isOver() {
+        return GameState.isWinningState(state) != 'n' || !GameState.canMakeMove(state);
+    }
+    
+    /**
+     * Encodes the game in the server protocol: 36 characters of the state (row by row), the token to move and the
+     * result (see GameState.isWinningState), separated by spaces.
+     * @return the encoded game.
+     */
+    public synchronized String encode() {
+        StringBuilder encoded = new StringBuilder(40);
+        for (int i = 0; i < 6; i++)
+            encoded.append(state[i]);
+        encoded.append(' ').append(toMove).append(' ').append(GameState.isWinningState(state));
+        return encoded.toString();
+    }
+    
+    public synchronized char[][] getState() {
+        return state;
+    }
+    
+    public synchronized char getToMove() {
+        return toMove;
+    }
+    
+    public char getAiToken() {
+        return aiToken;
+    }
+    
+    public EngineConfig getEngine() {
+        return engine;
+    }
+    
+    public UtilityFunction getEvaluationFunction() {
+        return evaluationFunction;
+    }
+    
+    public long getLastUsed() {
+        return lastUsed;
+    }
+}
@@ -1,189 +1,1193 @@
-package pentago;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-
-/**
- * Contains methods for iterating through, manipulating, and getting the next choice of a game tree. 
- * @author Cade Reynoldson
- */
-public class GameTree {
-    
-    /** The head node of the tree. */
-    private GameTreeNode headNode; 
-    
-    /** The previous choice of the game tree. Either generated by the user or the AI. */
-    private GameTreeNode currentNode; 
-    
-    /** Indicates if this tree uses alpha beta pruning. */
-    private boolean alphaBetaPruning;
-    
-    /** The turn lookahead count. Indicates how many nodes to expand. */
-    private int turnLookAhead;
-    
-    /** The current *MAX* depth of the gametree. */
-    private int currentDepth;
-    
-    /** The evaluation function to use on this tree. */
-    private UtilityFunction evaluationFunction;
-    
-    /**
-     * Representation of a game tree. Only create when it is the AI's turn!
-     * @param originalState the original state of the game tree. 
-     * @param aiToken the token to be used with the AI. 
-     */ 
-    public GameTree(char[][] originalState, char aiToken, int lookAheadDepth, UtilityFunction f, boolean alphaBetaPruning) {
-        headNode = new GameTreeNode(null, originalState, aiToken, 0, aiToken == 'b', "none");
-        currentDepth = 0;
-        evaluationFunction = f;
-        turnLookAhead = lookAheadDepth;
-        this.alphaBetaPruning = alphaBetaPruning;
-        currentNode = headNode;
-        checkExpansion();
-    }
-    
-    /**
-     * Returns the next choice of the tree. 
-     * @return the next choice of the tree. 
-     */
-    public GameTreeNode getNext() {
-        HashMap<String, GameTreeNode> children = currentNode.getChildren();
-        String currentArgs = ""; //The agrument that this node will choose to have. 
-        int value;
-        checkExpansion();
-        if (currentNode.isMaximizer()) //If the currentNode is a maximizer. 
-            value = Integer.MIN_VALUE;
-        else 
-            value = Integer.MAX_VALUE;
-        for (String key : children.keySet()) {
-            int childScore = children.get(key).getScore();
-            if (currentNode.isMaximizer()) { //Maximizer logic
-                if (childScore > value) {
-                    currentArgs = key;
-                    value = childScore;
-                    if (value == Integer.MAX_VALUE) //If the value is a max value, it's a win. 
-                        break;
-                }
-            } else { // Minimizer logic
-                if (childScore < value) {
-                    currentArgs = key;
-                    value = childScore; 
-                    if (value == Integer.MIN_VALUE) //If the value is a min value, it's a win.
-                        break;
-                }
-            }
-        }
-        GameTreeNode nextNode = children.get(currentArgs);
-        currentNode = nextNode;
-        return nextNode;
-    }
-    
-    /**
-     * Updates the next choice based on user input from the main pentago program. 
-     * @param args the arguments that are used to form the next node. 
-     * @return the next state. 
-     */
-    public char[][] updateNext(String args) {
-        currentNode = currentNode.getChildren().get(args.toLowerCase());
-        checkExpansion();
-        return currentNode.getState();
-    }
-    
-    /**
-     * Checks to see if the current node is a leaf. 
-     * If the current node is a leaf, expand and evaluate using either minimax or alpha beta. 
-     */
-    public void checkExpansion() {
-        if (currentNode.isLeaf()) { //If this node is a leaf, we've reached the bottom of the tree.
-            currentNode.expand(currentDepth + turnLookAhead); //Expand node to next turn look ahead. 
-            currentDepth += turnLookAhead; //Update the current depth of the tree. 
-            currentNode.evaluate(evaluationFunction);
-            if (alphaBetaPruning)
-                alphaBeta(currentNode, Integer.MIN_VALUE, Integer.MAX_VALUE);
-            else
-                miniMax(currentNode);
-        }
-    }
-    
-    /**
-     * Evaluates the tree using the minimax algorithm starting with a specified node.  
-     */
-    public void miniMax(GameTreeNode node) {
-        if (node.isLeaf()) //If this node is a leaf, there is nothing to do - return!
-            return;
-        HashMap<String, GameTreeNode> children = node.getChildren();
-        if (!node.isEvaluated()) { //If this node has not been evaluated, run minimax on it's children first!
-            for (String key : children.keySet()) { // for all children, assure that they have had their scores established!
-                miniMax(children.get(key));
-            }
-        }
-        int value;
-        if (node.isMaximizer()) //If the node is a maximizer, initialize value with the lowest possible number! 
-            value = Integer.MIN_VALUE;
-        else //If the node is a minimizer, initialize value with the maximum possible integer!
-            value = Integer.MAX_VALUE; 
-        for (String key : children.keySet()) { //After all children have been rated, loop through the evaluations to establish a score. 
-            int childScore = children.get(key).getScore();
-            if (node.isMaximizer()) { //Maximizer node
-                if (childScore > value) //if this child's score is greater than the current value, change value. 
-                    value = childScore;
-                if (value == Integer.MAX_VALUE) //if this node is a maximizer node, a win has been detected! break!
-                    break;
-            } else { //Minimizer node
-                if (childScore < value)
-                    value = childScore;
-                if (value == Integer.MIN_VALUE) //if this node is a minimizer node, a win has been detected! break! 
-                    break;
-            }
-        }
-        node.setScore(value);
-    }
-    
-    /**
-     * Evaluates the tree with alpha-beta pruning on a specific gametree node. 
-     * - ASSUMES ALL LEAFS HAVE BEEN EVALUATED!
-     * @param node the node to evaluate alpha beta on. 
-     * @param the current alpha beta values of the node. 
-     * @return an integer corresponding to the last alpha or beta value. 
-     */
-    public int alphaBeta(GameTreeNode node, int alpha, int beta) {
-        if (node.isLeaf()) //if this node is a leaf, return. 
-            return node.getScore();
-        HashMap<String, GameTreeNode> children = node.getChildren();
-        int value;
-        boolean pruning = false;
-        ArrayList<String> toPrune = new ArrayList<String>(); //An array list of arguments that are mapped to children to prune off. 
-        if (node.isMaximizer()) { //if this node is a maximizer node, manipulate alpha value. 
-            value = Integer.MIN_VALUE;
-            for (String key : children.keySet()) {
-                if (pruning) { //If we are pruning off children. 
-                    toPrune.add(key);
-                } else { //Else, we are still evaluating children. 
-                    int evaluation = alphaBeta(children.get(key), alpha, beta);
-                    if (evaluation > value)
-                        value = evaluation;
-                    alpha = Math.max(alpha, value); //Set alpha to be the max of the evaluation.
-                    if (alpha >= beta) //if alpha is greater than or equal to beta, no longer evaluate children. We only prune them. 
-                        pruning = true;
-                }    
-            }
-        } else { //If this node is a minimizer, manipulate beta value. 
-            value = Integer.MAX_VALUE;
-            for (String key : children.keySet()) {
-                if (pruning) { //If we are pruning off children.
-                    toPrune.add(key);
-                } else { //Else, we are still evaluating children. 
-                    int evaluation = alphaBeta(children.get(key), alpha, beta); 
-                    if (evaluation < value)
-                        value = evaluation;
-                    beta = Math.min(beta, value);
-                    if (beta <= alpha)
-                        pruning = true;
-                }
-            }
-        }
-        node.removeChildren(toPrune);
-        node.setScore(value); //Set the score of this node equal to the calculated alpha beta value. 
-        return value;
-    }
-}
+package pentago;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Contains methods for iterating through, manipulating, and getting the next choice of a game tree. 
+ * - The public methods which search, read or change the searched state are synchronized, and stop pondering first: 
+ *   the pondering task searches the replies of the opponent off the lock (see startPondering). 
+ * @author Cade Reynoldson
+ */
+public class GameTree {
+    
+    /** The head node of the tree. */
+    private GameTreeNode headNode; 
+    
+    /** The previous choice of the game tree. Either generated by the user or the AI. */
+    private GameTreeNode currentNode; 
+    
+    /** Indicates if this tree uses alpha beta pruning. */
+    private boolean alphaBetaPruning;
+    
+    /** The turn lookahead count. Indicates how many nodes to expand. */
+    private int turnLookAhead;
+    
+    /** The current *MAX* depth of the gametree. */
+    private int currentDepth;
+    
+    /** The evaluation function to use on this tree. */
+    private UtilityFunction evaluationFunction;
+    
+    /** The maximum amount of empty positions for which the endgame solver replaces the search. 0 disables the solver. */
+    private int endgameThreshold;
+    
+    /** The exact solver used for endgame positions. Created the first time it is needed. */
+    private EndgameSolver endgameSolver;
+    
+    /** The table of exact endgame values consulted before searching. Null if no tablebase is used. */ 
+    private Tablebase tablebase;
+    
+    /** The opening book consulted before searching. Null if no book is used. */
+    private OpeningBook openingBook;
+    
+    /** The persistent cache of searched positions. Null if no cache is used. */
+    private PositionCache positionCache;
+    
+    /** Counters of the searches performed by this tree. */
+    private SearchStats stats;
+    
+    /** The pondering task, null if the tree is not pondering. */
+    private Future<?> ponderTask;
+    
+    /** The flag which stops the pondering task when set. */
+    private final AtomicBoolean ponderStop;
+    
+    /** The reply the pondering task is searching, null if none. */
+    private volatile GameTreeNode ponderTarget;
+    
+    /** Set to stop pondering as soon as the search of the current target is finished. */
+    private volatile boolean ponderFinishTarget;
+    
+    /** The replies searched by the pondering task since the last move of the opponent. */
+    private final ArrayList<GameTreeNode> ponderedReplies;
+    
+    /** The depth each pondered reply was searched to, in the order of ponderedReplies. */
+    private final ArrayList<Integer> ponderedDepths;
+    
+    /** The amount of opponent moves which had been searched by pondering. */
+    private int ponderHits;
+    
+    /** The amount of moves of a searched node which are scored exactly, with their principal variations. */
+    private int multiPv;
+    
+    /** Triangular principal variation table: row ply holds the best line from ply onwards, from column ply on. */
+    private final String[][] pvTable;
+    
+    /** The end (exclusive) of the line in each row of the principal variation table. */
+    private final int[] pvLength;
+    
+    /** The node the last search started from. */
+    private GameTreeNode pvRoot;
+    
+    /** The best moves of the last search, best first. */
+    private List<PositionAnalysis> rootMoves;
+    
+    /** Indicates if searches expand depth first, keeping only the current path and the searched node's children. */
+    private boolean streaming;
+    
+    /** The amount of nodes generated by the current streaming search. */
+    private long streamedNodes;
+    
+    /** The most nodes a streaming search may generate before it is stopped. */
+    private long nodeLimit;
+    
+    /** The time (System.nanoTime) at which streaming searches are stopped, or 0 for none. */
+    private long deadline;
+    
+    /** The metrics moves are recorded in, or null. */
+    private EngineMetrics metrics;
+    
+    /** The time manager which decides how deep each move is searched, or null to always search the look ahead. */
+    private TimeManager timeManager;
+    
+    /** The most nodes the tree may hold, Long.MAX_VALUE for no budget (see setMemoryBudget). */
+    private long memoryBudget;
+    
+    /** The depth the last search reached, relative to the searched node. Less than the look ahead if cut short. */
+    private int searchedDepth;
+    
+    /** The depth behind the last chosen move: the searched depth, the depth of a position cache entry, or 0. */
+    private int moveDepth;
+    
+    /**
+     * Representation of a game tree. Only create when it is the AI's turn!
+     * The tree is expanded the first time a move is requested, so options (opening book, endgame solver) can be 
+     * set after creation. 
+     * @param originalState the original state of the game tree. 
+     * @param aiToken the token to be used with the AI. 
+     * @param f the evaluation function of the leaves: a UtilityFunction, which counts open lines, or a NeuralEvaluator. 
+     */ 
+    public GameTree(char[][] originalState, char aiToken, int lookAheadDepth, UtilityFunction f, boolean alphaBetaPruning) {
+        headNode = new GameTreeNode(null, originalState, aiToken, 0, aiToken == 'b', "none");
+        currentDepth = 0;
+        evaluationFunction = f;
+        turnLookAhead = lookAheadDepth;
+        this.alphaBetaPruning = alphaBetaPruning;
+        endgameThreshold = EndgameSolver.DEFAULT_THRESHOLD;
+        stats = new SearchStats();
+        ponderStop = new AtomicBoolean();
+        ponderedReplies = new ArrayList<GameTreeNode>();
+        ponderedDepths = new ArrayList<Integer>();
+        multiPv = 1;
+        pvTable = new String[BitBoard.CELLS + 1][BitBoard.CELLS + 1]; //A game has at most 36 moves. 
+        pvLength = new int[BitBoard.CELLS + 2];
+        rootMoves = new ArrayList<PositionAnalysis>();
+        nodeLimit = Long.MAX_VALUE;
+        memoryBudget = Long.MAX_VALUE;
+        searchedDepth = lookAheadDepth;
+        currentNode = headNode;
+    }
+    
+    /**
+     * Returns the next choice of the tree. 
+     * @return the next choice of the tree. 
+     */
+    public synchronized GameTreeNode getNext() {
+        stopPondering(null);
+        GameTreeNode nextNode = chooseNext(null, null);
+        currentNode = nextNode;
+        return nextNode;
+    }
+    
+    /**
+     * Starts searching the next choice of the tree on an executor, returning immediately. 
+     * The tree moves to the chosen node when the search completes. Cancelling the search leaves the tree 
+     * where it was. While it runs, the search deepens one level at a time and reports the best move of each 
+     * completed level through the future. 
+     * @param executor the executor to run the search on. 
+     * @return the pending search. 
+     */
+    public synchronized SearchFuture getNextAsync(ExecutorService executor) {
+        stopPondering(null);
+        SearchFuture search = new SearchFuture(this);
+        executor.execute(search);
+        return search;
+    }
+    
+    /**
+     * Runs an asynchronous search (see getNextAsync). 
+     * @param search the future of the search. 
+     * @return the chosen node. 
+     * @throws CancellationException if the search was cancelled. 
+     */
+    synchronized GameTreeNode searchNext(SearchFuture search) {
+        AtomicBoolean stop = search.getStopFlag();
+        if (timeManager != null) //Levels after the first stop on the clock's flag, which must also stop on cancel. 
+            search.linkStopFlag(timeManager.getStopFlag());
+        GameTreeNode nextNode = chooseNext(stop, search);
+        if (!search.commit()) //Cancelled after the search finished. 
+            throw new CancellationException();
+        currentNode = nextNode;
+        if (nextNode != null)
+            search.setBestSoFar(nextNode.getArgs());
+        return nextNode;
+    }
+    
+    /**
+     * Chooses the next node of the tree, without moving to it. Records the choice in the metrics of the tree, and 
+     * as a SearchEvent if flight recording of the event is enabled. 
+     * @param stop the flag which stops the search when set, or null. 
+     * @param search the asynchronous search to report the best move of each shallower level to, or null to only 
+     *               search to the look ahead. The shallower levels are recorded as part of the move. 
+     * @return the chosen child of the current node. 
+     * @throws CancellationException if the flag was set during the search. 
+     */
+    private GameTreeNode chooseNext(AtomicBoolean stop, SearchFuture search) {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        long start = System.nanoTime();
+        SearchStats before = new SearchStats();
+        before.add(stats);
+        if (timeManager != null)
+            timeManager.startMove(currentNode.getState());
+        GameTreeNode nextNode;
+        try {
+            if (search != null && currentNode.isLeaf())
+                searchShallow(search, stop);
+            nextNode = findNext(stop);
+        } finally {
+            if (timeManager != null)
+                timeManager.endMove();
+        }
+        SearchStats moveStats = stats.since(before);
+        if (metrics != null)
+            metrics.recordMove(System.nanoTime() - start, moveStats);
+        if (event.shouldCommit()) {
+            StringBuilder position = new StringBuilder(BitBoard.CELLS);
+            for (char[] row : currentNode.getState())
+                position.append(row);
+            event.position = position.toString();
+            event.token = currentNode.getToken();
+            event.move = nextNode == null ? null : nextNode.getArgs();
+            event.score = nextNode == null ? 0 : nextNode.getScore();
+            event.depth = moveDepth;
+            event.nodes = moveStats.getNodes();
+            event.commit();
+        }
+        return nextNode;
+    }
+    
+    /**
+     * Searches the current node to each depth below the look ahead with shallower trees, so an asynchronous search 
+     * has a move available early. 
+     * @param search the asynchronous search to report the best move of each level to. 
+     * @param stop the flag which stops the search when set, or null. 
+     * @throws CancellationException if the flag was set. 
+     */
+    private void searchShallow(SearchFuture search, AtomicBoolean stop) {
+        for (int depth = 1; depth < turnLookAhead; depth++) {
+            GameTree shallowTree = new GameTree(currentNode.getState(), currentNode.getToken(), depth, evaluationFunction, alphaBetaPruning);
+            shallowTree.setEndgameThreshold(0);
+            shallowTree.setStreaming(streaming);
+            shallowTree.setMemoryBudget(memoryBudget);
+            GameTreeNode shallowChoice = shallowTree.chooseNext(stop, null);
+            stats.add(shallowTree.getStats());
+            if (shallowChoice != null)
+                search.setBestSoFar(shallowChoice.getArgs());
+        }
+    }
+    
+    /**
+     * Finds the next node of the tree (see chooseNext). 
+     * @param stop the flag which stops the search when set, or null. 
+     * @return the chosen child of the current node. 
+     * @throws CancellationException if the flag was set during the search. 
+     */
+    private GameTreeNode findNext(AtomicBoolean stop) {
+        moveDepth = 0; //Moves known without a search, except from the position cache (see probePositionCache). 
+        GameTreeNode knownNode = probeOpeningBook();
+        if (knownNode == null)
+            knownNode = probeTablebase();
+        if (knownNode == null)
+            knownNode = scanTactics();
+        if (knownNode == null)
+            knownNode = solveEndgame();
+        if (knownNode == null)
+            knownNode = probePositionCache();
+        if (knownNode != null) //The opening book, tablebase, tactical scan, endgame solver or position cache already knows the best move. 
+            return knownNode;
+        HashMap<String, GameTreeNode> children = currentNode.getChildren();
+        String currentArgs = ""; //The agrument that this node will choose to have. 
+        int value;
+        if (currentNode.isLeaf()) {
+            if (timeManager == null)
+                search(currentNode, stop);
+            else {
+                GameTreeNode levelNode = deepen(stop);
+                moveDepth = searchedDepth;
+                if (levelNode != null) //The time manager ended the move before the full look ahead. 
+                    return levelNode;
+            }
+        }
+        moveDepth = searchedDepth;
+        if (currentNode.isMaximizer()) //If the currentNode is a maximizer. 
+            value = Integer.MIN_VALUE;
+        else 
+            value = Integer.MAX_VALUE;
+        for (String key : children.keySet()) {
+            int childScore = children.get(key).getScore();
+            if (currentNode.isMaximizer()) { //Maximizer logic
+                if (childScore > value) {
+                    currentArgs = key;
+                    value = childScore;
+                    if (value == Integer.MAX_VALUE) //If the value is a max value, it's a win. 
+                        break;
+                }
+            } else { // Minimizer logic
+                if (childScore < value) {
+                    currentArgs = key;
+                    value = childScore; 
+                    if (value == Integer.MIN_VALUE) //If the value is a min value, it's a win.
+                        break;
+                }
+            }
+        }
+        GameTreeNode nextNode = children.get(currentArgs);
+        if (nextNode == null && !children.isEmpty()) //Every move loses. Choose any of them. 
+            nextNode = children.values().iterator().next();
+        storePositionCache(nextNode);
+        return nextNode;
+    }
+    
+    /**
+     * Searches the current node one level deeper at a time, with shallower trees up to the look ahead, until the time 
+     * manager ends the move. A level which is stopped at the hard limit of the move is discarded. 
+     * @param stop the flag which stops the search when set, or null. Levels after the first stop on the flag of the 
+     *             time manager, which the caller's cancellation also sets. 
+     * @return the child chosen by the last completed level, or null if the current node was searched to the look 
+     *         ahead. 
+     * @throws CancellationException if the flag was set. 
+     */
+    private GameTreeNode deepen(AtomicBoolean stop) {
+        AtomicBoolean levelStop = timeManager.getStopFlag(); //Also set when an asynchronous search is cancelled (see searchNext). 
+        String bestArgs = null; //The choice of the last completed level. 
+        int bestScore = 0;
+        try {
+            for (int depth = 1; depth < turnLookAhead; depth++) {
+                GameTree levelTree = new GameTree(currentNode.getState(), currentNode.getToken(), depth, evaluationFunction, alphaBetaPruning);
+                levelTree.setEndgameThreshold(0);
+                levelTree.setStreaming(streaming);
+                levelTree.setMemoryBudget(memoryBudget);
+                GameTreeNode levelChoice = levelTree.chooseNext(bestArgs == null ? stop : levelStop, null); //The first level always completes. 
+                stats.add(levelTree.getStats());
+                if (levelChoice == null) //No moves can be made. 
+                    return null;
+                bestArgs = levelChoice.getArgs();
+                bestScore = levelChoice.getScore();
+                searchedDepth = levelTree.getSearchedDepth();
+                if (searchedDepth < depth || !timeManager.continueSearch(bestArgs, bestScore)) //Deeper levels would be cut by the memory budget too. 
+                    return levelChild(bestArgs, bestScore);
+            }
+            search(currentNode, bestArgs == null ? stop : levelStop);
+            return null;
+        } catch (CancellationException e) {
+            if (bestArgs == null || (stop != null && stop.get())) //Cancelled by the caller, not by the clock. 
+                throw e;
+            return levelChild(bestArgs, bestScore);
+        }
+    }
+    
+    /**
+     * Returns the child of the current node chosen by a shallower level, scored by that level. 
+     */
+    private GameTreeNode levelChild(String args, int score) {
+        GameTreeNode child = currentNode.getOrCreateChild(args);
+        child.setScore(score);
+        return child;
+    }
+    
+    /**
+     * Updates the next choice based on user input from the main pentago program. 
+     * The new current node is left a leaf unless pondering searched it: it is searched by getNext, after the opening 
+     * book, tablebase, tactical scan, endgame solver and position cache have had a chance to choose without searching. 
+     * @param args the arguments that are used to form the next node. 
+     * @return the next state. 
+     */
+    public synchronized char[][] updateNext(String args) {
+        args = args.toLowerCase();
+        stopPondering(args); //Before resolving: the ponder task may be expanding the current node. 
+        args = currentNode.resolveMove(args); //Equivalent moves share one child. 
+        currentNode = currentNode.getOrCreateChild(args);
+        for (int i = 0; i < ponderedReplies.size(); i++) { //Only the searched subtree of the move that was made is kept. 
+            if (ponderedReplies.get(i) == currentNode) {
+                ponderHits++;
+                searchedDepth = ponderedDepths.get(i); //Later replies may have been searched to another depth. 
+            } else {
+                ponderedReplies.get(i).clearChildren();
+            }
+        }
+        ponderedReplies.clear();
+        ponderedDepths.clear();
+        return currentNode.getState();
+    }
+    
+    /**
+     * Starts searching the replies of the opponent in the background, during the opponent's turn. 
+     * The replies are searched as getNext would search them, best reply (for the opponent) first. 
+     * If the opponent makes a reply which has been searched, getNext uses the result instead of searching. 
+     * Pondering stops when any other method of the tree is called. 
+     * @param executor the executor to ponder on. 
+     * @param allReplies true to keep searching the other replies after the predicted one, false to only 
+     *                   search the predicted reply. 
+     */
+    public synchronized void startPondering(ExecutorService executor, boolean allReplies) {
+        stopPondering(null);
+        if (GameState.isWinningState(currentNode.getState()) != 'n' || !GameState.canMakeMove(currentNode.getState()))
+            return;
+        ponderStop.set(false);
+        ponderFinishTarget = false;
+        GameTreeNode node = currentNode;
+        ponderTask = executor.submit(() -> ponder(node, allReplies));
+    }
+    
+    /**
+     * Searches the replies of a node, until pondering is stopped. Runs on the pondering executor. 
+     * @param node the node to search the replies of (the opponent is to move). 
+     * @param allReplies true to search every reply, false to only search the predicted reply. 
+     */
+    private void ponder(GameTreeNode node, boolean allReplies) {
+        if (node.isLeaf()) { //The move was not searched (opening book or endgame move). Rate the replies first. 
+            node.expand();
+            node.evaluate(evaluationFunction);
+        }
+        ArrayList<GameTreeNode> replies = new ArrayList<GameTreeNode>(node.getChildren().values());
+        if (node.isMaximizer())
+            replies.sort((a, b) -> Integer.compare(b.getScore(), a.getScore()));
+        else
+            replies.sort((a, b) -> Integer.compare(a.getScore(), b.getScore()));
+        for (GameTreeNode reply : replies) {
+            if (ponderStop.get() || ponderFinishTarget)
+                return;
+            if (!reply.isLeaf() || GameState.isWinningState(reply.getState()) != 'n') //Already searched, or the game is over. 
+                continue;
+            if (isKnown(reply)) //getNext will not search it. 
+                continue;
+            ponderTarget = reply;
+            try {
+                search(reply, ponderStop);
+                ponderedReplies.add(reply);
+                ponderedDepths.add(searchedDepth);
+            } catch (CancellationException e) {
+                return;
+            } finally {
+                ponderTarget = null;
+            }
+            if (!allReplies)
+                return;
+        }
+    }
+    
+    /**
+     * Stops pondering and waits for the pondering task to finish. 
+     * @param args the move the opponent made, or null. If the pondering task is searching this move (or an 
+     *             equivalent move), the search is finished instead of being stopped. 
+     */
+    private void stopPondering(String args) {
+        if (ponderTask == null)
+            return;
+        GameTreeNode target = ponderTarget;
+        if (args != null && target != null && currentNode.getEquivalentMoves(args).contains(target.getArgs()))
+            ponderFinishTarget = true;
+        else
+            ponderStop.set(true);
+        boolean interrupted = false;
+        while (true) { //The tree may only be changed once the task has finished. 
+            try {
+                ponderTask.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+                ponderStop.set(true);
+            } catch (ExecutionException | CancellationException e) {
+                break;
+            }
+        }
+        ponderTask = null;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+    
+    /**
+     * Returns the amount of opponent moves which had already been searched by pondering. 
+     * @return the amount of pondering hits. 
+     */
+    public synchronized int getPonderHits() {
+        stopPondering(null);
+        return ponderHits;
+    }
+    
+    /**
+     * Looks up the current node in the opening book. 
+     * @return the child corresponding to the book move, or null if the node is not in the book. 
+     */
+    private GameTreeNode probeOpeningBook() {
+        if (openingBook == null)
+            return null;
+        int move = openingBook.getMove(currentNode.getState(), currentNode.getToken());
+        if (move < 0) 
+            return null;
+        GameTreeNode child = currentNode.getOrCreateChild(BitBoard.toArgs(move));
+        if (!child.isEvaluated())
+            child.setScore(openingBook.getScore(currentNode.getState(), currentNode.getToken()));
+        return child;
+    }
+    
+    /**
+     * Returns whether getNext would choose the move of a node without searching it, so pondering can skip the node. 
+     * @param node the node to check, with the tree to move. 
+     * @return true if the node is in the opening book, or in the position cache to the look ahead. 
+     */
+    private boolean isKnown(GameTreeNode node) {
+        if (openingBook != null && openingBook.getMove(node.getState(), node.getToken()) >= 0)
+            return true;
+        if (positionCache == null)
+            return false;
+        long entry = positionCache.probe(BitBoard.hash(node.getState(), node.getToken()));
+        return entry != PositionCache.MISS && PositionCache.depthOf(entry) >= turnLookAhead;
+    }
+    
+    /**
+     * Sets the opening book consulted before searching. 
+     * @param openingBook the opening book, or null to disable it. 
+     */
+    public void setOpeningBook(OpeningBook openingBook) {
+        this.openingBook = openingBook;
+    }
+    
+    /**
+     * Looks up the current node in the position cache. Only entries searched at least as deep as this tree 
+     * would search are used. 
+     * @return the child corresponding to the cached move, or null if the node is not cached. 
+     */
+    private GameTreeNode probePositionCache() {
+        if (positionCache == null)
+            return null;
+        long entry = positionCache.probe(BitBoard.hash(currentNode.getState(), currentNode.getToken()));
+        if (entry == PositionCache.MISS || PositionCache.depthOf(entry) < turnLookAhead)
+            return null;
+        String args = BitBoard.toArgs(PositionCache.moveOf(entry));
+        if (!GameState.canReplace(currentNode.getState(), args)) //Hash collision, the move does not fit this state. 
+            return null;
+        GameTreeNode child = currentNode.getOrCreateChild(args);
+        if (!child.isEvaluated())
+            child.setScore(PositionCache.scoreOf(entry));
+        moveDepth = PositionCache.depthOf(entry);
+        return child;
+    }
+    
+    /**
+     * Stores the move chosen by a search of the current node in the position cache, with the depth the search 
+     * reached: a search cut short by the memory budget must not answer later searches of the full look ahead. 
+     * @param choice the chosen child of the current node. 
+     */
+    private void storePositionCache(GameTreeNode choice) {
+        if (positionCache == null || choice == null)
+            return;
+        positionCache.store(BitBoard.hash(currentNode.getState(), currentNode.getToken()), searchedDepth, 
+                choice.getScore(), BitBoard.fromArgs(choice.getArgs()));
+    }
+    
+    /**
+     * Sets the persistent cache of searched positions, shared with other games and processes. 
+     * @param positionCache the position cache, or null to disable it. 
+     */
+    public void setPositionCache(PositionCache positionCache) {
+        this.positionCache = positionCache;
+    }
+    
+    /**
+     * Looks for moves which decide the game within one move before searching (see TacticalScan). 
+     * - A move which wins immediately is chosen without searching. 
+     * - If the opponent threatens to win on its next move, only the moves which leave the opponent no winning reply 
+     *   are searched. If there is only one such move it is chosen without searching, if there is none every move 
+     *   is searched (the search picks the move which holds out longest by its scores). 
+     * @return the child corresponding to a decided move, or null if the current node has to be searched. 
+     */
+    private GameTreeNode scanTactics() {
+        char[][] state = currentNode.getState();
+        long black = BitBoard.fromState(state, 'b');
+        long white = BitBoard.fromState(state, 'w');
+        char token = currentNode.getToken();
+        int win = TacticalScan.findWin(black, white, token);
+        if (win >= 0) {
+            GameTreeNode child = currentNode.getOrCreateChild(BitBoard.toArgs(win));
+            child.setScore(currentNode.isMaximizer() ? Integer.MAX_VALUE : Integer.MIN_VALUE);
+            return child;
+        }
+        if (!currentNode.isLeaf() || TacticalScan.findWin(black, white, currentNode.getOppositeToken()) < 0) //Already searched, or no threat. 
+            return null;
+        ArrayList<String> blocks = new ArrayList<String>();
+        for (String args : currentNode.getMoves()) {
+            if (!TacticalScan.allowsWin(black, white, token, BitBoard.fromArgs(args)))
+                blocks.add(args);
+        }
+        if (blocks.size() == 1) { //A forced block: there is nothing to compare it to. 
+            GameTreeNode child = currentNode.getOrCreateChild(blocks.get(0));
+            child.evaluate(evaluationFunction);
+            return child;
+        }
+        if (!blocks.isEmpty())
+            currentNode.restrictMoves(blocks);
+        return null;
+    }
+    
+    /**
+     * Solves the current node exactly if it has few enough empty positions. 
+     * @return the child corresponding to the best move, or null if the node is not an endgame position. 
+     */
+    private GameTreeNode solveEndgame() {
+        char[][] state = currentNode.getState();
+        if (endgameThreshold <= 0 || GameState.countEmpty(state) > endgameThreshold)
+            return null;
+        if (endgameSolver == null) {
+            endgameSolver = new EndgameSolver();
+            endgameSolver.setTablebase(tablebase);
+        }
+        int move = endgameSolver.bestMove(state, currentNode.getToken());
+        if (move < 0) //No moves can be made. 
+            return null;
+        GameTreeNode child = currentNode.getOrCreateChild(BitBoard.toArgs(move));
+        int result = endgameSolver.solve(state, currentNode.getToken()); //Cheap, the solver has just seen this state. 
+        if (result == EndgameSolver.DRAW)
+            child.setScore(0);
+        else //Exact result: scored like a win found by the evaluation function. 
+            child.setScore((result == EndgameSolver.WIN) == currentNode.isMaximizer() ? Integer.MAX_VALUE : Integer.MIN_VALUE);
+        return child;
+    }
+    
+    /**
+     * Looks the current node up in the tablebase. 
+     * @return the child corresponding to the best move, or null if the node is not in the tablebase. 
+     */
+    private GameTreeNode probeTablebase() {
+        if (tablebase == null)
+            return null;
+        char[][] state = currentNode.getState();
+        int move = tablebase.bestMove(state, currentNode.getToken());
+        if (move < 0)
+            return null;
+        GameTreeNode child = currentNode.getOrCreateChild(BitBoard.toArgs(move));
+        int result = tablebase.probe(state, currentNode.getToken());
+        if (result == EndgameSolver.DRAW)
+            child.setScore(0);
+        else
+            child.setScore((result == EndgameSolver.WIN) == currentNode.isMaximizer() ? Integer.MAX_VALUE : Integer.MIN_VALUE);
+        return child;
+    }
+    
+    /**
+     * Sets the table of exact endgame values consulted before searching. Also used by the endgame solver this 
+     * tree creates. 
+     * @param tablebase the tablebase, or null to disable it. 
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+    
+    /**
+     * Sets the time manager of the moves of this tree. With a time manager, a move is searched one level deeper at 
+     * a time, up to the look ahead, and stops at the level the time manager decides on. A level still running at the 
+     * hard limit of the move is stopped, and the move of the last completed level is chosen. 
+     * @param timeManager the time manager, or null to always search to the look ahead. 
+     */
+    public void setTimeManager(TimeManager timeManager) {
+        this.timeManager = timeManager;
+    }
+    
+    /**
+     * Sets the metrics every move chosen by this tree is recorded in. 
+     * @param metrics the metrics, or null to record nothing. 
+     */
+    public void setMetrics(EngineMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Sets the exact solver used for endgame positions, so one solver (and its transposition table) can be reused 
+     * by many trees searched on the same thread. 
+     * @param endgameSolver the solver to use. 
+     */
+    public void setEndgameSolver(EndgameSolver endgameSolver) {
+        this.endgameSolver = endgameSolver;
+    }
+    
+    /**
+     * Sets the maximum amount of empty positions for which the exact endgame solver is used instead of 
+     * the evaluation function. 
+     * @param endgameThreshold the maximum amount of empty positions, 0 to disable the solver. 
+     */
+    public void setEndgameThreshold(int endgameThreshold) {
+        this.endgameThreshold = endgameThreshold;
+    }
+    
+    /**
+     * Checks to see if the current node is a leaf. 
+     * If the current node is a leaf, expand and evaluate using either minimax or alpha beta. 
+     * With a time manager the node is left a leaf: it is searched when its move is chosen, on the clock. 
+     */
+    public synchronized void checkExpansion() {
+        stopPondering(null);
+        if (currentNode.isLeaf() && timeManager == null) //If this node is a leaf, we've reached the bottom of the tree.
+            search(currentNode, null);
+    }
+    
+    /**
+     * Expands a leaf node to the turn look ahead and evaluates it using either minimax or alpha beta. 
+     * @param node the node to search. 
+     * @param stop the flag which stops the search when set, or null. 
+     * @throws CancellationException if the flag was set. The node is left a leaf. 
+     */
+    private void search(GameTreeNode node, AtomicBoolean stop) {
+        long start = System.nanoTime();
+        EvaluationCache cache = evaluationFunction.getEvaluationCache();
+        long cacheProbes = cache == null ? 0 : cache.getProbes();
+        long cacheHits = cache == null ? 0 : cache.getHits();
+        int toDepth = node.getDepth() + turnLookAhead;
+        long nodes;
+        try {
+            if (streaming) { //Only the children of the node are kept, their subtrees are generated while scoring. 
+                streamedNodes = node.expand();
+                if (node.isLeaf())
+                    node.evaluate(evaluationFunction);
+                searchRoot(node, toDepth, stop);
+                nodes = streamedNodes;
+            } else if (memoryBudget != Long.MAX_VALUE) {
+                int reached = expandWithinBudget(node, toDepth, stop);
+                if (reached < toDepth) { //Cut short: the frontier is scored as the leaves. 
+                    toDepth = reached;
+                    stats.recordTruncatedSearch();
+                }
+                nodes = node.countNodes() - 1;
+                node.evaluate(evaluationFunction);
+                if (stop != null && stop.get())
+                    throw new CancellationException();
+                searchRoot(node, toDepth, stop);
+            } else {
+                nodes = node.expand(toDepth, stop); //Expand node to next turn look ahead. 
+                node.evaluate(evaluationFunction);
+                if (stop != null && stop.get())
+                    throw new CancellationException();
+                searchRoot(node, toDepth, stop);
+            }
+        } catch (CancellationException e) {
+            node.clearChildren();
+            throw e;
+        }
+        currentDepth = Math.max(currentDepth, toDepth); //Update the current depth of the tree. 
+        searchedDepth = toDepth - node.getDepth();
+        ArrayList<PositionAnalysis> scored = new ArrayList<PositionAnalysis>(rootMoves.size());
+        for (PositionAnalysis move : rootMoves) 
+            scored.add(new PositionAnalysis(move.getMove(), move.getScore(), searchedDepth, nodes, move.getPrincipalVariation()));
+        rootMoves = scored;
+        stats.recordSearch(nodes, System.nanoTime() - start, searchedDepth);
+        if (cache != null) //Includes the lookups of other threads sharing the cache. 
+            stats.recordEvaluationCache(cache.getProbes() - cacheProbes, cache.getHits() - cacheHits);
+    }
+    
+    /**
+     * Expands a leaf node level by level, breadth first, while the tree fits the memory budget. A level which does 
+     * not fit is removed again, so the frontier of the tree is a whole level and the scores of the children of the 
+     * node are comparable. The children of the node are always kept, so a move can be chosen. 
+     * - First releases the subtrees which are off the path of the game (see releaseOffPath), as the game cannot 
+     *   return to them. 
+     * @param node the node to expand. 
+     * @param toDepth the depth to expand to. 
+     * @param stop the flag which stops the expansion when set, or null. 
+     * @return the depth of the last whole level if a level did not fit, else toDepth: a frontier of terminal 
+     *         nodes ends the expansion early without cutting the search short. 
+     * @throws CancellationException if the flag was set. 
+     */
+    private int expandWithinBudget(GameTreeNode node, int toDepth, AtomicBoolean stop) {
+        releaseOffPath();
+        long available = memoryBudget - headNode.countNodes();
+        long nodes = 0;
+        ArrayList<GameTreeNode> frontier = new ArrayList<GameTreeNode>();
+        frontier.add(node);
+        int depth = node.getDepth();
+        while (depth < toDepth && !frontier.isEmpty()) {
+            ArrayList<GameTreeNode> level = new ArrayList<GameTreeNode>();
+            boolean fits = true;
+            for (GameTreeNode leaf : frontier) {
+                if (stop != null && stop.get())
+                    throw new CancellationException();
+                leaf.expand();
+                level.addAll(leaf.getChildren().values());
+                if (depth > node.getDepth() && nodes + level.size() > available) { //The level does not fit. 
+                    fits = false;
+                    break;
+                }
+            }
+            if (!fits) {
+                for (GameTreeNode leaf : frontier) 
+                    leaf.clearChildren();
+                return depth;
+            }
+            nodes += level.size();
+            frontier = level;
+            depth++;
+        }
+        return toDepth;
+    }
+    
+    /**
+     * Releases the subtrees of the moves which were not played, from the head of the tree to the current node. 
+     * The nodes of those moves are kept with their scores, as leaves. 
+     */
+    private void releaseOffPath() {
+        for (GameTreeNode node = currentNode; node.getParent() != null; node = node.getParent()) {
+            for (GameTreeNode sibling : node.getParent().getChildren().values()) {
+                if (sibling != node)
+                    sibling.clearChildren();
+            }
+        }
+    }
+    
+    /**
+     * Scores the children of an expanded node using either minimax or alpha beta. The best multiPv children are 
+     * scored exactly, along with their principal variations: a child is searched with the score of the multiPv'th 
+     * best child so far as its bound, so only children which can enter the best children are searched exactly. 
+     * @param root the node to score. 
+     * @param toDepth the depth the search expands to. 
+     * @param stop the flag which stops a streaming search when set, or null. 
+     */
+    private void searchRoot(GameTreeNode root, int toDepth, AtomicBoolean stop) {
+        HashMap<String, GameTreeNode> children = root.getChildren();
+        ArrayList<PositionAnalysis> best = new ArrayList<PositionAnalysis>(); //The best children so far, best first. 
+        ArrayList<String> toPrune = new ArrayList<String>();
+        boolean maximizer = root.isMaximizer();
+        boolean pruning = false;
+        for (String key : children.keySet()) {
+            if (pruning) {
+                toPrune.add(key);
+                continue;
+            }
+            int bound; //The score a child has to beat to enter the best children. 
+            if (best.size() < multiPv)
+                bound = maximizer ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+            else
+                bound = best.get(multiPv - 1).getScore();
+            int evaluation;
+            if (streaming)
+                evaluation = maximizer ? streamSearch(children.get(key), toDepth, bound, Integer.MAX_VALUE, 1, stop)
+                        : streamSearch(children.get(key), toDepth, Integer.MIN_VALUE, bound, 1, stop);
+            else if (!alphaBetaPruning)
+                evaluation = miniMax(children.get(key), 1);
+            else if (maximizer)
+                evaluation = alphaBeta(children.get(key), bound, Integer.MAX_VALUE, 1);
+            else
+                evaluation = alphaBeta(children.get(key), Integer.MIN_VALUE, bound, 1);
+            if (best.size() < multiPv || (maximizer ? evaluation > bound : evaluation < bound)) { //Exact score, insert the child. 
+                int rank = 0;
+                while (rank < best.size() && (maximizer ? best.get(rank).getScore() >= evaluation : best.get(rank).getScore() <= evaluation))
+                    rank++;
+                ArrayList<String> line = new ArrayList<String>();
+                line.add(key);
+                for (int ply = 1; ply < pvLength[1]; ply++)
+                    line.add(pvTable[1][ply]);
+                best.add(rank, new PositionAnalysis(key, evaluation, turnLookAhead, 0, line));
+                if (best.size() > multiPv)
+                    best.remove(multiPv);
+            }
+            if (alphaBetaPruning && multiPv == 1 && evaluation == (maximizer ? Integer.MAX_VALUE : Integer.MIN_VALUE)) //A win is found, no other child can be better. 
+                pruning = true;
+        }
+        root.removeChildren(toPrune);
+        if (!best.isEmpty())
+            root.setScore(best.get(0).getScore());
+        rootMoves = best;
+        pvRoot = root;
+    }
+    
+    /**
+     * Scores a node depth first, generating its subtree while it is scored instead of keeping it: only the nodes 
+     * of the current path exist. Uses alpha beta pruning if the tree does, otherwise minimax. 
+     * The scores are the same as those of expanding the node to the depth and running minimax or alpha beta. 
+     * @param node the node to score. Its children are not kept. 
+     * @param toDepth the depth to search to. 
+     * @param alpha the alpha value of the node (ignored without alpha beta pruning). 
+     * @param beta the beta value of the node (ignored without alpha beta pruning). 
+     * @param ply the ply of the node, relative to the node the search started from. 
+     * @param stop the flag which stops the search when set, or null. 
+     * @return the score of the node. 
+     * @throws CancellationException if the flag was set. 
+     */
+    private int streamSearch(GameTreeNode node, int toDepth, int alpha, int beta, int ply, AtomicBoolean stop) {
+        pvLength[ply] = ply;
+        if (stop != null && stop.get())
+            throw new CancellationException();
+        HashSet<String> moves = new HashSet<String>(); //Visited in the same order as the children of an expanded node. 
+        if (node.getDepth() < toDepth)
+            moves.addAll(node.getMoves());
+        if (moves.isEmpty()) { //A leaf: at the search depth, or no moves can be made. 
+            if (!node.isEvaluated())
+                node.evaluate(evaluationFunction);
+            return node.getScore();
+        }
+        int windowAlpha = alpha;
+        int windowBeta = beta;
+        int value = node.isMaximizer() ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        for (String args : moves) {
+            streamedNodes++;
+            if (streamedNodes > nodeLimit || (deadline != 0 && (streamedNodes & 255) == 0 && System.nanoTime() - deadline > 0))
+                throw new CancellationException();
+            int evaluation = streamSearch(node.createChild(args), toDepth, alpha, beta, ply + 1, stop);
+            if (node.isMaximizer() ? evaluation > value : evaluation < value) {
+                value = evaluation;
+                updatePrincipalVariation(ply, args);
+            }
+            if (alphaBetaPruning) {
+                if (node.isMaximizer())
+                    alpha = Math.max(alpha, value);
+                else
+                    beta = Math.min(beta, value);
+                if (alpha >= beta) //The remaining children cannot change the score of the parent. 
+                    break;
+            }
+        }
+        node.setScore(value);
+        if (alphaBetaPruning)
+            node.setBound(boundOf(value, windowAlpha, windowBeta));
+        return value;
+    }
+    
+    /**
+     * Returns whether a score found within an alpha beta window is exact or a bound (see GameTreeNode.getBound). 
+     * An unbounded side of the window cannot be failed, so won and lost scores of a full window are exact. 
+     * @param value the score. 
+     * @param alpha the alpha value of the window. 
+     * @param beta the beta value of the window. 
+     * @return GameTreeNode.EXACT, LOWER_BOUND or UPPER_BOUND. 
+     */
+    private static int boundOf(int value, int alpha, int beta) {
+        if (value <= alpha && alpha != Integer.MIN_VALUE)
+            return GameTreeNode.UPPER_BOUND;
+        if (value >= beta && beta != Integer.MAX_VALUE)
+            return GameTreeNode.LOWER_BOUND;
+        return GameTreeNode.EXACT;
+    }
+    
+    /**
+     * Sets whether searches expand depth first with bounded memory, instead of materializing the whole subtree 
+     * before evaluating it. A streaming search keeps only the nodes of the current path and the children of the 
+     * searched node, so memory no longer grows with 288^depth. It chooses the same moves with the same scores, 
+     * but the searched subtrees are not kept for inspection or reuse by the next move. 
+     * @param streaming true to search depth first. 
+     */
+    public synchronized void setStreaming(boolean streaming) {
+        stopPondering(null);
+        this.streaming = streaming;
+    }
+    
+    /**
+     * Scores the current node to the look ahead within an alpha beta window, depth first (see setStreaming). Used to 
+     * search subtrees split off a larger search (see SearchWorker). The opening book, tablebase, tactical scan and 
+     * endgame solver are not used, and the tree does not move. 
+     * @param alpha the alpha value of the window. 
+     * @param beta the beta value of the window. 
+     * @return the score of the node if it lies within the window, else a bound on the side of the window it fell on. 
+     */
+    public synchronized int searchScore(int alpha, int beta) {
+        stopPondering(null);
+        long start = System.nanoTime();
+        streamedNodes = 0;
+        int score = streamSearch(currentNode, currentNode.getDepth() + turnLookAhead, alpha, beta, 0, null);
+        stats.recordSearch(streamedNodes, System.nanoTime() - start, turnLookAhead);
+        return score;
+    }
+    
+    /**
+     * Saves the tree, from the state it was created with, to a file which can be memory mapped for analysis (see 
+     * SavedTree). Includes the scores and bounds of every node kept from the searches of the game so far. Stops 
+     * pondering first. 
+     * @param path the file to write. 
+     * @return the amount of nodes saved. 
+     * @throws IOException if the file cannot be written. 
+     */
+    public synchronized int saveTree(Path path) throws IOException {
+        stopPondering(null);
+        return SavedTreeWriter.write(headNode, turnLookAhead, path);
+    }
+    
+    /**
+     * Sets the most nodes a streaming search may generate. A search which reaches the limit is stopped with a 
+     * CancellationException, like a search whose stop flag is set (see setStreaming). 
+     * @param nodeLimit the most nodes per search, or Long.MAX_VALUE for no limit. 
+     */
+    public synchronized void setNodeLimit(long nodeLimit) {
+        stopPondering(null);
+        this.nodeLimit = nodeLimit;
+    }
+    
+    /**
+     * Sets the most nodes the tree may hold. A search which would grow the tree past the budget stops expanding at 
+     * the last depth which fits, scores that frontier and chooses a move from it (see getSearchedDepth). The budget 
+     * does not apply to streaming searches, which do not keep their trees. 
+     * - Multiply by GameTreeNode.ESTIMATED_BYTES for the estimated memory of the tree. 
+     * @param memoryBudget the most nodes, or Long.MAX_VALUE for no budget. 
+     */
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        stopPondering(null);
+        this.memoryBudget = memoryBudget;
+    }
+    
+    /**
+     * Returns the most nodes the tree may hold. 
+     * @return the budget, or Long.MAX_VALUE for no budget. 
+     */
+    public synchronized long getMemoryBudget() {
+        stopPondering(null);
+        return memoryBudget;
+    }
+    
+    /**
+     * Returns the depth the last search reached, relative to the position it searched. Less than the turn look 
+     * ahead if the memory budget cut the search short (or, with a time manager, if the clock ended the move). 
+     * @return the searched depth. 
+     */
+    public synchronized int getSearchedDepth() {
+        stopPondering(null);
+        return searchedDepth;
+    }
+    
+    /**
+     * Sets the time at which streaming searches are stopped with a CancellationException. The time is checked 
+     * every 256 nodes. 
+     * @param deadline the time (System.nanoTime) to stop at, or 0 for none. 
+     */
+    public synchronized void setDeadline(long deadline) {
+        stopPondering(null);
+        this.deadline = deadline;
+    }
+    
+    /**
+     * Stores a better child of the node at a ply in the principal variation table: the line of the node becomes 
+     * the child's move followed by the line of the child. 
+     * @param ply the ply of the node, relative to the node the search started from. 
+     * @param args the arguments of the better child. 
+     */
+    private void updatePrincipalVariation(int ply, String args) {
+        pvTable[ply][ply] = args;
+        int end = pvLength[ply + 1];
+        System.arraycopy(pvTable[ply + 1], ply + 1, pvTable[ply], ply + 1, end - ply - 1);
+        pvLength[ply] = end;
+    }
+    
+    /**
+     * Sets the amount of moves of a searched node which are scored exactly, each with its principal variation 
+     * (see getRootMoves). Children which cannot enter the best moves are still pruned, so this costs far less than 
+     * searching every move exactly. 
+     * @param multiPv the amount of best moves to score exactly, at least 1. 
+     */
+    public synchronized void setMultiPv(int multiPv) {
+        stopPondering(null);
+        this.multiPv = Math.max(multiPv, 1);
+    }
+    
+    /**
+     * Returns the best moves of the node the last search started from, best first, with exact scores and 
+     * principal variations. At most multiPv moves are returned (see setMultiPv). 
+     * @return the best moves of the last search, empty if nothing has been searched. 
+     */
+    public synchronized List<PositionAnalysis> getRootMoves() {
+        stopPondering(null);
+        return rootMoves;
+    }
+    
+    /**
+     * Returns the principal variation of the last choice of the tree: the chosen move, followed by the line 
+     * the search expects both players to play. 
+     * @return the arguments of the moves of the line. Only the chosen move if it was not searched (e.g. an 
+     *         opening book move), empty if no choice has been made. 
+     */
+    public synchronized List<String> getPrincipalVariation() {
+        stopPondering(null);
+        ArrayList<String> line = new ArrayList<String>();
+        if (currentNode == headNode)
+            return line;
+        if (pvRoot == currentNode.getParent() && !rootMoves.isEmpty() && rootMoves.get(0).getMove().equals(currentNode.getArgs()))
+            return rootMoves.get(0).getPrincipalVariation();
+        line.add(currentNode.getArgs());
+        return line;
+    }
+    
+    /**
+     * Returns the counters of the searches performed by this tree. 
+     * @return the search stats of this tree. 
+     */
+    public synchronized SearchStats getStats() {
+        stopPondering(null);
+        return stats;
+    }
+    
+    /**
+     * Evaluates the tree using the minimax algorithm starting with a specified node.  
+     */
+    public void miniMax(GameTreeNode node) {
+        miniMax(node, 0);
+    }
+    
+    /**
+     * Evaluates a node and its subtree using the minimax algorithm, recording the principal variation. 
+     * @param node the node to evaluate. 
+     * @param ply the ply of the node, relative to the node the search started from. 
+     * @return the score of the node. 
+     */
+    private int miniMax(GameTreeNode node, int ply) {
+        pvLength[ply] = ply;
+        if (node.isLeaf()) //If this node is a leaf, there is nothing to do - return!
+            return node.getScore();
+        HashMap<String, GameTreeNode> children = node.getChildren();
+        int value;
+        if (node.isMaximizer()) //If the node is a maximizer, initialize value with the lowest possible number! 
+            value = Integer.MIN_VALUE;
+        else //If the node is a minimizer, initialize value with the maximum possible integer!
+            value = Integer.MAX_VALUE; 
+        for (String key : children.keySet()) { //Score every child, and keep the best score. 
+            int childScore = miniMax(children.get(key), ply + 1);
+            if (node.isMaximizer() ? childScore > value : childScore < value) {
+                value = childScore;
+                updatePrincipalVariation(ply, key);
+            }
+        }
+        node.setScore(value);
+        return value;
+    }
+    
+    /**
+     * Evaluates the tree with alpha-beta pruning on a specific gametree node. 
+     * - ASSUMES ALL LEAFS HAVE BEEN EVALUATED!
+     * @param node the node to evaluate alpha beta on. 
+     * @param the current alpha beta values of the node. 
+     * @return an integer corresponding to the last alpha or beta value. 
+     */
+    public int alphaBeta(GameTreeNode node, int alpha, int beta) {
+        return alphaBeta(node, alpha, beta, 0);
+    }
+    
+    /**
+     * Evaluates a node with alpha-beta pruning, recording the principal variation. 
+     * @param node the node to evaluate alpha beta on. 
+     * @param alpha the alpha value of the node. 
+     * @param beta the beta value of the node. 
+     * @param ply the ply of the node, relative to the node the search started from. 
+     * @return an integer corresponding to the last alpha or beta value. 
+     */
+    private int alphaBeta(GameTreeNode node, int alpha, int beta, int ply) {
+        pvLength[ply] = ply;
+        if (node.isLeaf()) //if this node is a leaf, return. 
+            return node.getScore();
+        int windowAlpha = alpha;
+        int windowBeta = beta;
+        HashMap<String, GameTreeNode> children = node.getChildren();
+        int value;
+        boolean pruning = false;
+        ArrayList<String> toPrune = new ArrayList<String>(); //An array list of arguments that are mapped to children to prune off. 
+        if (node.isMaximizer()) { //if this node is a maximizer node, manipulate alpha value. 
+            value = Integer.MIN_VALUE;
+            for (String key : children.keySet()) {
+                if (pruning) { //If we are pruning off children. 
+                    toPrune.add(key);
+                } else { //Else, we are still evaluating children. 
+                    int evaluation = alphaBeta(children.get(key), alpha, beta, ply + 1);
+                    if (evaluation > value) {
+                        value = evaluation;
+                        updatePrincipalVariation(ply, key);
+                    }
+                    alpha = Math.max(alpha, value); //Set alpha to be the max of the evaluation.
+                    if (alpha >= beta) //if alpha is greater than or equal to beta, no longer evaluate children. We only prune them. 
+                        pruning = true;
+                }    
+            }
+        } else { //If this node is a minimizer, manipulate beta value. 
+            value = Integer.MAX_VALUE;
+            for (String key : children.keySet()) {
+                if (pruning) { //If we are pruning off children.
+                    toPrune.add(key);
+                } else { //Else, we are still evaluating children. 
+                    int evaluation = alphaBeta(children.get(key), alpha, beta, ply + 1); 
+                    if (evaluation < value) {
+                        value = evaluation;
+                        updatePrincipalVariation(ply, key);
+                    }
+                    beta = Math.min(beta, value);
+                    if (beta <= alpha)
+                        pruning = true;
+                }
+            }
+        }
+        node.removeChildren(toPrune);
+        node.setScore(value); //Set the score of this node equal to the calculated alpha beta value. 
+        node.setBound(boundOf(value, windowAlpha, windowBeta));
+        return value;
+    }
+}
@@ -1,216 +1,450 @@
-package pentago;
-
-import java.util.HashMap;
-import java.util.List;
-
-/** 
- * Stores information about a state of pentago, along with methods to expand this node as a tree. 
- * @author Cade Reynoldson
- */
-public class GameTreeNode {
-    
-    /** The state of this node. */
-    private char[][] state;
-    
-    private final int depth;
-    
-    /** The score (established VIA. minimax or evaluation function) of this node. */
-    private int score;
-    
-    /** The children of this node, mapped to the argument that generated them from this state.*/
-    private HashMap<String, GameTreeNode> children;
-    
-    /** The token of this level of node. This is the current player which is to make a move. Childeren of this node will have the opposite token. */
-    private char token;
-    
-    /** The parent game tree node. */
-    private GameTreeNode parent;
-    
-    /** Indicates if node prioritizes towards max or min. */
-    private boolean maximizer;
-    
-    /** Indicates if this node has been evaluated. */
-    private boolean beenEvaluated;
-    
-    /** The arguments provided to generate this node. */
-    private String args;
-    
-    /**
-     * Creates a new instance of a game tree node.
-     * @param parent the parent of this node. 
-     * @param state the state of this node. 
-     * @param token the token of this node. 
-     * @param depth the depth of this node. 
-     * @param maximizer whether this node is a maximizer or not. 
-     */
-    public GameTreeNode(GameTreeNode parent, char[][] state, char token, int depth, boolean maximizer, String args) {
-        this.parent = parent;
-        this.state = state;
-        this.token = token;
-        this.depth = depth;
-        this.maximizer = maximizer;
-        this.args = args; 
-        beenEvaluated = false; 
-        children = new HashMap<String, GameTreeNode>();
-    }
-    
-    /**
-     * Expands a node to a specified depth. 
-     * @param toDepth
-     */
-    public long expand(int toDepth) {
-        if (depth < toDepth) { //If depth of node is less than the desired depth, expand and then expand children. 
-            long numExpanded = expand(); //expand node
-            if (numExpanded == 0) { //If this node tries to expand and no nodes are generated, return minimum value. (END OF TREE)
-                return Long.MIN_VALUE;
-            }
-            for (String args : children.keySet()) { //For all children, expand with the current depth level. 
-                numExpanded += children.get(args).expand(toDepth);
-            }
-            return numExpanded;
-        } else { //Return 0, indicating this is a leaf. 
-            return 0; 
-        }
-    }
-    
-    /**
-     * Expands the node with all possible moves that coubld be made.
-     * @return the number of nodes expanded.   
-     */
-    public long expand() {
-        char nextToken = getOppositeToken();
-        for (int i = 1; i < 10; i++) { //Generate commands for positions 1-9. 
-            for (int j = 1; j < 5; j++) { //Loop these commands for each block.
-                if (GameState.canReplace(state, j + "/" + i)) { //If a position can be replaced.  
-                    for (int o = 1; o < 5; o++) {//For each block, generate a node with position replaced and a block rotated.
-                        String args1 = j + "/" + i + " " + o + "l";
-                        String args2 = j + "/" + i + " " + o + "r";
-                        children.put(args1, new GameTreeNode(this, GameState.alter(state, token, args1), nextToken, depth + 1, !maximizer, args1)); //Add with o index rotated right. 
-                        children.put(args2, new GameTreeNode(this, GameState.alter(state, token, args2), nextToken, depth + 1, !maximizer, args2)); //Add with o index rotated left. 
-                    }
-                }
-            }
-        }
-        return (long) children.size();
-    }
-    
-    
-    /**
-     * Evaluates all leaf nodes of this tree. 
-     * @param f the function to use for evaluation. 
-     */
-    public void evaluate(UtilityFunction f) {
-        if (isLeaf() && !beenEvaluated) {  //if this node is a leaf and has not been evaluated. 
-            if (f.isAdvanced()) //If advanced evaluation is to take place. 
-                f.evaluate(parent.getState(), this);
-            else
-                f.evaluate(this);
-        } else  //Else it is a parent. Evaluate children. 
-            for (String key : children.keySet()) 
-                children.get(key).evaluate(f);
-    }
-    
-    /**
-     * Returns the opposite token of the one that is currently contained. 
-     * @return the opposite token of the one that is currently contained. 
-     */
-    public char getOppositeToken() {
-        if (token == 'b')
-            return 'w';
-        else
-            return 'b';
-    }
-    
-    /**
-     * Returns the current contained state. 
-     * @return the current contained state. 
-     */
-    public char[][] getState() {
-        return state;
-    }
-    
-    /**
-     * Returns true if the contained state is equal to the parameterized state. 
-     * @param state the state to check for equality. 
-     * @return true if the contained state is equal to the parameterized state. 
-     */
-    public boolean equals(char[][] state) {
-        return GameState.equals(this.state, state);
-    }
-    
-    /**
-     * Returns the children of this node mapped to the arguments that resulted in their state. 
-     * @return the children of this node mapped to the arguments that resulted in their state. 
-     */
-    public HashMap<String, GameTreeNode> getChildren() {
-        return children;
-    }
-    
-    /**
-     * Returns the child of this node corresponding to the arguments to generate it. 
-     * @param args the arguments used in generating the child node. 
-     * @return the child of this node corresponding to the arguments to generate it. 
-     */
-    public GameTreeNode getChild(String args) {
-        return children.get(args);
-    }
-    
-    /**
-     * Indicates if this node is a leaf node. 
-     * @return
-     */
-    public boolean isLeaf() {
-        return children.isEmpty();
-    }
-    
-    /**
-     * Sets the score of this node. Marks the node as evaluated.  
-     * @param score the new score. 
-     */
-    public void setScore(int score) {
-        this.score = score; 
-        beenEvaluated = true;
-    }
-    
-    /**
-     * Returns the parent node of this node. Returns NULL if no parent exists (aka head node).
-     * - Mainly used by advanced evaluation function. 
-     * @return the parent of the node. 
-     */
-    public GameTreeNode getParent() {
-        return parent;
-    }
-    
-    /**
-     * Removes the children of this node who are mapped to the arguments. 
-     * @param the list of children arguments to remove. 
-     */
-    public void removeChildren(List<String> args) {
-        for (String s : args)
-            children.remove(s);
-    }
-    
-    /***********
-     * Getters *
-     ***********/
-    
-    public int getScore() {
-        return score; 
-    }
-
-    public char getToken() {
-        return token; 
-    }
-    
-    public boolean isMaximizer() {
-        return maximizer;
-    }
-    
-    public boolean isEvaluated() {
-        return beenEvaluated; 
-    }
-    
-    public String getArgs() {
-        return args; 
-    }
-}
+package pentago;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** 
+ * Stores information about a state of pentago, along with methods to expand this node as a tree. 
+ * @author Cade Reynoldson
+ */
+public class GameTreeNode {
+    
+    /** Bound type of a score which is the exact minimax value of the node (see getBound). */
+    public static final int EXACT = 0;
+    
+    /** Bound type of a score which the exact value is at least: a child refuted the window (fail high). */
+    public static final int LOWER_BOUND = 1;
+    
+    /** Bound type of a score which the exact value is at most: no child reached the window (fail low). */
+    public static final int UPPER_BOUND = 2;
+    
+    /** 
+     * The estimated heap size of a node in bytes: the node, its state, its move and its entry in the parent's 
+     * children. Measured at about 390 bytes with compressed references and 480 without. 
+     */
+    public static final int ESTIMATED_BYTES = 480;
+    
+    /** The state of this node. */
+    private char[][] state;
+    
+    private final int depth;
+    
+    /** The score (established VIA. minimax or evaluation function) of this node. */
+    private int score;
+    
+    /** The children of this node, mapped to the argument that generated them from this state.*/
+    private HashMap<String, GameTreeNode> children;
+    
+    /** The token of this level of node. This is the current player which is to make a move. Childeren of this node will have the opposite token. */
+    private char token;
+    
+    /** The parent game tree node. */
+    private GameTreeNode parent;
+    
+    /** Indicates if node prioritizes towards max or min. */
+    private boolean maximizer;
+    
+    /** Indicates if this node has been evaluated. */
+    private boolean beenEvaluated;
+    
+    /** The arguments provided to generate this node. */
+    private String args;
+    
+    /** Whether the score is exact or a bound left by alpha beta pruning (EXACT, LOWER_BOUND or UPPER_BOUND). */
+    private int bound;
+    
+    /** The moves this node is restricted to (see restrictMoves), or null to generate every move. */
+    private List<String> restrictedMoves;
+    
+    /**
+     * Creates a new instance of a game tree node.
+     * @param parent the parent of this node. 
+     * @param state the state of this node. 
+     * @param token the token of this node. 
+     * @param depth the depth of this node. 
+     * @param maximizer whether this node is a maximizer or not. 
+     */
+    public GameTreeNode(GameTreeNode parent, char[][] state, char token, int depth, boolean maximizer, String args) {
+        this.parent = parent;
+        this.state = state;
+        this.token = token;
+        this.depth = depth;
+        this.maximizer = maximizer;
+        this.args = args; 
+        beenEvaluated = false; 
+        children = new HashMap<String, GameTreeNode>();
+    }
+    
+    /**
+     * Expands a node to a specified depth. 
+     * @param toDepth
+     * @return the number of nodes generated. 
+     */
+    public long expand(int toDepth) {
+        return expand(toDepth, null);
+    }
+    
+    /**
+     * Expands a node to a specified depth, unless the search is stopped. 
+     * @param toDepth the depth to expand to. 
+     * @param stop the flag which stops the expansion when set, or null if the expansion cannot be stopped. 
+     * @return the number of nodes generated. 
+     * @throws CancellationException if the flag was set. The node is left partially expanded. 
+     */
+    public long expand(int toDepth, AtomicBoolean stop) {
+        if (stop != null && stop.get())
+            throw new CancellationException();
+        if (depth < toDepth) { //If depth of node is less than the desired depth, expand and then expand children. 
+            long numExpanded = expand(); //expand node
+            if (numExpanded == 0) { //If this node tries to expand and no nodes are generated, there is nothing more to expand. (END OF TREE)
+                return 0;
+            }
+            for (String args : children.keySet()) { //For all children, expand with the current depth level. 
+                numExpanded += children.get(args).expand(toDepth, stop);
+            }
+            return numExpanded;
+        } else { //Return 0, indicating this is a leaf. 
+            return 0; 
+        }
+    }
+    
+    /**
+     * Expands the node with all possible moves that coubld be made.
+     * @return the number of nodes expanded.   
+     */
+    public long expand() {
+        for (String args : getMoves()) 
+            children.put(args, createChild(args));
+        return (long) children.size();
+    }
+    
+    /**
+     * Returns the arguments of all possible moves that could be made, in the order expand() generates them. 
+     * If the moves have been restricted (see restrictMoves), returns the restricted moves instead. 
+     * - Moves which lead to the same state as an earlier move are left out: rotating an empty or symmetric block 
+     *   changes nothing, and a placement which wins is not followed by a rotation at all. The left out moves are 
+     *   aliases of the move which is kept (see getEquivalentMoves), and getChild / getOrCreateChild accept them. 
+     * @return the arguments of all distinct moves. 
+     */
+    public ArrayList<String> getMoves() {
+        if (restrictedMoves != null)
+            return new ArrayList<String>(restrictedMoves);
+        ArrayList<String> moves = new ArrayList<String>();
+        long black = BitBoard.fromState(state, 'b');
+        long white = BitBoard.fromState(state, 'w');
+        LongIntHashMap seen = new LongIntHashMap(BitBoard.MOVES); //Hash of each generated state. 
+        for (int i = 1; i < 10; i++) { //Generate commands for positions 1-9. 
+            for (int j = 1; j < 5; j++) { //Loop these commands for each block.
+                if (GameState.canReplace(state, j + "/" + i)) { //If a position can be replaced.  
+                    for (int o = 1; o < 5; o++) {//For each block, generate a move with position replaced and a block rotated.
+                        for (int direction = 0; direction < 2; direction++) {
+                            String move = j + "/" + i + " " + o + (direction == 0 ? "l" : "r");
+                            if (seen.putIfAbsent(resultHash(black, white, BitBoard.fromArgs(move)), moves.size()) == LongIntHashMap.NO_VALUE)
+                                moves.add(move); 
+                        }
+                    }
+                }
+            }
+        }
+        return moves;
+    }
+    
+    /**
+     * Restricts the moves generated for this node to a subset of getMoves(), e.g. the moves which block an 
+     * immediate win of the opponent. Only affects expansions made after the call. 
+     * @param moves the moves to generate, or null to generate every move again. 
+     */
+    public void restrictMoves(List<String> moves) {
+        restrictedMoves = moves == null ? null : new ArrayList<String>(moves);
+    }
+    
+    /**
+     * Returns the arguments of every move which leads to the same state as a move, including the move itself. 
+     * @param args the arguments of the move. 
+     * @return the arguments of the equivalent moves, in the order getMoves() would consider them. 
+     */
+    public List<String> getEquivalentMoves(String args) {
+        long black = BitBoard.fromState(state, 'b');
+        long white = BitBoard.fromState(state, 'w');
+        long target = resultHash(black, white, BitBoard.fromArgs(args));
+        List<String> equivalent = new ArrayList<String>();
+        for (int i = 1; i < 10; i++) {
+            for (int j = 1; j < 5; j++) {
+                if (!GameState.canReplace(state, j + "/" + i))
+                    continue;
+                for (int o = 1; o < 5; o++) {
+                    for (int direction = 0; direction < 2; direction++) {
+                        String move = j + "/" + i + " " + o + (direction == 0 ? "l" : "r");
+                        if (resultHash(black, white, BitBoard.fromArgs(move)) == target)
+                            equivalent.add(move);
+                    }
+                }
+            }
+        }
+        return equivalent;
+    }
+    
+    /**
+     * Returns the hash of the state a move leads to, as GameState.alter plays it: the rotation is skipped if the 
+     * placement wins. 
+     */
+    private long resultHash(long black, long white, int move) {
+        long placed = 1L << BitBoard.cell(move);
+        long nextBlack = token == 'b' ? black | placed : black;
+        long nextWhite = token == 'b' ? white : white | placed;
+        if (GameState.isWinningMove(nextBlack, nextWhite, BitBoard.cell(move), -1) == 'n') {
+            nextBlack = BitBoard.rotate(nextBlack, BitBoard.block(move), BitBoard.direction(move));
+            nextWhite = BitBoard.rotate(nextWhite, BitBoard.block(move), BitBoard.direction(move));
+        }
+        return BitBoard.hash(nextBlack, nextWhite, 'b');
+    }
+    
+    /**
+     * Returns the move which generated the child a move leads to. Moves leading to the same state as a generated 
+     * child are aliases of that child's move. 
+     * @param args the arguments of the move. 
+     * @return the arguments of the child's move, or the arguments themselves if no child leads to the same state. 
+     */
+    public String resolveMove(String args) {
+        if (children.isEmpty() || children.containsKey(args))
+            return args;
+        char[][] target = GameState.alter(state, token, args);
+        for (String key : children.keySet()) {
+            if (GameState.equals(children.get(key).state, target))
+                return key;
+        }
+        return args;
+    }
+    
+    /**
+     * Creates the child generated by a move, without adding it to the children of this node. 
+     * - Used by streaming searches, which only keep the nodes of the current path. 
+     * @param args the arguments of the move. 
+     * @return the new child. 
+     */
+    public GameTreeNode createChild(String args) {
+        return new GameTreeNode(this, GameState.alter(state, token, args), getOppositeToken(), depth + 1, !maximizer, args);
+    }
+    
+    
+    /**
+     * Evaluates all leaf nodes of this tree. 
+     * @param f the function to use for evaluation. 
+     */
+    public void evaluate(UtilityFunction f) {
+        if (isLeaf() && !beenEvaluated) {  //if this node is a leaf and has not been evaluated. 
+            if (f.isAdvanced()) //If advanced evaluation is to take place. 
+                f.evaluate(parent.getState(), this);
+            else
+                f.evaluate(this);
+        } else if (isFrontier()) //Every child is a leaf. Evaluate the siblings together. 
+            evaluateChildren(f);
+        else  //Else it is a parent. Evaluate children. 
+            for (String key : children.keySet()) 
+                children.get(key).evaluate(f);
+    }
+    
+    /**
+     * Returns true if this node has children and every child is a leaf. 
+     * @return true if this node is on the frontier of the tree. 
+     */
+    private boolean isFrontier() {
+        if (children.isEmpty())
+            return false;
+        for (GameTreeNode child : children.values()) {
+            if (!child.isLeaf())
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Evaluates the unevaluated children of a frontier node with one call to UtilityFunction.evaluateBatch. 
+     * @param f the function to use for evaluation. 
+     */
+    private void evaluateChildren(UtilityFunction f) {
+        GameTreeNode[] pending = new GameTreeNode[children.size()];
+        long[] black = new long[pending.length];
+        long[] white = new long[pending.length];
+        int count = 0;
+        for (GameTreeNode child : children.values()) {
+            if (child.beenEvaluated)
+                continue;
+            pending[count] = child;
+            black[count] = BitBoard.fromState(child.state, 'b');
+            white[count] = BitBoard.fromState(child.state, 'w');
+            count++;
+        }
+        if (count == 0)
+            return;
+        int[] scores = new int[count];
+        f.evaluateBatch(state, black, white, count, getOppositeToken(), !maximizer, scores);
+        for (int i = 0; i < count; i++)
+            pending[i].setScore(scores[i]);
+    }
+    
+    /**
+     * Returns the opposite token of the one that is currently contained. 
+     * @return the opposite token of the one that is currently contained. 
+     */
+    public char getOppositeToken() {
+        if (token == 'b')
+            return 'w';
+        else
+            return 'b';
+    }
+    
+    /**
+     * Returns the current contained state. 
+     * @return the current contained state. 
+     */
+    public char[][] getState() {
+        return state;
+    }
+    
+    /**
+     * Returns true if the contained state is equal to the parameterized state. 
+     * @param state the state to check for equality. 
+     * @return true if the contained state is equal to the parameterized state. 
+     */
+    public boolean equals(char[][] state) {
+        return GameState.equals(this.state, state);
+    }
+    
+    /**
+     * Returns the children of this node mapped to the arguments that resulted in their state. 
+     * @return the children of this node mapped to the arguments that resulted in their state. 
+     */
+    public HashMap<String, GameTreeNode> getChildren() {
+        return children;
+    }
+    
+    /**
+     * Returns the child of this node corresponding to the arguments to generate it, or to an equivalent move. 
+     * @param args the arguments used in generating the child node. 
+     * @return the child of this node corresponding to the arguments to generate it. 
+     */
+    public GameTreeNode getChild(String args) {
+        return children.get(resolveMove(args));
+    }
+    
+    /**
+     * Returns the child of this node corresponding to the arguments, generating it if it does not exist 
+     * (never expanded, or removed by alpha beta pruning). 
+     * @param args the arguments used in generating the child node. 
+     * @return the child of this node corresponding to the arguments. 
+     */
+    public GameTreeNode getOrCreateChild(String args) {
+        args = resolveMove(args);
+        GameTreeNode child = children.get(args);
+        if (child == null) {
+            child = createChild(args);
+            children.put(args, child);
+        }
+        return child;
+    }
+    
+    /**
+     * Removes all children of this node, making it a leaf again. 
+     * - Used to discard a partially expanded or no longer needed subtree. 
+     */
+    public void clearChildren() {
+        children = new HashMap<String, GameTreeNode>();
+    }
+    
+    /**
+     * Counts the nodes of the subtree of this node, this node included. 
+     * @return the amount of nodes. 
+     */
+    public long countNodes() {
+        long count = 0;
+        ArrayDeque<GameTreeNode> stack = new ArrayDeque<GameTreeNode>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            GameTreeNode node = stack.pop();
+            count++;
+            for (GameTreeNode child : node.children.values())
+                stack.push(child);
+        }
+        return count;
+    }
+    
+    /**
+     * Indicates if this node is a leaf node. 
+     * @return
+     */
+    public boolean isLeaf() {
+        return children.isEmpty();
+    }
+    
+    /**
+     * Sets the score of this node. Marks the node as evaluated.  
+     * @param score the new score. 
+     */
+    public void setScore(int score) {
+        this.score = score; 
+        beenEvaluated = true;
+    }
+    
+    /**
+     * Sets whether the score of this node is exact or a bound. 
+     * @param bound EXACT, LOWER_BOUND or UPPER_BOUND. 
+     */
+    public void setBound(int bound) {
+        this.bound = bound;
+    }
+    
+    /**
+     * Returns the parent node of this node. Returns NULL if no parent exists (aka head node).
+     * - Mainly used by advanced evaluation function. 
+     * @return the parent of the node. 
+     */
+    public GameTreeNode getParent() {
+        return parent;
+    }
+    
+    /**
+     * Removes the children of this node who are mapped to the arguments. 
+     * @param the list of children arguments to remove. 
+     */
+    public void removeChildren(List<String> args) {
+        for (String s : args)
+            children.remove(s);
+    }
+    
+    /***********
+     * Getters *
+     ***********/
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    public int getScore() {
+        return score; 
+    }
+
+    public char getToken() {
+        return token; 
+    }
+    
+    public boolean isMaximizer() {
+        return maximizer;
+    }
+    
+    public boolean isEvaluated() {
+        return beenEvaluated; 
+    }
+    
+    public int getBound() {
+        return bound;
+    }
+    
+    public String getArgs() {
+        return args; 
+    }
+}
@@ -0,0 +1,220 @@
+package pentago;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long keys (position hashes or bitboards) to long values, without boxing.
+ * - Open addressing with linear probing in a power of two sized table. Keys and values are stored in two
+ *   primitive arrays, so an entry costs 16 bytes (at most 32 with the table half full) and creates no objects.
+ * - Key 0 marks an empty slot in the table, so the entry of key 0 is stored separately.
+ * - Removal shifts the following entries of the probe sequence back, so no tombstones are left behind.
+ * - Not thread safe: the shared tables (PositionCache, EvaluationCache) are lossy lock free arrays instead.
+ */
+public class LongLongHashMap {
+    
+    /** Value returned for keys which are not in the map. */
+    public static final long NO_VALUE = Long.MIN_VALUE;
+    
+    /** The default initial capacity. */
+    private static final int DEFAULT_CAPACITY = 16;
+    
+    /** The keys of the table. 0 = empty slot. */
+    private long[] keys;
+    
+    /** The values of the table. */
+    private long[] values;
+    
+    /** Mask used to index the table (capacity - 1). */
+    private int mask;
+    
+    /** The amount of entries in the table (excluding key 0). */
+    private int tableSize;
+    
+    /** The amount of entries at which the table is doubled (3/4 of the capacity). */
+    private int resizeAt;
+    
+    /** Indicates if key 0 is in the map. */
+    private boolean hasZeroKey;
+    
+    /** The value of key 0. */
+    private long zeroValue;
+    
+    /**
+     * Creates an empty map.
+     */
+    public LongLongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Creates an empty map which holds an amount of entries without growing.
+     * @param expectedSize the amount of entries expected.
+     */
+    public LongLongHashMap(int expectedSize) {
+        allocate(LongIntHashMap.capacityFor(expectedSize));
+    }
+    
+    /**
+     * Returns the value of a key.
+     * @param key the key to look up.
+     * @return the value, or NO_VALUE if the key is not in the map.
+     */
+    public long get(long key) {
+        if (key == 0)
+            return hasZeroKey ? zeroValue : NO_VALUE;
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                return values[slot];
+            if (keys[slot] == 0)
+                return NO_VALUE;
+        }
+    }
+    
+    /**
+     * Returns true if a key is in the map.
+     * @param key the key to look up.
+     * @return true if the key is in the map.
+     */
+    public boolean containsKey(long key) {
+        if (key == 0)
+            return hasZeroKey;
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                return true;
+            if (keys[slot] == 0)
+                return false;
+        }
+    }
+    
+    /**
+     * Sets the value of a key.
+     * @param key the key to set.
+     * @param value the value to set.
+     * @return the previous value, or NO_VALUE if the key was not in the map.
+     */
+    public long put(long key, long value) {
+        return insert(key, value, true);
+    }
+    
+    /**
+     * Sets the value of a key if the key is not in the map.
+     * @param key the key to set.
+     * @param value the value to set.
+     * @return the current value, or NO_VALUE if the key was not in the map (and has been added).
+     */
+    public long putIfAbsent(long key, long value) {
+        return insert(key, value, false);
+    }
+    
+    /**
+     * Inserts or updates an entry.
+     * @param replace true to replace the value of an existing key.
+     * @return the previous value, or NO_VALUE if the key was added.
+     */
+    private long insert(long key, long value, boolean replace) {
+        if (key == 0) {
+            long previous = hasZeroKey ? zeroValue : NO_VALUE;
+            if (!hasZeroKey || replace)
+                zeroValue = value;
+            hasZeroKey = true;
+            return previous;
+        }
+        int slot = slot(key);
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                long previous = values[slot];
+                if (replace)
+                    values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++tableSize >= resizeAt)
+            rehash(keys.length * 2);
+        return NO_VALUE;
+    }
+    
+    /**
+     * Removes a key.
+     * @param key the key to remove.
+     * @return the value of the key, or NO_VALUE if the key was not in the map.
+     */
+    public long remove(long key) {
+        if (key == 0) {
+            long previous = hasZeroKey ? zeroValue : NO_VALUE;
+            hasZeroKey = false;
+            return previous;
+        }
+        int slot = slot(key);
+        for (; keys[slot] != key; slot = (slot + 1) & mask) {
+            if (keys[slot] == 0)
+                return NO_VALUE;
+        }
+        long previous = values[slot];
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) { //Shift back the rest of the run.
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) { //The entry may move into the gap.
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = 0;
+        tableSize--;
+        return previous;
+    }
+    
+    /**
+     * Returns the amount of entries in the map.
+     * @return the amount of entries.
+     */
+    public int size() {
+        return tableSize + (hasZeroKey ? 1 : 0);
+    }
+    
+    /**
+     * Removes every entry, keeping the capacity.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        tableSize = 0;
+        hasZeroKey = false;
+    }
+    
+    /**
+     * Returns the home slot of a key.
+     */
+    private int slot(long key) {
+        return (int) BitBoard.mix(key) & mask;
+    }
+    
+    /**
+     * Moves every entry to a table of a new capacity.
+     */
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0)
+                continue;
+            int slot = slot(oldKeys[i]);
+            while (keys[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+    
+    /**
+     * Allocates an empty table. The entries of the map must be reinserted.
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        resizeAt = capacity / 4 * 3;
+    }
+}
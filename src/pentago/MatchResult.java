@@ -0,0 +1,183 @@
+package pentago;
+
+import java.util.Arrays;
+
+/**
+ * The results of a match between two engines, from the point of view of the first engine.
+ * Collects win/draw/loss counts, search counters and per move latencies of both engines.
+ * - Thread safe. Games played on different threads may be added concurrently.
+ */
+public class MatchResult {
+    
+    /** The z value of a 95% confidence interval. */
+    private static final double Z_95 = 1.959964;
+    
+    /** The names of both engines. */
+    private final String[] names;
+    
+    /** Wins, draws and losses of the first engine. */
+    private int wins, draws, losses;
+    
+    /** The search counters of each engine. */
+    private final SearchStats[] stats = {new SearchStats(), new SearchStats()};
+    
+    /** The move latencies of each engine in nanoseconds. Only the first latencyCounts[i] entries are valid. */
+    private final long[][] latencies = {new long[256], new long[256]};
+    
+    /** The amount of latencies recorded for each engine. */
+    private final int[] latencyCounts = {0, 0};
+    
+    /** The CPU time of the moves of each engine in nanoseconds. */
+    private final long[] cpuNanos = {0, 0};
+    
+    /**
+     * Creates an empty match result.
+     * @param firstName the name of the first engine.
+     * @param secondName the name of the second engine.
+     */
+    public MatchResult(String firstName, String secondName) {
+        names = new String[] {firstName, secondName};
+    }
+    
+    /**
+     * Adds a finished game.
+     * @param outcome 1 if the first engine won, 0 for a draw, -1 if the first engine lost.
+     */
+    public synchronized void addGame(int outcome) {
+        if (outcome > 0)
+            wins++;
+        else if (outcome < 0)
+            losses++;
+        else
+            draws++;
+    }
+    
+    /**
+     * Adds a move made by one of the engines.
+     * @param engine 0 for the first engine, 1 for the second.
+     * @param nanos the time taken to choose the move.
+     * @param cpuNanos the CPU time of the thread which chose the move.
+     * @param moveStats the search counters of the move.
+     */
+    public synchronized void addMove(int engine, long nanos, long cpuNanos, SearchStats moveStats) {
+        if (latencyCounts[engine] == latencies[engine].length)
+            latencies[engine] = Arrays.copyOf(latencies[engine], latencies[engine].length * 2);
+        latencies[engine][latencyCounts[engine]++] = nanos;
+        this.cpuNanos[engine] += cpuNanos;
+        stats[engine].add(moveStats);
+    }
+    
+    /**
+     * Returns the score of the first engine: (wins + draws / 2) / games.
+     * @return the score of the first engine, 0.5 if no games have been played.
+     */
+    public synchronized double getScore() {
+        int games = getGames();
+        return games == 0 ? 0.5 : (wins + draws * 0.5) / games;
+    }
+    
+    /**
+     * Returns the Elo difference of the first engine over the second implied by the score.
+     * @return the Elo difference.
+     */
+    public synchronized double getEloDifference() {
+        return toElo(getScore());
+    }
+    
+    /**
+     * Returns the 95% confidence interval of the Elo difference, using the trinomial variance of the game results.
+     * @return the lower and upper bound of the Elo difference.
+     */
+    public synchronized double[] getEloInterval() {
+        int games = getGames();
+        if (games == 0)
+            return new double[] {Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double score = getScore();
+        double variance = (wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2) + losses * Math.pow(score, 2)) / games;
+        double error = Math.sqrt(variance / games);
+        return new double[] {toElo(score - Z_95 * error), toElo(score + Z_95 * error)};
+    }
+    
+    /**
+     * Converts a score to an Elo difference. Scores are clamped away from 0 and 1.
+     * @param score the score.
+     * @return the Elo difference.
+     */
+    private static double toElo(double score) {
+        score = Math.min(Math.max(score, 1e-4), 1 - 1e-4);
+        return -400 * Math.log10(1 / score - 1);
+    }
+    
+    /**
+     * Returns a percentile of the move latencies of an engine.
+     * @param engine 0 for the first engine, 1 for the second.
+     * @param percentile the percentile (0 - 100).
+     * @return the latency in nanoseconds, 0 if the engine has not moved.
+     */
+    public synchronized long getLatencyPercentile(int engine, double percentile) {
+        int count = latencyCounts[engine];
+        if (count == 0)
+            return 0;
+        long[] sorted = Arrays.copyOf(latencies[engine], count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.min(Math.max(index, 0), count - 1)];
+    }
+    
+    /**
+     * Returns the average CPU time per move of an engine.
+     * @param engine 0 for the first engine, 1 for the second.
+     * @return the CPU time in nanoseconds, 0 if the engine has not moved.
+     */
+    public synchronized double getCpuNanosPerMove(int engine) {
+        return latencyCounts[engine] == 0 ? 0 : (double) cpuNanos[engine] / latencyCounts[engine];
+    }
+    
+    /**
+     * Returns the amount of moves made by an engine.
+     * @param engine 0 for the first engine, 1 for the second.
+     * @return the amount of moves.
+     */
+    public synchronized int getMoves(int engine) {
+        return latencyCounts[engine];
+    }
+    
+    public synchronized int getGames() {
+        return wins + draws + losses;
+    }
+    
+    public synchronized int getWins() {
+        return wins;
+    }
+    
+    public synchronized int getDraws() {
+        return draws;
+    }
+    
+    public synchronized int getLosses() {
+        return losses;
+    }
+    
+    public synchronized SearchStats getStats(int engine) {
+        return stats[engine];
+    }
+    
+    /**
+     * Returns a multi line report of the match.
+     * @return the report.
+     */
+    public synchronized String report() {
+        double[] interval = getEloInterval();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%s vs %s: +%d =%d -%d (%d games), score %.3f%n", names[0], names[1], wins, draws,
+                losses, getGames(), getScore()));
+        report.append(String.format("Elo difference: %+.1f (95%% CI %+.1f to %+.1f)%n", getEloDifference(), interval[0], interval[1]));
+        for (int engine = 0; engine < 2; engine++) {
+            report.append(String.format("%s: %d moves, %.0f nodes/s, cpu ms/move %.2f, latency ms p50 %.2f p90 %.2f p99 %.2f max %.2f%n",
+                    names[engine], latencyCounts[engine], stats[engine].getNodesPerSecond(), getCpuNanosPerMove(engine) / 1e6,
+                    getLatencyPercentile(engine, 50) / 1e6, getLatencyPercentile(engine, 90) / 1e6,
+                    getLatencyPercentile(engine, 99) / 1e6, getLatencyPercentile(engine, 100) / 1e6));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,394 @@
+package pentago;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+/**
+ * Headless runner which plays games between two engine configurations, without any console input or output.
+ * Games are played concurrently on a thread pool. Games are played in pairs: both games of a pair start with the
+ * same random opening moves, with the engines swapping tokens. Which token moves first alternates between pairs.
+ * Each pair gets an opening no other pair has (up to symmetry), as far as the amount of random moves allows.
+ * Usage: java pentago.MatchRunner [--games N] [--threads N] [--seed N] [--random-plies N] [--first spec] [--second spec]
+ *                                  [--record archive]
+ * - See EngineConfig.parse for the engine spec format, e.g. depth=2,eval=basic,pruning=true,time=500
+ * - --record appends every game to a game record archive, e.g. self-play games to train NeuralTrainer on.
+ */
+public class MatchRunner {
+    
+    /** The configuration of the first engine. */
+    private final EngineConfig first;
+    
+    /** The configuration of the second engine. */
+    private final EngineConfig second;
+    
+    /** The amount of games to play. */
+    private final int games;
+    
+    /** The amount of threads to play games on. */
+    private final int threads;
+    
+    /** The seed of the random opening moves. */
+    private final long seed;
+    
+    /** The amount of random moves at the start of each game. */
+    private final int randomPlies;
+    
+    /** The most openings drawn for a pair while looking for one no other pair has. */
+    private static final int OPENING_ATTEMPTS = 100;
+    
+    /** The archive finished games are appended to, or null. Games are written whole, under its lock. */
+    private GameRecordWriter record;
+    
+    /**
+     * Creates a match runner.
+     * @param first the configuration of the first engine.
+     * @param second the configuration of the second engine.
+     * @param games the amount of games to play.
+     * @param threads the amount of threads to play games on.
+     * @param seed the seed of the random opening moves.
+     * @param randomPlies the amount of random moves at the start of each game.
+     */
+    public MatchRunner(EngineConfig first, EngineConfig second, int games, int threads, long seed, int randomPlies) {
+        this.first = first;
+        this.second = second;
+        this.games = games;
+        this.threads = threads;
+        this.seed = seed;
+        this.randomPlies = randomPlies;
+    }
+    
+    /**
+     * Sets the archive every game is appended to when it ends (see GameRecordWriter). 
+     * @param record the archive writer, or null to not record the games. 
+     */
+    public void setRecord(GameRecordWriter record) {
+        this.record = record;
+    }
+    
+    /**
+     * Plays the match.
+     * @return the results of the match.
+     */
+    public MatchResult run() throws InterruptedException, ExecutionException {
+        MatchResult result = new MatchResult(first.getName(), second.getName());
+        List<String[]> openings = drawOpenings();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < games; i++) {
+                int game = i;
+                futures.add(pool.submit(() -> playGame(game, openings.get(game / 2), result)));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            pool.shutdownNow();
+        }
+        return result;
+    }
+    
+    /**
+     * Draws the random opening moves of each pair of games. An opening which transposes to the opening of an earlier 
+     * pair (up to symmetry) is drawn again, up to OPENING_ATTEMPTS times. 
+     * @return the opening moves of each pair, at most randomPlies moves (fewer if a random move ends the game).
+     */
+    private List<String[]> drawOpenings() {
+        List<String[]> openings = new ArrayList<String[]>();
+        LongLongHashMap seen = new LongLongHashMap(games / 2 + 1); //Canonical hash -> pair which played the opening.
+        for (int pair = 0; pair < (games + 1) / 2; pair++) {
+            Random random = new Random(seed + pair);
+            String[] opening;
+            int attempt = 0;
+            do {
+                opening = randomOpening(pair % 2 == 0 ? 'b' : 'w', random);
+            } while (randomPlies > 0 && ++attempt < OPENING_ATTEMPTS 
+                    && seen.putIfAbsent(canonicalHash(opening, pair % 2 == 0 ? 'b' : 'w'), pair) != LongLongHashMap.NO_VALUE);
+            openings.add(opening);
+        }
+        return openings;
+    }
+    
+    /**
+     * Plays random moves from the initial state. 
+     * @param token the token which moves first. 
+     * @param random the random number generator to use. 
+     * @return the moves, randomPlies or until a move ends the game. 
+     */
+    private String[] randomOpening(char token, Random random) {
+        ArrayList<String> moves = new ArrayList<String>();
+        char[][] state = GameState.initialState;
+        char winner = 'n';
+        while (moves.size() < randomPlies && winner == 'n' && GameState.canMakeMove(state)) {
+            String args = randomMove(state, random);
+            moves.add(args);
+            state = GameState.alter(state, token, args);
+            winner = GameState.isWinningMove(state, args);
+            token = token == 'b' ? 'w' : 'b';
+        }
+        return moves.toArray(new String[0]);
+    }
+    
+    /**
+     * Hashes the position reached by an opening, the same for every symmetry of the position. 
+     * @param opening the moves of the opening. 
+     * @param token the token which moves first. 
+     * @return the smallest hash of the symmetries of the position. 
+     */
+    private static long canonicalHash(String[] opening, char token) {
+        char[][] state = GameState.initialState;
+        for (String args : opening) {
+            state = GameState.alter(state, token, args);
+            token = token == 'b' ? 'w' : 'b';
+        }
+        long black = BitBoard.fromState(state, 'b');
+        long white = BitBoard.fromState(state, 'w');
+        long hash = Long.MAX_VALUE;
+        for (int symmetry = 0; symmetry < BitBoard.SYMMETRIES; symmetry++)
+            hash = Math.min(hash, BitBoard.hash(BitBoard.transform(black, symmetry), BitBoard.transform(white, symmetry), token));
+        return hash;
+    }
+    
+    /**
+     * Plays a single game and adds it to the result.
+     * @param game the number of the game.
+     * @param opening the random opening moves of the game's pair.
+     * @param result the match result to add the game to.
+     */
+    private void playGame(int game, String[] opening, MatchResult result) {
+        int pair = game / 2;
+        char firstEngineToken = game % 2 == 0 ? 'b' : 'w';
+        char token = pair % 2 == 0 ? 'b' : 'w';
+        char firstToken = token;
+        String[] moves = new String[BitBoard.CELLS];
+        Random random = new Random(seed + pair);
+        EngineConfig[] engines = {first, second};
+        UtilityFunction[] functions = {first.createEvaluationFunction(), second.createEvaluationFunction()};
+        TimeManager[] clocks = {first.createTimeManager(), second.createTimeManager()};
+        char[][] state = GameState.initialState;
+        int ply = 0;
+        char winner = 'n';
+        while (winner == 'n' && GameState.canMakeMove(state)) {
+            String args;
+            if (ply < opening.length) {
+                args = opening[ply];
+            } else {
+                int engine = token == firstEngineToken ? 0 : 1;
+                SearchStats moveStats = new SearchStats();
+                long start = System.nanoTime();
+                long cpuStart = threadCpuTime();
+                args = chooseMove(engines[engine], functions[engine], clocks[engine], random, state, token, moveStats);
+                result.addMove(engine, System.nanoTime() - start, threadCpuTime() - cpuStart, moveStats);
+            }
+            moves[ply] = args;
+            state = GameState.alter(state, token, args);
+            winner = GameState.isWinningMove(state, args); //Only the lines touched by the move can have changed. 
+            token = token == 'b' ? 'w' : 'b';
+            ply++;
+        }
+        if (record != null)
+            recordGame(firstToken, moves, ply, winner);
+        if (winner == firstEngineToken)
+            result.addGame(1);
+        else if (winner == 'b' || winner == 'w')
+            result.addGame(-1);
+        else
+            result.addGame(0);
+    }
+    
+    /**
+     * Appends a finished game to the archive. 
+     * @param firstToken the token which moved first. 
+     * @param moves the arguments of the moves. 
+     * @param count the amount of moves. 
+     * @param winner the result of the game (see GameState.isWinningState). 
+     */
+    private void recordGame(char firstToken, String[] moves, int count, char winner) {
+        synchronized (record) {
+            try {
+                record.startGame(firstToken);
+                for (int i = 0; i < count; i++)
+                    record.recordMove(moves[i]);
+                record.endGame(winner);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+    
+    /**
+     * Chooses the move of an engine. With a time budget, the engine deepens one level at a time and stops when the
+     * next level is not expected to finish within the budget.
+     * @param engine the configuration of the engine.
+     * @param function the evaluation function of the engine.
+     * @param state the state to move in.
+     * @param token the token of the engine.
+     * @param moveStats the stats to add the search counters to.
+     * @return the arguments of the chosen move.
+     */
+    static String chooseMove(EngineConfig engine, UtilityFunction function, char[][] state, char token, SearchStats moveStats) {
+        return chooseMove(engine, function, null, ThreadLocalRandom.current(), state, token, moveStats);
+    }
+    
+    /**
+     * Chooses the move of an engine. With a difficulty level, the level chooses the move (see Difficulty). With a 
+     * game clock, the engine deepens one level at a time until the time manager ends the move (see TimeManager), 
+     * else as chooseMove without a clock.
+     * @param engine the configuration of the engine.
+     * @param function the evaluation function of the engine.
+     * @param clock the time manager of the engine's game clock, or null.
+     * @param random the random number generator the difficulty level chooses with.
+     * @param state the state to move in.
+     * @param token the token of the engine.
+     * @param moveStats the stats to add the search counters to.
+     * @return the arguments of the chosen move.
+     */
+    static String chooseMove(EngineConfig engine, UtilityFunction function, TimeManager clock, Random random, char[][] state, char token, 
+            SearchStats moveStats) {
+        if (engine.getDifficulty() != null)
+            return engine.getDifficulty().chooseMove(state, token, function, random, moveStats);
+        if (clock != null) {
+            GameTree tree = new GameTree(state, token, engine.getLookAhead(), function, engine.isAlphaBetaPruning());
+            tree.setStreaming(engine.isStreaming());
+            tree.setMemoryBudget(engine.getMemoryBudget());
+            tree.setTimeManager(clock);
+            String best = tree.getNext().getArgs();
+            moveStats.add(tree.getStats());
+            return best;
+        }
+        GameTreeNode best = deepen(engine, function, state, token, null, (tree, choice) -> {
+            moveStats.add(tree.getStats());
+            return true;
+        });
+        return best.getArgs();
+    }
+    
+    /**
+     * Searches a state with the look ahead of an engine. With a time budget, the look ahead is deepened one level 
+     * at a time from 1, while the next level is expected to finish within the budget. Deepening also stops when 
+     * the memory budget of the tree cut a level short, as deeper levels would be cut at the same depth. 
+     * @param engine the configuration of the engine.
+     * @param function the evaluation function of the engine.
+     * @param state the state to search.
+     * @param token the token to move.
+     * @param setup sets the options of the tree of each level before it is searched, or null.
+     * @param level receives the tree of each searched level and its choice, and returns false to stop deepening.
+     * @return the choice of the last searched level.
+     */
+    static GameTreeNode deepen(EngineConfig engine, UtilityFunction function, char[][] state, char token, Consumer<GameTree> setup, 
+            BiPredicate<GameTree, GameTreeNode> level) {
+        long budget = engine.getTimeBudgetMillis() * 1000000;
+        int startDepth = budget == 0 ? engine.getLookAhead() : 1;
+        long start = System.nanoTime();
+        GameTreeNode choice = null;
+        for (int depth = startDepth; depth <= engine.getLookAhead(); depth++) {
+            long iterationStart = System.nanoTime();
+            GameTree tree = new GameTree(state, token, depth, function, engine.isAlphaBetaPruning());
+            tree.setStreaming(engine.isStreaming());
+            tree.setMemoryBudget(engine.getMemoryBudget());
+            if (setup != null)
+                setup.accept(tree);
+            choice = tree.getNext();
+            if (!level.test(tree, choice) || tree.getSearchedDepth() < depth)
+                break;
+            long now = System.nanoTime();
+            long branching = GameState.countEmpty(state) * 8L;
+            if (budget > 0 && now - start + (now - iterationStart) * branching > budget) //The next level would not finish in time.
+                break;
+        }
+        return choice;
+    }
+    
+    /**
+     * Returns the CPU time of the current thread, so moves are charged only for their own work when games are played 
+     * concurrently.
+     * @return the CPU time in nanoseconds, or 0 if the JVM does not measure it.
+     */
+    private static long threadCpuTime() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+    }
+    
+    /**
+     * Chooses a random legal move.
+     * @param state the state to move in.
+     * @param random the random number generator to use.
+     * @return the arguments of the move.
+     */
+    static String randomMove(char[][] state, Random random) {
+        int move;
+        do {
+            move = random.nextInt(BitBoard.MOVES);
+        } while (state[BitBoard.cell(move) / 6][BitBoard.cell(move) % 6] != '.');
+        return BitBoard.toArgs(move);
+    }
+    
+    /**
+     * Runs a match and prints the report.
+     * @param args the options described in the class documentation.
+     */
+    public static void main(String[] args) throws Exception {
+        int games = 100;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        int randomPlies = 2;
+        EngineConfig first = EngineConfig.parse("depth=1", "first");
+        EngineConfig second = EngineConfig.parse("depth=1,eval=basic", "second");
+        String recordPath = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--games":
+                    games = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--random-plies":
+                    randomPlies = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--first":
+                    first = EngineConfig.parse(args[i + 1], "first");
+                    break;
+                case "--second":
+                    second = EngineConfig.parse(args[i + 1], "second");
+                    break;
+                case "--record":
+                    recordPath = args[i + 1];
+                    break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+        System.out.println("First: " + first);
+        System.out.println("Second: " + second);
+        long start = System.currentTimeMillis();
+        MatchRunner runner = new MatchRunner(first, second, games, threads, seed, randomPlies);
+        MatchResult result;
+        if (recordPath == null) {
+            result = runner.run();
+        } else {
+            try (GameRecordWriter record = new GameRecordWriter(Paths.get(recordPath))) {
+                runner.setRecord(record);
+                result = runner.run();
+            }
+        }
+        System.out.print(result.report());
+        System.out.println("Finished in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+}
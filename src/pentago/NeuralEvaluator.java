@@ -0,0 +1,229 @@
+package pentago;
+
+/**
+ * Evaluation function which scores leaves with a neural network trained on self-play games (see NeuralNetwork and
+ * NeuralTrainer), instead of counting open lines. Use it in place of UtilityFunction, e.g. with eval=neural:<file>
+ * in an engine spec.
+ * - Scores are black minus white, like those of UtilityFunction: the network's score of the token to move, negated
+ *   for minimizer nodes. A five of either token scores as a win for it, and a five of both as 0.
+ * - Each thread keeps the accumulators of the last position it scored, and updates them with only the cells which
+ *   differ from the next position. Consecutive leaves of a search are siblings or cousins, which differ by a few
+ *   cells, so most leaves cost a few accumulator updates instead of one per token.
+ * - The score does not depend on the parent, so leaves are cached with the keys of the basic evaluation function.
+ */
+public class NeuralEvaluator extends UtilityFunction {
+    
+    /** The amount of rotations of a board: 4 blocks, 2 directions (see BitBoard.rotate). */
+    private static final int ROTATIONS = 8;
+    
+    /** The weights of the network. */
+    private final NeuralNetwork network;
+    
+    /** The accumulators of the last position scored by each thread. */
+    private final ThreadLocal<Accumulators> accumulators;
+    
+    /**
+     * Creates a neural evaluation function.
+     * @param network the weights of the network, which may be shared by functions.
+     */
+    public NeuralEvaluator(NeuralNetwork network) {
+        this.network = network;
+        accumulators = ThreadLocal.withInitial(() -> new Accumulators(network.getHidden()));
+    }
+    
+    /**
+     * Evaluates a node. The parent does not change the score.
+     * @param originalState the state of the parent, not used.
+     * @param toEvaluate the node to evaluate.
+     */
+    @Override
+    public void evaluate(char[][] originalState, GameTreeNode toEvaluate) {
+        evaluate(toEvaluate);
+    }
+    
+    /**
+     * Evaluates a node.
+     * @param toEvaluate the node to evaluate.
+     */
+    @Override
+    public void evaluate(GameTreeNode toEvaluate) {
+        char[][] state = toEvaluate.getState();
+        long black = BitBoard.fromState(state, 'b');
+        long white = BitBoard.fromState(state, 'w');
+        EvaluationCache cache = getEvaluationCache();
+        long key = 0;
+        if (cache != null) {
+            key = EvaluationCache.key(black, white, toEvaluate.getToken(), toEvaluate.isMaximizer());
+            long score = cache.probe(key);
+            if (score != Long.MIN_VALUE) {
+                toEvaluate.setScore((int) score);
+                return;
+            }
+        }
+        toEvaluate.setScore(score(black, white, toEvaluate.getToken(), toEvaluate.isMaximizer()));
+        if (cache != null)
+            cache.store(key, toEvaluate.getScore());
+    }
+    
+    /**
+     * Evaluates sibling leaves (see UtilityFunction.evaluateBatch). A child is its parent with a block rotated and
+     * one token added, so the children are scored grouped by the rotation of their parent they contain: within a
+     * group, consecutive children differ by two cells.
+     * @param originalState the state of the parent.
+     * @param black the b tokens of each child.
+     * @param white the w tokens of each child.
+     * @param count the amount of children.
+     * @param token the token of the children.
+     * @param maximizer true if the children are maximizer nodes.
+     * @param scores receives the score of each child.
+     */
+    @Override
+    public void evaluateBatch(char[][] originalState, long[] black, long[] white, int count, char token, boolean maximizer, int[] scores) {
+        EvaluationCache cache = getEvaluationCache();
+        Accumulators current = accumulators.get();
+        for (int child : orderByRotation(originalState, black, white, count)) {
+            if (cache == null) {
+                scores[child] = score(current, black[child], white[child], token, maximizer);
+                continue;
+            }
+            long key = EvaluationCache.key(black[child], white[child], token, maximizer);
+            long score = cache.probe(key);
+            if (score != Long.MIN_VALUE) {
+                scores[child] = (int) score;
+            } else {
+                scores[child] = score(current, black[child], white[child], token, maximizer);
+                cache.store(key, scores[child]);
+            }
+        }
+    }
+    
+    /**
+     * Orders children by the rotation of the parent they contain (the rotated parent plus one token), children which
+     * contain no rotation of the parent last.
+     * @return the indexes of the children, in order.
+     */
+    private static int[] orderByRotation(char[][] parentState, long[] black, long[] white, int count) {
+        long parentBlack = BitBoard.fromState(parentState, 'b');
+        long parentWhite = BitBoard.fromState(parentState, 'w');
+        long[] rotatedBlack = new long[ROTATIONS];
+        long[] rotatedWhite = new long[ROTATIONS];
+        for (int rotation = 0; rotation < ROTATIONS; rotation++) {
+            rotatedBlack[rotation] = BitBoard.rotate(parentBlack, rotation >> 1, rotation & 1);
+            rotatedWhite[rotation] = BitBoard.rotate(parentWhite, rotation >> 1, rotation & 1);
+        }
+        int[] groups = new int[count];
+        int[] starts = new int[ROTATIONS + 2];
+        for (int i = 0; i < count; i++) {
+            int group = ROTATIONS;
+            for (int rotation = 0; rotation < ROTATIONS; rotation++) {
+                if ((rotatedBlack[rotation] & ~black[i]) == 0 && (rotatedWhite[rotation] & ~white[i]) == 0
+                        && Long.bitCount((black[i] | white[i]) ^ (rotatedBlack[rotation] | rotatedWhite[rotation])) == 1) {
+                    group = rotation;
+                    break;
+                }
+            }
+            groups[i] = group;
+            starts[group + 1]++;
+        }
+        for (int group = 1; group < starts.length; group++) //Counting sort: starts[group] becomes the first index of the group.
+            starts[group] += starts[group - 1];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++)
+            order[starts[groups[i]]++] = i;
+        return order;
+    }
+    
+    /**
+     * Scores a position.
+     * @param black the b tokens.
+     * @param white the w tokens.
+     * @param token the token to move.
+     * @param maximizer true if the position is a maximizer node.
+     * @return the score, black minus white.
+     */
+    public int score(long black, long white, char token, boolean maximizer) {
+        return score(accumulators.get(), black, white, token, maximizer);
+    }
+    
+    /**
+     * Scores a position, moving the accumulators of the current thread to it.
+     */
+    private int score(Accumulators current, long black, long white, char token, boolean maximizer) {
+        char winner = GameState.isWinningState(black, white);
+        if (winner == 't')
+            return 0;
+        if (winner != 'n')
+            return (winner == token) == maximizer ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        current.update(network, black, white);
+        int score = token == 'b' ? network.score(current.black, current.white) : network.score(current.white, current.black);
+        return maximizer ? score : -score;
+    }
+    
+    /**
+     * Returns the weights of the network.
+     * @return the network.
+     */
+    public NeuralNetwork getNetwork() {
+        return network;
+    }
+    
+    /**
+     * The accumulators of a position, from the perspective of each token.
+     */
+    private static final class Accumulators {
+        
+        /** The accumulator from b's perspective. */
+        private final short[] black;
+        
+        /** The accumulator from w's perspective. */
+        private final short[] white;
+        
+        /** The b tokens of the position. */
+        private long blackTokens;
+        
+        /** The w tokens of the position. */
+        private long whiteTokens;
+        
+        /** Indicates if the accumulators hold a position. */
+        private boolean valid;
+        
+        private Accumulators(int hidden) {
+            black = new short[hidden];
+            white = new short[hidden];
+        }
+        
+        /**
+         * Moves the accumulators to a position: cell by cell from the current position if few cells differ,
+         * otherwise by summing the tokens of the position.
+         */
+        private void update(NeuralNetwork network, long newBlack, long newWhite) {
+            long changed = (blackTokens ^ newBlack) | (whiteTokens ^ newWhite);
+            if (!valid || 2 * Long.bitCount(changed) > Long.bitCount(newBlack | newWhite)) { //A cell can take two updates.
+                network.refresh(black, newBlack, newWhite);
+                network.refresh(white, newWhite, newBlack);
+            } else {
+                for (long bits = changed; bits != 0; bits &= bits - 1) {
+                    int cell = Long.numberOfTrailingZeros(bits);
+                    long mask = 1L << cell;
+                    if ((blackTokens & mask) != 0) {
+                        network.subtract(black, cell);
+                        network.subtract(white, BitBoard.CELLS + cell);
+                    } else if ((whiteTokens & mask) != 0) {
+                        network.subtract(white, cell);
+                        network.subtract(black, BitBoard.CELLS + cell);
+                    }
+                    if ((newBlack & mask) != 0) {
+                        network.add(black, cell);
+                        network.add(white, BitBoard.CELLS + cell);
+                    } else if ((newWhite & mask) != 0) {
+                        network.add(white, cell);
+                        network.add(black, BitBoard.CELLS + cell);
+                    }
+                }
+            }
+            blackTokens = newBlack;
+            whiteTokens = newWhite;
+            valid = true;
+        }
+    }
+}
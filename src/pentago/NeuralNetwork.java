@@ -0,0 +1,219 @@
+package pentago;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Quantized weights of the neural evaluation function (see NeuralEvaluator), trained offline by NeuralTrainer.
+ * The network has two layers:
+ * - A feature layer, which sums a column of weights per token on the board into an accumulator of hidden values.
+ *   The features of a token are relative to a perspective: feature cell for a token of the perspective, feature
+ *   CELLS + cell for a token of the other. Each position has an accumulator per token, and as features are only
+ *   summed, an accumulator is updated by the tokens a move changes instead of being summed again (see add).
+ * - An output layer, which scores the clipped accumulators of the token to move and of the other token as the
+ *   logit of the probability that the token to move wins, in SCORE_SCALE units.
+ * Weights are 16 bit integers. Accumulators are in ACTIVATION_SCALE units, clipped to [0, ACTIVATION_SCALE], and
+ * output weights are in OUTPUT_SCALE units. Feature weights are limited to MAX_WEIGHT, so an accumulator of a full
+ * board cannot overflow.
+ * File format (big endian):
+ *  int   magic (MAGIC)
+ *  int   hidden size H
+ *  short feature weights, FEATURES * H, by feature then hidden value
+ *  short feature biases, H
+ *  short output weights, 2 * H, the token to move's first
+ *  int   output bias, in ACTIVATION_SCALE * OUTPUT_SCALE units
+ */
+public final class NeuralNetwork {
+    
+    /** The magic number at the start of every weights file ("PNN1"). */
+    public static final int MAGIC = 0x504E4E31;
+    
+    /** The amount of features of a perspective: a token of the perspective or of the other token, per cell. */
+    public static final int FEATURES = 2 * BitBoard.CELLS;
+    
+    /** The value of a fully active hidden value, the top of the clipped accumulator. */
+    public static final int ACTIVATION_SCALE = 127;
+    
+    /** The value of an output weight of 1. */
+    public static final int OUTPUT_SCALE = 64;
+    
+    /** The score of a logit of 1. Scores are in the same range as those of UtilityFunction. */
+    public static final int SCORE_SCALE = 16;
+    
+    /** The largest feature weight or bias, so that a bias plus one weight per cell fits in a short. */
+    public static final int MAX_WEIGHT = Short.MAX_VALUE / (BitBoard.CELLS + 1);
+    
+    /** The amount of hidden values of an accumulator. */
+    private final int hidden;
+    
+    /** The feature weights, hidden values of a feature consecutive. */
+    private final short[] featureWeights;
+    
+    /** The initial value of an accumulator. */
+    private final short[] featureBias;
+    
+    /** The output weights, of the token to move's accumulator then of the other token's. */
+    private final short[] outputWeights;
+    
+    /** The output bias. */
+    private final int outputBias;
+    
+    /**
+     * Creates a network from quantized weights.
+     * @param hidden the amount of hidden values of an accumulator.
+     * @param featureWeights the feature weights, FEATURES * hidden.
+     * @param featureBias the feature biases, hidden.
+     * @param outputWeights the output weights, 2 * hidden.
+     * @param outputBias the output bias.
+     * @throws IllegalArgumentException if the sizes do not match, or a feature weight is larger than MAX_WEIGHT.
+     */
+    public NeuralNetwork(int hidden, short[] featureWeights, short[] featureBias, short[] outputWeights, int outputBias) {
+        if (hidden < 1 || featureWeights.length != FEATURES * hidden || featureBias.length != hidden || outputWeights.length != 2 * hidden)
+            throw new IllegalArgumentException("Weights do not match a hidden size of " + hidden);
+        for (short weight : featureWeights) {
+            if (Math.abs(weight) > MAX_WEIGHT)
+                throw new IllegalArgumentException("Feature weight out of range: " + weight);
+        }
+        for (short bias : featureBias) {
+            if (Math.abs(bias) > MAX_WEIGHT)
+                throw new IllegalArgumentException("Feature bias out of range: " + bias);
+        }
+        this.hidden = hidden;
+        this.featureWeights = featureWeights;
+        this.featureBias = featureBias;
+        this.outputWeights = outputWeights;
+        this.outputBias = outputBias;
+    }
+    
+    /**
+     * Loads a weights file.
+     * @param path the path of the file.
+     * @return the network.
+     * @throws IOException if the file cannot be read or is not a weights file.
+     */
+    public static NeuralNetwork load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a weights file: " + path);
+            int hidden = in.readInt();
+            if (hidden < 1 || hidden > 1 << 16)
+                throw new IOException("Invalid hidden size " + hidden + ": " + path);
+            short[] featureWeights = readShorts(in, FEATURES * hidden);
+            short[] featureBias = readShorts(in, hidden);
+            short[] outputWeights = readShorts(in, 2 * hidden);
+            int outputBias = in.readInt();
+            try {
+                return new NeuralNetwork(hidden, featureWeights, featureBias, outputWeights, outputBias);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage() + ": " + path);
+            }
+        }
+    }
+    
+    /**
+     * Saves the network to a weights file.
+     * @param path the path of the file, replaced if it exists.
+     */
+    public void save(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(hidden);
+            for (short weight : featureWeights)
+                out.writeShort(weight);
+            for (short bias : featureBias)
+                out.writeShort(bias);
+            for (short weight : outputWeights)
+                out.writeShort(weight);
+            out.writeInt(outputBias);
+        }
+    }
+    
+    /**
+     * Returns the amount of hidden values of an accumulator.
+     * @return the hidden size.
+     */
+    public int getHidden() {
+        return hidden;
+    }
+    
+    /**
+     * Sets an accumulator to the features of a position from a perspective.
+     * @param accumulator the accumulator, of the hidden size.
+     * @param mine the tokens of the perspective.
+     * @param theirs the tokens of the other token.
+     */
+    public void refresh(short[] accumulator, long mine, long theirs) {
+        System.arraycopy(featureBias, 0, accumulator, 0, hidden);
+        for (long bits = mine; bits != 0; bits &= bits - 1)
+            add(accumulator, Long.numberOfTrailingZeros(bits));
+        for (long bits = theirs; bits != 0; bits &= bits - 1)
+            add(accumulator, BitBoard.CELLS + Long.numberOfTrailingZeros(bits));
+    }
+    
+    /**
+     * Adds a feature to an accumulator. A simple loop over short arrays, which the JIT compiles to vector
+     * instructions where the CPU has them.
+     * @param accumulator the accumulator.
+     * @param feature the feature, from 0 to FEATURES - 1.
+     */
+    public void add(short[] accumulator, int feature) {
+        int offset = feature * hidden;
+        for (int i = 0; i < hidden; i++)
+            accumulator[i] += featureWeights[offset + i];
+    }
+    
+    /**
+     * Removes a feature from an accumulator (see add).
+     * @param accumulator the accumulator.
+     * @param feature the feature, from 0 to FEATURES - 1.
+     */
+    public void subtract(short[] accumulator, int feature) {
+        int offset = feature * hidden;
+        for (int i = 0; i < hidden; i++)
+            accumulator[i] -= featureWeights[offset + i];
+    }
+    
+    /**
+     * Scores a position from its accumulators.
+     * @param toMove the accumulator of the token to move.
+     * @param other the accumulator of the other token.
+     * @return the logit of the probability that the token to move wins, in SCORE_SCALE units.
+     */
+    public int score(short[] toMove, short[] other) {
+        int sum = 0;
+        for (int i = 0; i < hidden; i++)
+            sum += Math.min(Math.max(toMove[i], 0), ACTIVATION_SCALE) * outputWeights[i];
+        for (int i = 0; i < hidden; i++)
+            sum += Math.min(Math.max(other[i], 0), ACTIVATION_SCALE) * outputWeights[hidden + i];
+        return (int) ((long) (sum + outputBias) * SCORE_SCALE / (ACTIVATION_SCALE * OUTPUT_SCALE));
+    }
+    
+    /**
+     * Scores a position without accumulators, summing every feature.
+     * @param mine the tokens of the token to move.
+     * @param theirs the tokens of the other token.
+     * @return the score (see score(short[], short[])).
+     */
+    public int score(long mine, long theirs) {
+        short[] toMove = new short[hidden];
+        short[] other = new short[hidden];
+        refresh(toMove, mine, theirs);
+        refresh(other, theirs, mine);
+        return score(toMove, other);
+    }
+    
+    /**
+     * Reads an array of shorts.
+     */
+    private static short[] readShorts(DataInputStream in, int count) throws IOException {
+        short[] values = new short[count];
+        for (int i = 0; i < count; i++)
+            values[i] = in.readShort();
+        return values;
+    }
+}
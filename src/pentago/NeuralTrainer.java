@@ -0,0 +1,396 @@
+package pentago;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Trains the weights of the neural evaluation function (see NeuralNetwork) offline, from game record archives of
+ * self-play games (see MatchRunner --record).
+ * - Every position of every game is a sample, labelled with the result of its game for the token to move: 1 for a
+ *   win, 0 for a loss, 1/2 for a draw. Positions with five in a row are skipped, as they are scored as wins.
+ * - The network is trained in floating point with stochastic gradient descent on the cross entropy of its output
+ *   logit, each sample under a random symmetry of the board, then quantized to 16 bit weights.
+ * - The last games of the input are held out as a test set. The loss and accuracy (on decided games) of the test
+ *   set are reported after every epoch, and for the quantized network at the end.
+ * Usage: java pentago.NeuralTrainer [--hidden N] [--epochs N] [--rate R] [--seed N] [--test-games F] <weights file>
+ *                                   <archive> [archive ...]
+ * - --test-games is the fraction of games held out, 0.1 by default.
+ */
+public class NeuralTrainer {
+    
+    /** The amount of hidden values of an accumulator. */
+    private final int hidden;
+    
+    /** The feature weights, hidden values of a feature consecutive (see NeuralNetwork). */
+    private final float[] featureWeights;
+    
+    /** The feature biases. */
+    private final float[] featureBias;
+    
+    /** The output weights, of the token to move's accumulator then of the other token's. */
+    private final float[] outputWeights;
+    
+    /** The output bias. */
+    private float outputBias;
+    
+    /**
+     * Creates a trainer with randomly initialized weights.
+     * @param hidden the amount of hidden values of an accumulator.
+     * @param random the random number generator to initialize the weights with.
+     */
+    public NeuralTrainer(int hidden, Random random) {
+        this.hidden = hidden;
+        featureWeights = new float[NeuralNetwork.FEATURES * hidden];
+        featureBias = new float[hidden];
+        outputWeights = new float[2 * hidden];
+        for (int i = 0; i < featureWeights.length; i++)
+            featureWeights[i] = (random.nextFloat() - 0.5f) * 0.2f;
+        for (int i = 0; i < hidden; i++)
+            featureBias[i] = 0.5f; //Starts every hidden value inside the clipped range.
+        for (int i = 0; i < outputWeights.length; i++)
+            outputWeights[i] = (random.nextFloat() - 0.5f) * 0.2f;
+    }
+    
+    /**
+     * Trains the network on every sample once, in a random order.
+     * @param samples the samples.
+     * @param rate the learning rate.
+     * @param random the random number generator of the order and symmetries.
+     * @return the average loss of the samples before their update.
+     */
+    public double trainEpoch(Samples samples, float rate, Random random) {
+        int size = samples.size;
+        long[] black = samples.black;
+        long[] white = samples.white;
+        char[] tokens = samples.tokens;
+        float[] labels = samples.labels;
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        float[] toMove = new float[hidden];
+        float[] other = new float[hidden];
+        float[] toMoveGradient = new float[hidden];
+        float[] otherGradient = new float[hidden];
+        double loss = 0;
+        for (int sample : order) {
+            int symmetry = random.nextInt(BitBoard.SYMMETRIES);
+            long mine = BitBoard.transform(tokens[sample] == 'b' ? black[sample] : white[sample], symmetry);
+            long theirs = BitBoard.transform(tokens[sample] == 'b' ? white[sample] : black[sample], symmetry);
+            accumulate(toMove, mine, theirs);
+            accumulate(other, theirs, mine);
+            float output = output(toMove, other);
+            float probability = sigmoid(output);
+            loss += crossEntropy(probability, labels[sample]);
+            float gradient = probability - labels[sample]; //Of the cross entropy, by the logit.
+            for (int i = 0; i < hidden; i++) { //Through the clipped activations, before the output weights change.
+                toMoveGradient[i] = toMove[i] > 0 && toMove[i] < 1 ? gradient * outputWeights[i] : 0;
+                otherGradient[i] = other[i] > 0 && other[i] < 1 ? gradient * outputWeights[hidden + i] : 0;
+            }
+            for (int i = 0; i < hidden; i++) {
+                outputWeights[i] -= rate * gradient * clip(toMove[i]);
+                outputWeights[hidden + i] -= rate * gradient * clip(other[i]);
+                featureBias[i] -= rate * (toMoveGradient[i] + otherGradient[i]);
+            }
+            outputBias -= rate * gradient;
+            update(toMoveGradient, mine, theirs, rate); //Both accumulators share the feature weights.
+            update(otherGradient, theirs, mine, rate);
+        }
+        return size == 0 ? 0 : loss / size;
+    }
+    
+    /**
+     * Measures the network on every sample, without symmetries.
+     * @param samples the samples.
+     * @param quantized the quantized network to measure, or null to measure the floating point network.
+     * @return the average loss and the accuracy on samples of decided games.
+     */
+    public double[] test(Samples samples, NeuralNetwork quantized) {
+        int size = samples.size;
+        long[] black = samples.black;
+        long[] white = samples.white;
+        char[] tokens = samples.tokens;
+        float[] labels = samples.labels;
+        float[] toMove = new float[hidden];
+        float[] other = new float[hidden];
+        double loss = 0;
+        int decided = 0;
+        int correct = 0;
+        for (int sample = 0; sample < size; sample++) {
+            long mine = tokens[sample] == 'b' ? black[sample] : white[sample];
+            long theirs = tokens[sample] == 'b' ? white[sample] : black[sample];
+            float output;
+            if (quantized != null) {
+                output = (float) quantized.score(mine, theirs) / NeuralNetwork.SCORE_SCALE;
+            } else {
+                accumulate(toMove, mine, theirs);
+                accumulate(other, theirs, mine);
+                output = output(toMove, other);
+            }
+            float probability = sigmoid(output);
+            loss += crossEntropy(probability, labels[sample]);
+            if (labels[sample] != 0.5f) {
+                decided++;
+                if ((probability > 0.5f) == (labels[sample] == 1))
+                    correct++;
+            }
+        }
+        return new double[] {size == 0 ? 0 : loss / size, decided == 0 ? 0 : (double) correct / decided};
+    }
+    
+    /**
+     * Quantizes the network to 16 bit weights.
+     * @return the quantized network.
+     */
+    public NeuralNetwork quantize() {
+        short[] quantizedFeatures = new short[featureWeights.length];
+        for (int i = 0; i < featureWeights.length; i++)
+            quantizedFeatures[i] = quantize(featureWeights[i], NeuralNetwork.ACTIVATION_SCALE, NeuralNetwork.MAX_WEIGHT);
+        short[] quantizedBias = new short[hidden];
+        for (int i = 0; i < hidden; i++)
+            quantizedBias[i] = quantize(featureBias[i], NeuralNetwork.ACTIVATION_SCALE, NeuralNetwork.MAX_WEIGHT);
+        short[] quantizedOutput = new short[outputWeights.length];
+        for (int i = 0; i < outputWeights.length; i++)
+            quantizedOutput[i] = quantize(outputWeights[i], NeuralNetwork.OUTPUT_SCALE, Short.MAX_VALUE);
+        int bias = Math.round(outputBias * NeuralNetwork.ACTIVATION_SCALE * NeuralNetwork.OUTPUT_SCALE);
+        return new NeuralNetwork(hidden, quantizedFeatures, quantizedBias, quantizedOutput, bias);
+    }
+    
+    /**
+     * Sums the feature weights of a position from a perspective into an accumulator.
+     */
+    private void accumulate(float[] accumulator, long mine, long theirs) {
+        System.arraycopy(featureBias, 0, accumulator, 0, hidden);
+        for (long bits = mine; bits != 0; bits &= bits - 1) {
+            int offset = Long.numberOfTrailingZeros(bits) * hidden;
+            for (int i = 0; i < hidden; i++)
+                accumulator[i] += featureWeights[offset + i];
+        }
+        for (long bits = theirs; bits != 0; bits &= bits - 1) {
+            int offset = (BitBoard.CELLS + Long.numberOfTrailingZeros(bits)) * hidden;
+            for (int i = 0; i < hidden; i++)
+                accumulator[i] += featureWeights[offset + i];
+        }
+    }
+    
+    /**
+     * Descends the feature weights of the features of a position from a perspective.
+     */
+    private void update(float[] gradient, long mine, long theirs, float rate) {
+        for (long bits = mine; bits != 0; bits &= bits - 1) {
+            int offset = Long.numberOfTrailingZeros(bits) * hidden;
+            for (int i = 0; i < hidden; i++)
+                featureWeights[offset + i] -= rate * gradient[i];
+        }
+        for (long bits = theirs; bits != 0; bits &= bits - 1) {
+            int offset = (BitBoard.CELLS + Long.numberOfTrailingZeros(bits)) * hidden;
+            for (int i = 0; i < hidden; i++)
+                featureWeights[offset + i] -= rate * gradient[i];
+        }
+    }
+    
+    /**
+     * Returns the output logit of the accumulators of a position.
+     */
+    private float output(float[] toMove, float[] other) {
+        float sum = outputBias;
+        for (int i = 0; i < hidden; i++)
+            sum += clip(toMove[i]) * outputWeights[i] + clip(other[i]) * outputWeights[hidden + i];
+        return sum;
+    }
+    
+    /**
+     * Clips a hidden value to [0, 1], the range of NeuralNetwork.ACTIVATION_SCALE.
+     */
+    private static float clip(float value) {
+        return Math.min(Math.max(value, 0), 1);
+    }
+    
+    private static float sigmoid(float x) {
+        return (float) (1 / (1 + Math.exp(-x)));
+    }
+    
+    /**
+     * Returns the cross entropy of a predicted probability and a label.
+     */
+    private static double crossEntropy(float probability, float label) {
+        double p = Math.min(Math.max(probability, 1e-7), 1 - 1e-7);
+        return -(label * Math.log(p) + (1 - label) * Math.log(1 - p));
+    }
+    
+    /**
+     * Quantizes a weight.
+     */
+    private static short quantize(float weight, int scale, int limit) {
+        return (short) Math.max(-limit, Math.min(limit, Math.round(weight * scale)));
+    }
+    
+    /**
+     * Trains a network and saves its weights.
+     * @param args the options described in the class documentation.
+     */
+    public static void main(String[] args) throws IOException {
+        int hidden = 32;
+        int epochs = 10;
+        float rate = 0.01f;
+        long seed = 1;
+        double testFraction = 0.1;
+        List<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--hidden":
+                    hidden = Integer.parseInt(args[++i]);
+                    break;
+                case "--epochs":
+                    epochs = Integer.parseInt(args[++i]);
+                    break;
+                case "--rate":
+                    rate = Float.parseFloat(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--test-games":
+                    testFraction = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    inputs.add(args[i]);
+            }
+        }
+        if (inputs.size() < 2) {
+            System.out.println("Usage: java pentago.NeuralTrainer [--hidden N] [--epochs N] [--rate R] [--seed N] [--test-games F] "
+                    + "<weights file> <archive> [archive ...]");
+            return;
+        }
+        Random random = new Random(seed);
+        NeuralTrainer trainer = new NeuralTrainer(hidden, random);
+        Samples training = new Samples();
+        Samples test = new Samples();
+        for (String input : inputs.subList(1, inputs.size())) {
+            Path archive = Paths.get(input);
+            int games = Samples.countGames(archive);
+            int split = (int) Math.round(games * (1 - testFraction));
+            training.addGames(archive, 0, split);
+            test.addGames(archive, split, games);
+        }
+        System.out.println(training.size() + " training samples, " + test.size() + " test samples, " + hidden + " hidden values.");
+        for (int epoch = 1; epoch <= epochs; epoch++) {
+            long start = System.nanoTime();
+            double loss = trainer.trainEpoch(training, rate, random);
+            double[] measured = trainer.test(test, null);
+            System.out.println(String.format("epoch %d: train loss %.4f, test loss %.4f, test accuracy %.3f, %d ms", epoch, loss,
+                    measured[0], measured[1], (System.nanoTime() - start) / 1000000));
+        }
+        NeuralNetwork network = trainer.quantize();
+        double[] measured = trainer.test(test, network);
+        System.out.println(String.format("quantized: test loss %.4f, test accuracy %.3f", measured[0], measured[1]));
+        network.save(Paths.get(inputs.get(0)));
+        System.out.println("Saved " + inputs.get(0));
+    }
+    
+    /**
+     * The positions of self-play games, labelled with the results of their games.
+     */
+    public static final class Samples {
+        
+        /** The b tokens of each sample. */
+        private long[] black = new long[1024];
+        
+        /** The w tokens of each sample. */
+        private long[] white = new long[1024];
+        
+        /** The token to move of each sample, 'b' or 'w'. */
+        private char[] tokens = new char[1024];
+        
+        /** The result of each sample for the token to move: 1, 0 or 1/2. */
+        private float[] labels = new float[1024];
+        
+        /** The amount of samples. */
+        private int size;
+        
+        /**
+         * Counts the games of an archive.
+         * @param archive the path of the archive.
+         * @return the amount of games.
+         */
+        public static int countGames(Path archive) throws IOException {
+            int games = 0;
+            try (GameRecordReader reader = new GameRecordReader(archive)) {
+                while (reader.next())
+                    games++;
+            }
+            return games;
+        }
+        
+        /**
+         * Adds the positions of the games of an archive as samples.
+         * @param archive the path of the archive.
+         * @param firstGame the index of the first game to add.
+         * @param lastGame the index after the last game to add.
+         * @return the amount of games in the archive.
+         */
+        public int addGames(Path archive, int firstGame, int lastGame) throws IOException {
+            int game = 0;
+            try (GameRecordReader reader = new GameRecordReader(archive)) {
+                for (; reader.next(); game++) {
+                    if (game < firstGame || game >= lastGame)
+                        continue;
+                    char result = reader.getResult();
+                    long blackTokens = 0;
+                    long whiteTokens = 0;
+                    char token = reader.getFirstToken();
+                    for (int i = 0; i < reader.getMoveCount(); i++) {
+                        if (i > 0) //The empty board says nothing.
+                            add(blackTokens, whiteTokens, token, result);
+                        int move = reader.getMoves()[i];
+                        if (token == 'b')
+                            blackTokens |= 1L << BitBoard.cell(move);
+                        else
+                            whiteTokens |= 1L << BitBoard.cell(move);
+                        blackTokens = BitBoard.rotate(blackTokens, BitBoard.block(move), BitBoard.direction(move));
+                        whiteTokens = BitBoard.rotate(whiteTokens, BitBoard.block(move), BitBoard.direction(move));
+                        token = token == 'b' ? 'w' : 'b';
+                    }
+                }
+            }
+            return game;
+        }
+        
+        /**
+         * Returns the amount of samples.
+         * @return the amount of samples.
+         */
+        public int size() {
+            return size;
+        }
+        
+        /**
+         * Adds a sample, unless the position has five in a row.
+         */
+        private void add(long blackTokens, long whiteTokens, char token, char result) {
+            if (GameState.isWinningState(blackTokens, whiteTokens) != 'n')
+                return;
+            if (size == black.length) {
+                black = Arrays.copyOf(black, size * 2);
+                white = Arrays.copyOf(white, size * 2);
+                tokens = Arrays.copyOf(tokens, size * 2);
+                labels = Arrays.copyOf(labels, size * 2);
+            }
+            black[size] = blackTokens;
+            white[size] = whiteTokens;
+            tokens[size] = token;
+            labels[size] = result == token ? 1 : result == 'b' || result == 'w' ? 0 : 0.5f;
+            size++;
+        }
+    }
+}
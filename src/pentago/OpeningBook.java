@@ -0,0 +1,114 @@
+package pentago;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only opening book. Maps canonical position hashes (see BitBoard.canonicalHash) to the best move and score
+ * found for the position by OpeningBookGenerator. The book file is memory mapped, so opening a book costs nothing
+ * and lookups are a binary search over the mapped file.
+ * File format (big endian):
+ *  int  magic (MAGIC)
+ *  int  entry count
+ *  entries sorted by unsigned hash, each ENTRY_SIZE bytes:
+ *      long  canonical hash
+ *      short move code in the canonical orientation (see BitBoard)
+ *      int   score of the move
+ */
+public class OpeningBook {
+    
+    /** The magic number at the start of every book file ("PBK1"). */
+    public static final int MAGIC = 0x50424B31;
+    
+    /** The size of the file header in bytes. */
+    public static final int HEADER_SIZE = 8;
+    
+    /** The size of an entry in bytes. */
+    public static final int ENTRY_SIZE = 14;
+    
+    /** The mapped book file. */
+    private final MappedByteBuffer buffer;
+    
+    /** The amount of entries in the book. */
+    private final int entryCount;
+    
+    /**
+     * Opens and memory maps a book file.
+     * @param path the path of the book file.
+     * @throws IOException if the file cannot be read or is not a book file.
+     */
+    public OpeningBook(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not an opening book: " + path);
+        entryCount = buffer.getInt(4);
+        if (buffer.limit() < HEADER_SIZE + (long) entryCount * ENTRY_SIZE)
+            throw new IOException("Truncated opening book: " + path);
+    }
+    
+    /**
+     * Looks up the best move of a state.
+     * @param state the state to look up.
+     * @param toMove the token to move.
+     * @return the move code of the best move (see BitBoard), or -1 if the state is not in the book.
+     */
+    public int getMove(char[][] state, char toMove) {
+        long black = BitBoard.fromState(state, 'b');
+        long white = BitBoard.fromState(state, 'w');
+        int symmetry = BitBoard.canonicalSymmetry(black, white, toMove);
+        int index = find(BitBoard.hash(BitBoard.transform(black, symmetry), BitBoard.transform(white, symmetry), toMove));
+        if (index < 0)
+            return -1;
+        int move = buffer.getShort(HEADER_SIZE + index * ENTRY_SIZE + 8);
+        return BitBoard.transformMove(move, BitBoard.inverse(symmetry)); //Map the move back to the orientation of the state.
+    }
+    
+    /**
+     * Looks up the score of the best move of a state.
+     * @param state the state to look up.
+     * @param toMove the token to move.
+     * @return the score stored for the state, or Integer.MIN_VALUE if the state is not in the book.
+     */
+    public int getScore(char[][] state, char toMove) {
+        int index = find(BitBoard.canonicalHash(BitBoard.fromState(state, 'b'), BitBoard.fromState(state, 'w'), toMove));
+        if (index < 0)
+            return Integer.MIN_VALUE;
+        return buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + 10);
+    }
+    
+    /**
+     * Binary searches the book for a canonical hash.
+     * @param key the canonical hash to search for.
+     * @return the index of the entry, or -1 if it is not contained.
+     */
+    private int find(long key) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = Long.compareUnsigned(buffer.getLong(HEADER_SIZE + middle * ENTRY_SIZE), key);
+            if (comparison < 0)
+                low = middle + 1;
+            else if (comparison > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the amount of positions in the book.
+     * @return the amount of positions in the book.
+     */
+    public int size() {
+        return entryCount;
+    }
+}
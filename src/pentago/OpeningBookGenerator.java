@@ -0,0 +1,170 @@
+package pentago;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Offline generator for OpeningBook files. Collects every position reachable within the first N plies from the
+ * initial state (for either token moving first), keeps one position per symmetry class, searches each of them
+ * with a GameTree in parallel and writes the results as a book file.
+ * Usage: java pentago.OpeningBookGenerator <output file> [plies (2)] [look ahead (2)] [threads (all cores)]
+ */
+public class OpeningBookGenerator {
+    
+    /** The amount of plies from the initial state to store in the book. */
+    private final int plies;
+    
+    /** The look ahead of the game tree used to search each position. */
+    private final int lookAhead;
+    
+    /** The amount of threads to search with. */
+    private final int threads;
+    
+    /** The evaluation function used by the searches. */
+    private final UtilityFunction evaluationFunction;
+    
+    /**
+     * Creates a new opening book generator.
+     * @param plies the amount of plies from the initial state to store in the book.
+     * @param lookAhead the look ahead of the game tree used to search each position.
+     * @param threads the amount of threads to search with.
+     */
+    public OpeningBookGenerator(int plies, int lookAhead, int threads) {
+        this.plies = plies;
+        this.lookAhead = lookAhead;
+        this.threads = threads;
+        evaluationFunction = new UtilityFunction(2);
+    }
+    
+    /**
+     * Generates the book and writes it to a file.
+     * @param output the file to write.
+     * @return the amount of positions in the book.
+     */
+    public int generate(Path output) throws IOException, InterruptedException {
+        List<long[]> positions = collectPositions();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+        for (long[] position : positions)
+            results.add(pool.submit(() -> searchPosition(position)));
+        List<long[]> entries = new ArrayList<long[]>();
+        try {
+            for (Future<long[]> result : results) {
+                long[] entry = result.get();
+                if (entry != null)
+                    entries.add(entry);
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Search failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        entries.sort((a, b) -> Long.compareUnsigned(a[0], b[0]));
+        write(output, entries);
+        return entries.size();
+    }
+    
+    /**
+     * Collects the canonical form of every position within the first plies of the game.
+     * @return the positions as {b tokens, w tokens, token to move}.
+     */
+    private List<long[]> collectPositions() {
+        List<long[]> positions = new ArrayList<long[]>();
+        LongIntHashMap seen = new LongIntHashMap(); //Canonical hash -> ply the position was first reached at.
+        List<long[]> level = new ArrayList<long[]>();
+        level.add(new long[] {0, 0, 'b'});
+        level.add(new long[] {0, 0, 'w'});
+        for (int ply = 0; ply < plies; ply++) {
+            positions.addAll(level);
+            if (ply == plies - 1) //The last level does not need to be expanded.
+                break;
+            List<long[]> nextLevel = new ArrayList<long[]>();
+            for (long[] position : level) {
+                char toMove = (char) position[2];
+                char nextToMove = toMove == 'b' ? 'w' : 'b';
+                long mine = toMove == 'b' ? position[0] : position[1];
+                long theirs = toMove == 'b' ? position[1] : position[0];
+                long empty = ~(mine | theirs) & BitBoard.FULL;
+                for (int move = 0; move < BitBoard.MOVES; move++) {
+                    if ((empty & (1L << BitBoard.cell(move))) == 0)
+                        continue;
+                    long nextMine = mine | (1L << BitBoard.cell(move));
+                    long nextTheirs = theirs;
+                    if (BitBoard.hasFive(nextMine)) //The game is over, there is nothing to look up.
+                        continue;
+                    nextMine = BitBoard.rotate(nextMine, BitBoard.block(move), BitBoard.direction(move));
+                    nextTheirs = BitBoard.rotate(nextTheirs, BitBoard.block(move), BitBoard.direction(move));
+                    long black = toMove == 'b' ? nextMine : nextTheirs;
+                    long white = toMove == 'b' ? nextTheirs : nextMine;
+                    if (BitBoard.winner(black, white) != 'n')
+                        continue;
+                    int symmetry = BitBoard.canonicalSymmetry(black, white, nextToMove);
+                    black = BitBoard.transform(black, symmetry);
+                    white = BitBoard.transform(white, symmetry);
+                    if (seen.putIfAbsent(BitBoard.hash(black, white, nextToMove), ply + 1) == LongIntHashMap.NO_VALUE)
+                        nextLevel.add(new long[] {black, white, nextToMove});
+                }
+            }
+            level = nextLevel;
+        }
+        return positions;
+    }
+    
+    /**
+     * Searches a canonical position.
+     * @param position the position as {b tokens, w tokens, token to move}.
+     * @return the book entry as {canonical hash, move code, score}, or null if no move was found.
+     */
+    private long[] searchPosition(long[] position) {
+        char toMove = (char) position[2];
+        GameTree tree = new GameTree(BitBoard.toState(position[0], position[1]), toMove, lookAhead, evaluationFunction, true);
+        GameTreeNode choice = tree.getNext();
+        if (choice == null)
+            return null;
+        return new long[] {BitBoard.hash(position[0], position[1], toMove), BitBoard.fromArgs(choice.getArgs()), choice.getScore()};
+    }
+    
+    /**
+     * Writes sorted entries to a book file.
+     * @param output the file to write.
+     * @param entries the entries sorted by unsigned hash.
+     */
+    private static void write(Path output, List<long[]> entries) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+            out.writeInt(OpeningBook.MAGIC);
+            out.writeInt(entries.size());
+            for (long[] entry : entries) {
+                out.writeLong(entry[0]);
+                out.writeShort((int) entry[1]);
+                out.writeInt((int) entry[2]);
+            }
+        }
+    }
+    
+    /**
+     * Generates an opening book.
+     * @param args output file, plies, look ahead, threads.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java pentago.OpeningBookGenerator <output file> [plies] [look ahead] [threads]");
+            return;
+        }
+        int plies = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int lookAhead = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        long start = System.currentTimeMillis();
+        int size = new OpeningBookGenerator(plies, lookAhead, threads).generate(Paths.get(args[0]));
+        System.out.println("Wrote " + size + " positions to " + args[0] + " in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+}
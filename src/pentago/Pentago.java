@@ -1,186 +1,445 @@
-package pentago;
-
-import java.util.Random;
-import java.util.Scanner;
-
-/**
- * Pentago board game runner class. 
- * @author Cade Reynoldson
- */
-public class Pentago {
-    
-    /** The name of the AI. */
-    private final String aiName;
-    
-    /** The token the AI will use. */
-    private char aiToken;
-    
-    /** The user's name. */
-    private String playerName;
-    
-    /** The token the player is using. Either b or w */
-    private char playerToken;
-    
-    /** The scanner used for user input. */
-    private Scanner userInput;
-    
-    /** The game tree of potential moves the AI can make. */
-    private GameTree gameTree;
-    
-    /** The ai turn look ahead count. */
-    private int aiLookAhead;
-    
-    /** Indicates if it's the AI's turn. */ 
-    private boolean aiTurn;
-    
-    /** The evaluation function to use. Defaults to my "smart(ish)" evaluation function. (2 point bonus for win block bonus) */
-    private UtilityFunction evaluationFunction;
-    
-    /** Indicates if alpha beta pruning is to take place in the game. Default value is true. */
-    private boolean alphaBetaPruning;
-
-    /**
-     * Creates a new instance of the pentago game. 
-     * @param aiName the name of the AI.
-     * @param aiLookAhead the AI lookahead count. 
-     */
-    public Pentago(String aiName, int aiLookAhead) {
-        this.aiName = aiName;
-        this.aiLookAhead = aiLookAhead;
-        alphaBetaPruning = true;
-        evaluationFunction = new UtilityFunction(2);
-    }
-    
-    /**
-     * Runs the pentago game. 
-     */
-    public void runGame() { 
-        getUserInfo();
-        char[][] currentState = getFirstMoves();
-        while (GameState.isWinningState(currentState) == 'n' && GameState.canMakeMove(currentState)) { //While the current state is not a winning state. 
-            System.out.println("+--------------------------------------------+");
-            GameState.printInputState(currentState);
-            if (aiTurn) { //If it's the AI's turn. 
-                GameTreeNode aiChoice = gameTree.getNext(); //Get the ai's next move.
-                System.out.println(aiName + " (token = " + aiToken + ") chooses: " + aiChoice.getArgs());
-                currentState = aiChoice.getState();
-                aiTurn = false; 
-            } else { //If it's the players turn. 
-                userInput = new Scanner(System.in);
-                String args = getPlayerInput(currentState);
-                while (args == null) {
-                    args = getPlayerInput(currentState);
-                }
-                currentState = gameTree.updateNext(args);
-                aiTurn = true;
-            }
-        }
-        System.out.println("+--------------------------------------------+");
-        printWinners(GameState.isWinningState(currentState));
-        System.out.println("Final Board State: ");
-        GameState.printState(currentState);
-        userInput.close();
-    }
-    
-    /**
-     * Fetches the first moves of the game. 
-     * @return a the first state of the game. 
-     */
-    public char[][] getFirstMoves() {
-        char[][] currentState = GameState.initialState;
-        if (aiGoesFirst()) {
-            gameTree = new GameTree(currentState, aiToken, aiLookAhead, evaluationFunction, alphaBetaPruning);
-            GameTreeNode aiChoice = gameTree.getNext(); //Get the ai's next move.
-            GameState.printInputState(currentState);
-            System.out.println("Computer goes first! ");
-            System.out.println(aiName + " (token = " + aiToken + ") chooses: " + aiChoice.getArgs());
-            currentState = aiChoice.getState();
-            aiTurn = false;
-        } else {
-            GameState.printInputState(currentState);
-            System.out.println(playerName + " goes first!: ");
-            String args = getPlayerInput(currentState);
-            currentState = GameState.alter(currentState, playerToken, args);
-            gameTree = new GameTree(currentState, aiToken, aiLookAhead, evaluationFunction, alphaBetaPruning);
-            aiTurn = true; 
-        }
-        return currentState;
-    }
-    
-    /**
-     * Gets player input for their next move. 
-     * @param currentState the current state to apply the move to. 
-     * @return the arguments provided to generate the next move. 
-     */
-    public String getPlayerInput(char[][] currentState) {
-        userInput = new Scanner(System.in);
-        System.out.print(playerName + "'s turn (token = " + playerToken + ") - Enter your move (b/p bd): ");
-        String args = userInput.nextLine();
-        while (!GameState.isValidArgument(args)) {
-            System.out.print("Invalid argument! Enter your move (b/p bd): ");
-            args = userInput.nextLine();
-        }
-        try {
-            currentState = GameState.alter(currentState, playerToken, args);
-        } catch (IllegalArgumentException e) {
-            System.out.print("Invalid input (cannot replace existing point token). Restarting turn.");
-            return null;
-        } 
-        return args.toLowerCase();
-    }
-    
-    /**
-     * Generates a random number for determining if the AI or player will go first. 
-     * @return true is the ai goes first, false otherwise. 
-     */
-    public boolean aiGoesFirst() {
-        Random r = new Random();
-        int randomNum = r.nextInt(2);
-        return randomNum == 0;
-    }
-    
-    /**
-     * Prints the winners given a win condition generated by GameState.java
-     * @param winnerConditions the winning conditions to print. 
-     */
-    private void printWinners(char winnerConditions) {
-        if (winnerConditions == 'b') { //If b won. 
-             System.out.println("Token B has won!");
-        } else if (winnerConditions == 'w') { //If w won. 
-            System.out.println("Token W has won!");
-        } else if (winnerConditions == 't') { //If it was a tie. 
-            System.out.println("It's a tie!");
-        } else { //If game ended with no winner.
-            System.out.println("Game ended! No more moves to be made.");
-        }
-    }
-    
-    /**
-     * Intializes the fields contained in this class VIA user input from the console. 
-     */
-    public void getUserInfo() {
-        userInput = new Scanner(System.in);
-        System.out.print("Enter Player Name: ");
-        playerName = userInput.nextLine();
-        System.out.print("Enter Token Identifier (b or w): ");
-        playerToken = userInput.nextLine().toLowerCase().charAt(0);
-        while (playerToken != 'b' && playerToken != 'w') {
-            System.out.print("Invalid Token Input. You entered: " + playerToken +"\nEnter Token Identifier (b or w): ");
-            playerToken = userInput.nextLine().toLowerCase().charAt(0);
-        }
-        if (playerToken == 'b')
-            aiToken = 'w';
-        else
-            aiToken = 'b';
-    }
-    
-    /**
-     * Main function to run the game. 
-     * @param args N/A.
-     */
-    public static void main(String[] args) {
-        Pentago game = new Pentago("Computer", 2);
-        game.runGame();
-    }
-    
-}
+package pentago;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pentago board game runner class. 
+ * @author Cade Reynoldson
+ */
+public class Pentago {
+    
+    /** The deepest look ahead of an AI playing with a game clock. */
+    private static final int CLOCK_LOOK_AHEAD = 3;
+    
+    /** The name of the AI. */
+    private final String aiName;
+    
+    /** The token the AI will use. */
+    private char aiToken;
+    
+    /** The user's name. */
+    private String playerName;
+    
+    /** The token the player is using. Either b or w */
+    private char playerToken;
+    
+    /** The scanner used for user input. */
+    private Scanner userInput;
+    
+    /** The game tree of potential moves the AI can make. */
+    private GameTree gameTree;
+    
+    /** The ai turn look ahead count. */
+    private int aiLookAhead;
+    
+    /** Indicates if it's the AI's turn. */ 
+    private boolean aiTurn;
+    
+    /** The evaluation function to use. Defaults to my "smart(ish)" evaluation function. (2 point bonus for win block bonus) */
+    private UtilityFunction evaluationFunction;
+    
+    /** Indicates if alpha beta pruning is to take place in the game. Default value is true. */
+    private boolean alphaBetaPruning;
+    
+    /** The opening book the AI consults before searching. Null if no book is used. */
+    private OpeningBook openingBook;
+    
+    /** The table of exact endgame values the AI consults before searching. Null if no tablebase is used. */
+    private Tablebase tablebase;
+    
+    /** The persistent position cache shared by every game. Null if no cache is used. */
+    private PositionCache positionCache;
+    
+    /** The archive the moves of the game are recorded to. Null if the game is not recorded. */
+    private GameRecordWriter gameRecord;
+    
+    /** Indicates if the AI searches during the player's turn. */
+    private boolean pondering;
+    
+    /** Indicates if the AI searches every reply of the player while pondering, instead of only the predicted one. */
+    private boolean ponderAllReplies;
+    
+    /** The thread the AI ponders on. Null if the AI does not ponder. */
+    private ExecutorService ponderThread;
+    
+    /** The metrics the moves of the AI are recorded in. Null if they are not recorded. */
+    private EngineMetrics metrics;
+    
+    /** The time manager of the AI's game clock. Null if the AI always searches to its look ahead. */
+    private TimeManager timeManager;
+    
+    /** The file the searched game tree is saved to after the game (see SavedTree). Null if it is not saved. */
+    private Path savedTreePath;
+    
+    /** The most nodes the game tree may hold (see GameTree.setMemoryBudget). Long.MAX_VALUE for no budget. */
+    private long memoryBudget;
+
+    /**
+     * Creates a new instance of the pentago game. 
+     * @param aiName the name of the AI.
+     * @param aiLookAhead the AI lookahead count. 
+     */
+    public Pentago(String aiName, int aiLookAhead) {
+        this.aiName = aiName;
+        this.aiLookAhead = aiLookAhead;
+        alphaBetaPruning = true;
+        memoryBudget = Long.MAX_VALUE;
+        evaluationFunction = new UtilityFunction(2);
+        evaluationFunction.setEvaluationCache(new EvaluationCache(EvaluationCache.DEFAULT_SLOTS)); //Reused every turn. 
+    }
+    
+    /**
+     * Runs the pentago game. 
+     */
+    public void runGame() { 
+        if (pondering) {
+            ponderThread = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "pentago-ponder");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        getUserInfo();
+        char[][] currentState = getFirstMoves();
+        char winner = GameState.isWinningState(currentState);
+        while (winner == 'n' && GameState.canMakeMove(currentState)) { //While the current state is not a winning state. 
+            System.out.println("+--------------------------------------------+");
+            GameState.printInputState(currentState);
+            if (aiTurn) { //If it's the AI's turn. 
+                GameTreeNode aiChoice = gameTree.getNext(); //Get the ai's next move.
+                printTruncation();
+                System.out.println(aiName + " (token = " + aiToken + ") chooses: " + aiChoice.getArgs());
+                recordMove(aiChoice.getArgs());
+                currentState = aiChoice.getState();
+                winner = GameState.isWinningMove(currentState, aiChoice.getArgs()); //Only the lines touched by the move can have changed. 
+                ponder();
+                aiTurn = false; 
+            } else { //If it's the players turn. 
+                userInput = new Scanner(System.in);
+                String args = getPlayerInput(currentState);
+                while (args == null) {
+                    args = getPlayerInput(currentState);
+                }
+                recordMove(args);
+                currentState = gameTree.updateNext(args);
+                winner = GameState.isWinningMove(currentState, args);
+                aiTurn = true;
+            }
+        }
+        System.out.println("+--------------------------------------------+");
+        printWinners(winner);
+        System.out.println("Final Board State: ");
+        GameState.printState(currentState);
+        if (gameRecord != null) {
+            try {
+                gameRecord.endGame(winner);
+                gameRecord.flush();
+            } catch (IOException e) {
+                System.out.println("Error recording game: " + e.getMessage());
+            }
+        }
+        if (ponderThread != null)
+            ponderThread.shutdownNow();
+        if (savedTreePath != null) {
+            try {
+                System.out.println("Saved " + gameTree.saveTree(savedTreePath) + " searched nodes to " + savedTreePath);
+            } catch (IOException e) {
+                System.out.println("Error saving the game tree: " + e.getMessage());
+            }
+        }
+        userInput.close();
+    }
+    
+    /**
+     * Fetches the first moves of the game. 
+     * @return a the first state of the game. 
+     */
+    public char[][] getFirstMoves() {
+        char[][] currentState = GameState.initialState;
+        boolean aiFirst = aiGoesFirst();
+        if (gameRecord != null) {
+            try {
+                gameRecord.startGame(aiFirst ? aiToken : playerToken);
+            } catch (IOException e) {
+                System.out.println("Error recording game: " + e.getMessage());
+            }
+        }
+        if (aiFirst) {
+            gameTree = new GameTree(currentState, aiToken, aiLookAhead, evaluationFunction, alphaBetaPruning);
+            gameTree.setOpeningBook(openingBook);
+            gameTree.setPositionCache(positionCache);
+            gameTree.setTablebase(tablebase);
+            gameTree.setMetrics(metrics);
+            gameTree.setTimeManager(timeManager);
+            gameTree.setStreaming(timeManager != null); //Deep levels do not fit in memory as a whole tree. 
+            gameTree.setMemoryBudget(memoryBudget);
+            GameTreeNode aiChoice = gameTree.getNext(); //Get the ai's next move.
+            GameState.printInputState(currentState);
+            printTruncation();
+            System.out.println("Computer goes first! ");
+            System.out.println(aiName + " (token = " + aiToken + ") chooses: " + aiChoice.getArgs());
+            recordMove(aiChoice.getArgs());
+            currentState = aiChoice.getState();
+            ponder();
+            aiTurn = false;
+        } else {
+            GameState.printInputState(currentState);
+            System.out.println(playerName + " goes first!: ");
+            String args = getPlayerInput(currentState);
+            recordMove(args);
+            currentState = GameState.alter(currentState, playerToken, args);
+            gameTree = new GameTree(currentState, aiToken, aiLookAhead, evaluationFunction, alphaBetaPruning);
+            gameTree.setOpeningBook(openingBook);
+            gameTree.setPositionCache(positionCache);
+            gameTree.setTablebase(tablebase);
+            gameTree.setMetrics(metrics);
+            gameTree.setTimeManager(timeManager);
+            gameTree.setStreaming(timeManager != null); //Deep levels do not fit in memory as a whole tree. 
+            gameTree.setMemoryBudget(memoryBudget);
+            aiTurn = true; 
+        }
+        return currentState;
+    }
+    
+    /**
+     * Gets player input for their next move. 
+     * @param currentState the current state to apply the move to. 
+     * @return the arguments provided to generate the next move. 
+     */
+    public String getPlayerInput(char[][] currentState) {
+        userInput = new Scanner(System.in);
+        System.out.print(playerName + "'s turn (token = " + playerToken + ") - Enter your move (b/p bd): ");
+        String args = userInput.nextLine();
+        while (!GameState.isValidArgument(args)) {
+            System.out.print("Invalid argument! Enter your move (b/p bd): ");
+            args = userInput.nextLine();
+        }
+        try {
+            currentState = GameState.alter(currentState, playerToken, args);
+        } catch (IllegalArgumentException e) {
+            System.out.print("Invalid input (cannot replace existing point token). Restarting turn.");
+            return null;
+        } 
+        return args.toLowerCase();
+    }
+    
+    /**
+     * Sets the opening book the AI consults before searching. 
+     * @param openingBook the opening book, or null to disable it. 
+     */
+    public void setOpeningBook(OpeningBook openingBook) {
+        this.openingBook = openingBook;
+    }
+    
+    /**
+     * Sets the evaluation function of the AI, e.g. a NeuralEvaluator. 
+     * @param evaluationFunction the evaluation function. 
+     */
+    public void setEvaluationFunction(UtilityFunction evaluationFunction) {
+        evaluationFunction.setEvaluationCache(this.evaluationFunction.getEvaluationCache()); //Empty until the game starts.
+        this.evaluationFunction = evaluationFunction;
+    }
+    
+    /**
+     * Sets the table of exact endgame values the AI consults before searching (see TablebaseGenerator). 
+     * @param tablebase the tablebase, or null to disable it. 
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+    
+    /**
+     * Sets the persistent position cache the AI consults before searching and stores its searches in. 
+     * @param positionCache the position cache, or null to disable it. 
+     */
+    public void setPositionCache(PositionCache positionCache) {
+        this.positionCache = positionCache;
+    }
+    
+    /**
+     * Plays the AI with a game clock instead of a fixed look ahead: each move deepens one level at a time, up to 
+     * CLOCK_LOOK_AHEAD, until the time manager ends it. 
+     * @param timeManager the time manager of the AI's clock. 
+     */
+    public void setTimeManager(TimeManager timeManager) {
+        this.timeManager = timeManager;
+        aiLookAhead = Math.max(aiLookAhead, CLOCK_LOOK_AHEAD);
+    }
+    
+    /**
+     * Sets the metrics the moves of the AI are recorded in (see EngineMetrics). 
+     * @param metrics the metrics, or null to not record them. 
+     */
+    public void setMetrics(EngineMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Sets the archive the moves of the game are recorded to (see GameRecordWriter). 
+     * @param gameRecord the archive writer, or null to not record the game. 
+     */
+    public void setGameRecord(GameRecordWriter gameRecord) {
+        this.gameRecord = gameRecord;
+    }
+    
+    /**
+     * Sets the file the searched game tree is saved to after the game, for analysis without searching again 
+     * (see SavedTree). 
+     * @param savedTreePath the file, or null to not save the tree. 
+     */
+    public void setSavedTreePath(Path savedTreePath) {
+        this.savedTreePath = savedTreePath;
+    }
+    
+    /**
+     * Sets the most nodes the AI's game tree may hold. Moves whose search would exceed it are chosen from a 
+     * shallower search (see GameTree.setMemoryBudget). 
+     * @param memoryBudget the most nodes, or Long.MAX_VALUE for no budget. 
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+    
+    /**
+     * Sets whether the AI searches the player's replies while the player is thinking. A reply which has been 
+     * searched when the player makes it is answered without searching. 
+     * @param pondering true to search during the player's turn. 
+     * @param allReplies true to search every reply (best first), false to only search the predicted reply. 
+     */
+    public void setPondering(boolean pondering, boolean allReplies) {
+        this.pondering = pondering;
+        ponderAllReplies = allReplies;
+    }
+    
+    /**
+     * Starts pondering on the player's turn, if pondering is enabled. 
+     */
+    private void ponder() {
+        if (ponderThread != null)
+            gameTree.startPondering(ponderThread, ponderAllReplies);
+    }
+    
+    /**
+     * Tells the player if the memory budget cut the AI's last search short of its look ahead. 
+     */
+    private void printTruncation() {
+        if (timeManager == null && gameTree.getSearchedDepth() < aiLookAhead)
+            System.out.println("(Memory budget reached: searched " + gameTree.getSearchedDepth() + " of " + aiLookAhead + " moves ahead.)");
+    }
+    
+    /**
+     * Records a move to the game record, if the game is being recorded. 
+     * @param args the arguments of the move. 
+     */
+    private void recordMove(String args) {
+        if (gameRecord == null)
+            return;
+        try {
+            gameRecord.recordMove(args);
+        } catch (IOException e) {
+            System.out.println("Error recording move: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Generates a random number for determining if the AI or player will go first. 
+     * @return true is the ai goes first, false otherwise. 
+     */
+    public boolean aiGoesFirst() {
+        Random r = new Random();
+        int randomNum = r.nextInt(2);
+        return randomNum == 0;
+    }
+    
+    /**
+     * Prints the winners given a win condition generated by GameState.java
+     * @param winnerConditions the winning conditions to print. 
+     */
+    private void printWinners(char winnerConditions) {
+        if (winnerConditions == 'b') { //If b won. 
+             System.out.println("Token B has won!");
+        } else if (winnerConditions == 'w') { //If w won. 
+            System.out.println("Token W has won!");
+        } else if (winnerConditions == 't') { //If it was a tie. 
+            System.out.println("It's a tie!");
+        } else { //If game ended with no winner.
+            System.out.println("Game ended! No more moves to be made.");
+        }
+    }
+    
+    /**
+     * Intializes the fields contained in this class VIA user input from the console. 
+     */
+    public void getUserInfo() {
+        userInput = new Scanner(System.in);
+        System.out.print("Enter Player Name: ");
+        playerName = userInput.nextLine();
+        System.out.print("Enter Token Identifier (b or w): ");
+        playerToken = userInput.nextLine().toLowerCase().charAt(0);
+        while (playerToken != 'b' && playerToken != 'w') {
+            System.out.print("Invalid Token Input. You entered: " + playerToken +"\nEnter Token Identifier (b or w): ");
+            playerToken = userInput.nextLine().toLowerCase().charAt(0);
+        }
+        if (playerToken == 'b')
+            aiToken = 'w';
+        else
+            aiToken = 'b';
+    }
+    
+    /**
+     * Main function to run the game. 
+     * @param args optional: --book <file> an opening book (see OpeningBookGenerator), 
+     *                       --cache <file> a persistent position cache (created if it does not exist). 
+     *                       --tablebase <file> a table of exact endgame values (see TablebaseGenerator). 
+     *                       --record <file> an archive to append the game to (see GameRecordWriter). 
+     *                       --ponder predicted|all search the predicted reply, or every reply, during the player's turn. 
+     *                       --metrics <name> publish the AI's metrics over JMX under the name (see EngineMetrics). 
+     *                       --clock <seconds> the AI's time for the game, spent by a TimeManager. 
+     *                       --increment <seconds> the time added to the AI's clock after each move. 
+     *                       --save-tree <file> save the searched game tree after the game (see SavedTree). 
+     *                       --neural <file> evaluate with a neural network instead of counting lines (see NeuralTrainer). 
+     *                       --tree-memory <megabytes> the most memory the AI's game tree may use, at 
+     *                       GameTreeNode.ESTIMATED_BYTES per node. 
+     */
+    public static void main(String[] args) throws IOException {
+        Pentago game = new Pentago("Computer", 2);
+        long clockSeconds = 0;
+        long incrementSeconds = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--book"))
+                game.setOpeningBook(new OpeningBook(Paths.get(args[i + 1])));
+            else if (args[i].equals("--cache"))
+                game.setPositionCache(new PositionCache(Paths.get(args[i + 1])));
+            else if (args[i].equals("--tablebase"))
+                game.setTablebase(new Tablebase(Paths.get(args[i + 1])));
+            else if (args[i].equals("--record"))
+                game.setGameRecord(new GameRecordWriter(Paths.get(args[i + 1])));
+            else if (args[i].equals("--ponder"))
+                game.setPondering(true, args[i + 1].equals("all"));
+            else if (args[i].equals("--metrics"))
+                game.setMetrics(new EngineMetrics().register(args[i + 1]));
+            else if (args[i].equals("--clock"))
+                clockSeconds = Long.parseLong(args[i + 1]);
+            else if (args[i].equals("--increment"))
+                incrementSeconds = Long.parseLong(args[i + 1]);
+            else if (args[i].equals("--save-tree"))
+                game.setSavedTreePath(Paths.get(args[i + 1]));
+            else if (args[i].equals("--neural"))
+                game.setEvaluationFunction(new NeuralEvaluator(NeuralNetwork.load(Paths.get(args[i + 1]))));
+            else if (args[i].equals("--tree-memory"))
+                game.setMemoryBudget(Long.parseLong(args[i + 1]) * 1048576 / GameTreeNode.ESTIMATED_BYTES);
+        }
+        if (clockSeconds > 0)
+            game.setTimeManager(new TimeManager(clockSeconds * 1000, incrementSeconds * 1000));
+        game.runGame();
+        if (game.gameRecord != null)
+            game.gameRecord.close();
+    }
+    
+}
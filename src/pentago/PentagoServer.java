@@ -0,0 +1,328 @@
+package pentago;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves many concurrent games over HTTP using the JDK's built in server. Searches of every game are scheduled on
+ * one bounded worker pool, so the amount of CPU used by the AI does not grow with the amount of games.
+ * Protocol (GET or POST, plain text responses). A game is encoded as: state (36 characters, row by row), token to
+ * move and result (see GameState.isWinningState), separated by spaces.
+ *  /new?ai=b|w&first=b|w[&level=L] - starts a game, with the AI at a difficulty level (beginner, easy, medium or
+ *                          hard, see Difficulty) or else the engine of the server. Responds: id game
+ *  /move?id=N&args=b/p+bd  - applies a move of the player. Responds: game
+ *  /ai?id=N[&ms=N]         - the AI chooses and applies its move within ms milliseconds (a level uses its own
+ *                            limits). Responds: args game
+ *  /end?id=N               - ends a game. Responds: ok
+ * Errors are reported with status 400 (bad request), 404 (unknown game), 409 (wrong turn or game over) and
+ * 503 (search queue full).
+ * The moves of the AI are recorded in EngineMetrics, published over JMX as pentago:type=EngineMetrics,name="server-PORT".
+ * Usage: java pentago.PentagoServer [--port N] [--workers N] [--queue N] [--engine spec] [--idle-minutes N]
+ */
+public class PentagoServer {
+    
+    /** The HTTP server. */
+    private final HttpServer server;
+    
+    /** The pool searches are run on. */
+    private final ThreadPoolExecutor searchPool;
+    
+    /** The pool requests are handled on. Handler threads mostly wait on searches. */
+    private final ExecutorService requestPool;
+    
+    /** The games being served, mapped to their id. */
+    private final ConcurrentHashMap<Long, GameSession> sessions;
+    
+    /** The id of the next game. */
+    private final AtomicLong nextId;
+    
+    /** The engine the AI plays new games with. */
+    private final EngineConfig engine;
+    
+    /** The time without requests after which a game is removed, in milliseconds. */
+    private final long idleMillis;
+    
+    /** The metrics the moves of the AI are recorded in, published over JMX (see EngineMetrics). */
+    private final EngineMetrics metrics;
+    
+    /**
+     * Creates a server. The server does not accept requests until start() is called.
+     * @param port the port to listen on.
+     * @param workers the amount of search threads.
+     * @param queueSize the maximum amount of searches waiting for a search thread.
+     * @param engine the engine the AI plays with. Its time budget is the default per request budget.
+     * @param idleMillis the time without requests after which a game is removed.
+     */
+    public PentagoServer(int port, int workers, int queueSize, EngineConfig engine, long idleMillis) throws IOException {
+        this.engine = engine;
+        this.idleMillis = idleMillis;
+        metrics = new EngineMetrics();
+        sessions = new ConcurrentHashMap<Long, GameSession>();
+        nextId = new AtomicLong(1);
+        searchPool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize));
+        requestPool = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(requestPool);
+        server.createContext("/new", exchange -> handle(exchange, this::newGame));
+        server.createContext("/move", exchange -> handle(exchange, this::playerMove));
+        server.createContext("/ai", exchange -> handle(exchange, this::aiMove));
+        server.createContext("/end", exchange -> handle(exchange, this::endGame));
+    }
+    
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+    
+    /**
+     * Stops the server and its pools.
+     */
+    public void stop() {
+        server.stop(0);
+        searchPool.shutdownNow();
+        requestPool.shutdownNow();
+    }
+    
+    /**
+     * Returns the metrics of the AI's moves. Not published over JMX unless registered (see EngineMetrics.register).
+     * @return the metrics.
+     */
+    public EngineMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Returns the port the server listens on.
+     * @return the port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    /**
+     * Handles /new.
+     */
+    private String newGame(Map<String, String> query) {
+        char aiToken = token(query.getOrDefault("ai", "b"));
+        char firstToken = token(query.getOrDefault("first", "b"));
+        removeIdleSessions();
+        long id = nextId.getAndIncrement();
+        EngineConfig sessionEngine = query.containsKey("level") ? engine.withDifficulty(Difficulty.forName(query.get("level"))) : engine;
+        GameSession session = new GameSession(aiToken, firstToken, sessionEngine);
+        sessions.put(id, session);
+        return id + " " + session.encode();
+    }
+    
+    /**
+     * Handles /move.
+     */
+    private String playerMove(Map<String, String> query) {
+        GameSession session = session(query);
+        String args = query.get("args");
+        if (args == null)
+            throw new IllegalArgumentException("Missing args.");
+        synchronized (session) {
+            if (session.getToMove() == session.getAiToken())
+                throw new IllegalStateException("It is the AI's turn.");
+            session.move(args);
+            return session.encode();
+        }
+    }
+    
+    /**
+     * Handles /ai. The search is run on the search pool with the remaining time of the request budget, measured
+     * from when the request arrived (so time spent waiting in the queue counts).
+     */
+    private String aiMove(Map<String, String> query) throws InterruptedException {
+        GameSession session = session(query);
+        long budgetMillis = query.containsKey("ms") ? Long.parseLong(query.get("ms")) : session.getEngine().getTimeBudgetMillis();
+        long deadline = System.currentTimeMillis() + budgetMillis;
+        char[][] state;
+        synchronized (session) {
+            if (session.isOver() || session.getToMove() != session.getAiToken())
+                throw new IllegalStateException("It is not the AI's turn.");
+            state = session.getState();
+        }
+        EngineConfig config = session.getEngine();
+        UtilityFunction function = session.getEvaluationFunction();
+        Future<String> search = searchPool.submit(() -> {
+            long start = System.nanoTime();
+            long remaining = deadline - System.currentTimeMillis();
+            EngineConfig budgeted = budgetMillis <= 0 || config.getDifficulty() != null ? config
+                    : config.withTimeBudget(remaining > 0 ? config.getLookAhead() : 1, Math.max(remaining, 1));
+            SearchStats moveStats = new SearchStats();
+            String move = MatchRunner.chooseMove(budgeted, function, state, session.getAiToken(), moveStats);
+            metrics.recordMove(System.nanoTime() - start, moveStats);
+            return move;
+        });
+        String args;
+        try {
+            args = search.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Search failed: " + e.getCause());
+        }
+        session.moveFrom(state, args);
+        return args + " " + session.encode();
+    }
+    
+    /**
+     * Handles /end.
+     */
+    private String endGame(Map<String, String> query) {
+        session(query);
+        sessions.remove(Long.parseLong(query.get("id")));
+        return "ok";
+    }
+    
+    /**
+     * Returns the session of the id in a query.
+     * @throws SessionNotFoundException if there is no such session.
+     */
+    private GameSession session(Map<String, String> query) {
+        String id = query.get("id");
+        GameSession session = id == null ? null : sessions.get(Long.parseLong(id));
+        if (session == null)
+            throw new SessionNotFoundException();
+        return session;
+    }
+    
+    /**
+     * Removes games which have not been used for longer than the idle time.
+     */
+    private void removeIdleSessions() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        sessions.values().removeIf(session -> session.getLastUsed() < cutoff);
+    }
+    
+    /**
+     * Parses a token parameter.
+     */
+    private static char token(String value) {
+        if (!value.equals("b") && !value.equals("w"))
+            throw new IllegalArgumentException("Invalid token: " + value);
+        return value.charAt(0);
+    }
+    
+    /**
+     * Runs a request handler and writes its response, translating exceptions to status codes.
+     * @param exchange the exchange to respond to.
+     * @param handler the handler producing the response body.
+     */
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            body = handler.handle(parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch (SessionNotFoundException e) {
+            status = 404;
+            body = "unknown game";
+        } catch (IllegalStateException e) {
+            status = 409;
+            body = e.getMessage();
+        } catch (RejectedExecutionException e) {
+            status = 503;
+            body = "busy";
+        } catch (IllegalArgumentException e) { //Includes NumberFormatException.
+            status = 400;
+            body = String.valueOf(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = 503;
+            body = "interrupted";
+        }
+        byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+    
+    /**
+     * Parses a raw query string.
+     * @param rawQuery the query, may be null.
+     * @return the decoded parameters.
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<String, String>();
+        if (rawQuery == null)
+            return query;
+        for (String parameter : rawQuery.split("&")) {
+            int split = parameter.indexOf('=');
+            if (split > 0)
+                query.put(parameter.substring(0, split), URLDecoder.decode(parameter.substring(split + 1), StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+    
+    /**
+     * A request handler: maps the query parameters to a response body.
+     */
+    private interface Handler {
+        String handle(Map<String, String> query) throws InterruptedException;
+    }
+    
+    /**
+     * Thrown when a request refers to a game which does not exist.
+     */
+    private static class SessionNotFoundException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+    
+    /**
+     * Starts a server.
+     * @param args the options described in the class documentation.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int queue = 256;
+        long idleMinutes = 30;
+        EngineConfig engine = EngineConfig.parse("depth=2,time=1000", "server");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--workers":
+                    workers = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--queue":
+                    queue = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--engine":
+                    engine = EngineConfig.parse(args[i + 1], "server");
+                    break;
+                case "--idle-minutes":
+                    idleMinutes = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+        PentagoServer server = new PentagoServer(port, workers, queue, engine, idleMinutes * 60000);
+        server.getMetrics().register("server-" + server.getPort());
+        server.start();
+        System.out.println("Serving on port " + server.getPort() + " with " + workers + " search threads. Engine: " + engine);
+    }
+}
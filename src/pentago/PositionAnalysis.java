@@ -0,0 +1,69 @@
+package pentago;
+
+import java.util.List;
+
+/**
+ * The result of analyzing a single position (see BatchAnalyzer).
+ */
+public class PositionAnalysis {
+    
+    /** The arguments of the best move. */
+    private final String move;
+    
+    /** The score of the best move, black minus white (Integer.MAX_VALUE / MIN_VALUE for a win of black / white). */
+    private final int score;
+    
+    /** The deepest look ahead that was completed. */
+    private final int depth;
+    
+    /** The amount of nodes generated by the analysis. */
+    private final long nodes;
+    
+    /** The expected line of play, starting with the best move. */
+    private final List<String> principalVariation;
+    
+    /**
+     * Creates an analysis result.
+     * @param move the arguments of the best move.
+     * @param score the score of the best move.
+     * @param depth the deepest look ahead that was completed.
+     * @param nodes the amount of nodes generated.
+     * @param principalVariation the expected line of play, starting with the best move.
+     */
+    public PositionAnalysis(String move, int score, int depth, long nodes, List<String> principalVariation) {
+        this.move = move;
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.principalVariation = principalVariation;
+    }
+    
+    public String getMove() {
+        return move;
+    }
+    
+    public int getScore() {
+        return score;
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    public long getNodes() {
+        return nodes;
+    }
+    
+    public List<String> getPrincipalVariation() {
+        return principalVariation;
+    }
+    
+    /**
+     * Formats the analysis as tab separated fields: move, score, depth, nodes and the principal variation
+     * (moves separated by ", ").
+     */
+    @Override
+    public String toString() {
+        return move + "\t" + score + "\t" + depth + "\t" + nodes + "\t" + String.join(", ", principalVariation);
+    }
+}
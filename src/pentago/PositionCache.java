@@ -0,0 +1,179 @@
+package pentago;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fixed size cache of searched positions, stored in a memory mapped file so it survives restarts and can be
+ * shared between processes (or in memory only, as a transposition table shared between threads). Each entry stores the search depth, score and best move of a position.
+ * - Entries are written without locks: a slot stores (key ^ data, data) and a reader only accepts the slot if
+ *   the two halves xor back to its key, so an entry torn by a concurrent writer is treated as a miss.
+ * - Slots are grouped in buckets of two. A new entry replaces the entry of the same position, or the shallower
+ *   of the two entries.
+ * File format (little endian):
+ *  int magic (MAGIC), int slot count, long reserved
+ *  slot count * 16 byte slots: long check, long data
+ */
+public class PositionCache {
+    
+    /** The magic number at the start of every cache file ("PPC1"). */
+    public static final int MAGIC = 0x50504331;
+    
+    /** The default amount of slots (16 MB file). */
+    public static final int DEFAULT_SLOTS = 1 << 20;
+    
+    /** Value returned by probes that miss. */
+    public static final long MISS = -1;
+    
+    /** The size of the file header in bytes. */
+    private static final int HEADER_SIZE = 16;
+    
+    /** The size of a slot in bytes. */
+    private static final int SLOT_SIZE = 16;
+    
+    /** Atomic long access to the mapped buffer. */
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    
+    /** The mapped cache file. */
+    private final ByteBuffer buffer;
+    
+    /** Mask used to index buckets (slot count - 1, with the lowest bit cleared). */
+    private final int bucketMask;
+    
+    /**
+     * Opens a cache file, creating it with the default amount of slots if it does not exist.
+     * @param path the path of the cache file.
+     */
+    public PositionCache(Path path) throws IOException {
+        this(path, DEFAULT_SLOTS);
+    }
+    
+    /**
+     * Opens a cache file, creating it if it does not exist. An existing file keeps its own slot count.
+     * - The file is locked while it is created and validated, so a process opening a new file does not see it
+     *   before its header is written.
+     * @param path the path of the cache file.
+     * @param slots the amount of slots of a new file. Rounded down to a power of two.
+     */
+    public PositionCache(Path path, int slots) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                FileLock lock = channel.lock()) {
+            if (channel.size() == 0) { //New file. Write the header.
+                slots = Integer.highestOneBit(Math.max(slots, 2));
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(slots).putLong(0).flip();
+                channel.write(header, 0);
+                channel.write(ByteBuffer.allocate(1), HEADER_SIZE + (long) slots * SLOT_SIZE - 1); //Extend to full size.
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.limit() < HEADER_SIZE || mapped.getInt(0) != MAGIC)
+                throw new IOException("Not a position cache: " + path);
+            slots = mapped.getInt(4);
+            if (Integer.bitCount(slots) != 1 || mapped.limit() < HEADER_SIZE + (long) slots * SLOT_SIZE)
+                throw new IOException("Corrupt position cache: " + path);
+            buffer = mapped;
+        }
+        bucketMask = (buffer.getInt(4) - 1) & ~1;
+    }
+    
+    /**
+     * Creates a cache held in memory only, e.g. a transposition table shared by the threads of one process.
+     * @param slots the amount of slots. Rounded down to a power of two, at most 2^26 (1 GB).
+     */
+    public PositionCache(int slots) {
+        slots = Integer.highestOneBit(Math.min(Math.max(slots, 2), 1 << 26));
+        buffer = ByteBuffer.allocateDirect(HEADER_SIZE + slots * SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC).putInt(4, slots);
+        bucketMask = (slots - 1) & ~1;
+    }
+    
+    /**
+     * Looks up a position.
+     * @param key the hash of the position (see BitBoard.hash).
+     * @return the packed entry (see depthOf, scoreOf, moveOf), or MISS if the position is not cached.
+     */
+    public long probe(long key) {
+        int bucket = (int) key & bucketMask;
+        for (int slot = bucket; slot < bucket + 2; slot++) {
+            int offset = HEADER_SIZE + slot * SLOT_SIZE;
+            long check = (long) LONGS.getVolatile(buffer, offset);
+            long data = (long) LONGS.getVolatile(buffer, offset + 8);
+            if ((check ^ data) == key && data != 0)
+                return data;
+        }
+        return MISS;
+    }
+    
+    /**
+     * Stores the result of a search.
+     * @param key the hash of the position (see BitBoard.hash).
+     * @param depth the depth the position was searched to (1 - 255).
+     * @param score the score of the position.
+     * @param move the best move code (see BitBoard).
+     */
+    public void store(long key, int depth, int score, int move) {
+        long data = pack(depth, score, move);
+        int bucket = (int) key & bucketMask;
+        int target = bucket;
+        for (int slot = bucket; slot < bucket + 2; slot++) {
+            int offset = HEADER_SIZE + slot * SLOT_SIZE;
+            long existing = (long) LONGS.getVolatile(buffer, offset + 8);
+            if (((long) LONGS.getVolatile(buffer, offset) ^ existing) == key) { //Same position, keep the deeper search.
+                if (depthOf(existing) > depth)
+                    return;
+                target = slot;
+                break;
+            }
+            long targetData = (long) LONGS.getVolatile(buffer, HEADER_SIZE + target * SLOT_SIZE + 8);
+            if (depthOf(existing) < depthOf(targetData))
+                target = slot;
+        }
+        int offset = HEADER_SIZE + target * SLOT_SIZE;
+        LONGS.setVolatile(buffer, offset + 8, data);
+        LONGS.setVolatile(buffer, offset, key ^ data);
+    }
+    
+    /**
+     * Writes changes to the underlying file.
+     */
+    public void flush() {
+        if (buffer instanceof MappedByteBuffer)
+            ((MappedByteBuffer) buffer).force();
+    }
+    
+    /**
+     * Packs an entry. Bits 0-15: move, bits 16-47: score, bits 48-55: depth.
+     */
+    private static long pack(int depth, int score, int move) {
+        return ((long) (depth & 0xFF) << 48) | ((score & 0xFFFFFFFFL) << 16) | (move & 0xFFFF);
+    }
+    
+    public static int depthOf(long entry) {
+        return (int) (entry >>> 48) & 0xFF;
+    }
+    
+    public static int scoreOf(long entry) {
+        return (int) (entry >>> 16);
+    }
+    
+    public static int moveOf(long entry) {
+        return (int) entry & 0xFFFF;
+    }
+    
+    /**
+     * Returns the amount of slots of the cache.
+     * @return the amount of slots.
+     */
+    public int size() {
+        return bucketMask + 2;
+    }
+}
@@ -0,0 +1,409 @@
+package pentago;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Proves whether a player can force a win, using depth first proof number search (df-pn).
+ * - Works on bitboards (see BitBoard). Wins are detected with the precomputed win lines.
+ * - Proof and disproof numbers are kept in a transposition table of bounded size, so the search runs in a fixed
+ *   amount of memory. Entries of larger subtrees are preferred when the table is full.
+ * - Children are searched with the 1 + epsilon threshold of Pawlewicz and Lew, which avoids most of the
+ *   re-expansion df-pn suffers from when many children have similar proof numbers.
+ * - A draw counts as a failure of the attacker, so a disproof means the defender can at least draw.
+ * Unlike alpha beta on the evaluation function, the search focuses on the moves which are closest to a proof, so
+ * it finds deep forced wins in positions the endgame solver cannot search completely.
+ * Usage: java pentago.ProofNumberSolver [--memory MB] [--time ms] [--attacker b|w] [input ...]
+ * - Positions are read in the text format of BatchAnalyzer (from standard input if no input is given). The attacker
+ *   defaults to the token to move. Output: index, result (win, no win, unknown), nodes, milliseconds and the line.
+ */
+public class ProofNumberSolver {
+    
+    /** Result indicating the attacker can force a win. */
+    public static final int PROVEN = 1;
+    
+    /** Result indicating the defender can avoid losing. */
+    public static final int DISPROVEN = 0;
+    
+    /** Result indicating the search ran out of time. */
+    public static final int UNKNOWN = -1;
+    
+    /** Proof / disproof number of a decided node. Small enough that sums and thresholds cannot overflow. */
+    private static final int INFINITY = Integer.MAX_VALUE / 4;
+    
+    /** The size of a transposition table entry in bytes (key, proof number, disproof number, work). */
+    private static final int ENTRY_SIZE = 20;
+    
+    /** Returned by generate when the node is decided by one of the moves of the player to move. */
+    private static final int DECIDED_BY_MOVE = -1;
+    
+    /** Transposition table keys. */
+    private final long[] keys;
+    
+    /** Transposition table proof numbers. */
+    private final int[] proofNumbers;
+    
+    /** Transposition table disproof numbers. */
+    private final int[] disproofNumbers;
+    
+    /** The amount of nodes searched below each entry. 0 = empty slot. */
+    private final int[] work;
+    
+    /** Mask used to index buckets of two entries. */
+    private final int bucketMask;
+    
+    /** Children generated at each ply: attacker tokens, defender tokens and move code. */
+    private final long[][] childAttackers, childDefenders;
+    private final int[][] childMoves;
+    
+    /** The move which decided the last node generate returned DECIDED_BY_MOVE for. */
+    private int decisiveMove;
+    
+    /** The amount of nodes searched by the last solve. */
+    private long nodes;
+    
+    /** The time at which the current solve gives up, in nanoseconds. */
+    private long deadline;
+    
+    /** Set when the current solve has run out of time. */
+    private boolean aborted;
+    
+    /** The line of the last solve. */
+    private List<String> line;
+    
+    /**
+     * Creates a solver.
+     * @param memoryMegabytes the size of the transposition table in megabytes.
+     */
+    public ProofNumberSolver(int memoryMegabytes) {
+        long entries = Math.max((long) memoryMegabytes * 1024 * 1024 / ENTRY_SIZE, 2);
+        int size = (int) Long.highestOneBit(Math.min(entries, 1 << 30));
+        keys = new long[size];
+        proofNumbers = new int[size];
+        disproofNumbers = new int[size];
+        work = new int[size];
+        bucketMask = (size - 1) & ~1;
+        childAttackers = new long[BitBoard.CELLS + 1][BitBoard.MOVES];
+        childDefenders = new long[BitBoard.CELLS + 1][BitBoard.MOVES];
+        childMoves = new int[BitBoard.CELLS + 1][BitBoard.MOVES];
+        line = new ArrayList<String>();
+    }
+    
+    /**
+     * Proves whether the token to move can force a win.
+     * @param state the state to solve.
+     * @param toMove the token to move.
+     * @param timeLimitMillis the time limit, 0 for none.
+     * @return PROVEN, DISPROVEN or UNKNOWN.
+     */
+    public int solve(char[][] state, char toMove, long timeLimitMillis) {
+        return solve(state, toMove, toMove, timeLimitMillis);
+    }
+    
+    /**
+     * Proves whether a player can force a win. The table is kept between solves, so related positions (e.g.
+     * the positions of one game) are solved faster.
+     * @param state the state to solve.
+     * @param toMove the token to move.
+     * @param attacker the token trying to force a win.
+     * @param timeLimitMillis the time limit, 0 for none.
+     * @return PROVEN, DISPROVEN or UNKNOWN.
+     */
+    public int solve(char[][] state, char toMove, char attacker, long timeLimitMillis) {
+        long attackers = BitBoard.fromState(state, attacker);
+        long defenders = BitBoard.fromState(state, attacker == 'b' ? 'w' : 'b');
+        boolean orNode = toMove == attacker;
+        nodes = 0;
+        aborted = false;
+        deadline = timeLimitMillis > 0 ? System.nanoTime() + timeLimitMillis * 1000000 : Long.MAX_VALUE;
+        line = new ArrayList<String>();
+        char winner = BitBoard.winner(attackers, defenders);
+        if (winner != 'n') //The game is already over.
+            return winner == 'b' ? PROVEN : DISPROVEN; //Only the attacker ('b' in bitboard terms) counts.
+        if ((attackers | defenders) == BitBoard.FULL)
+            return DISPROVEN;
+        mid(attackers, defenders, orNode, INFINITY, INFINITY, 0);
+        int slot = find(key(attackers, defenders, orNode));
+        if (slot < 0 || aborted && proofNumbers[slot] != 0 && disproofNumbers[slot] != 0)
+            return UNKNOWN;
+        boolean proven = proofNumbers[slot] == 0;
+        buildLine(attackers, defenders, orNode, proven);
+        return proven ? PROVEN : DISPROVEN;
+    }
+    
+    /**
+     * Multiple iterative deepening: searches a node until its proof number reaches thPn or its disproof number
+     * reaches thDn, or the time runs out.
+     * @param attackers the attacker's tokens.
+     * @param defenders the defender's tokens.
+     * @param orNode true if the attacker is to move.
+     * @param thPn the proof number threshold.
+     * @param thDn the disproof number threshold.
+     * @param ply the distance from the root of the search.
+     */
+    private void mid(long attackers, long defenders, boolean orNode, int thPn, int thDn, int ply) {
+        nodes++;
+        if ((nodes & 4095) == 0 && System.nanoTime() > deadline)
+            aborted = true;
+        long key = key(attackers, defenders, orNode);
+        long startNodes = nodes;
+        int count = generate(attackers, defenders, orNode, ply);
+        if (count == DECIDED_BY_MOVE) { //An OR node with a winning move, or an AND node with a saving move.
+            store(key, orNode ? 0 : INFINITY, orNode ? INFINITY : 0, 1);
+            return;
+        }
+        if (count == 0) { //Every move is decided the other way.
+            store(key, orNode ? INFINITY : 0, orNode ? 0 : INFINITY, 1);
+            return;
+        }
+        long[] attackerChildren = childAttackers[ply];
+        long[] defenderChildren = childDefenders[ply];
+        while (true) {
+            int pn = orNode ? INFINITY : 0;
+            int dn = orNode ? 0 : INFINITY;
+            int best = 0;
+            int bestValue = INFINITY; //The smallest proof (OR) or disproof (AND) number of the children.
+            int secondValue = INFINITY;
+            for (int i = 0; i < count; i++) {
+                int slot = find(key(attackerChildren[i], defenderChildren[i], !orNode));
+                int childPn = slot < 0 ? 1 : proofNumbers[slot];
+                int childDn = slot < 0 ? 1 : disproofNumbers[slot];
+                int value = orNode ? childPn : childDn;
+                if (orNode) {
+                    pn = Math.min(pn, childPn);
+                    dn = Math.min(dn + childDn, INFINITY);
+                } else {
+                    pn = Math.min(pn + childPn, INFINITY);
+                    dn = Math.min(dn, childDn);
+                }
+                if (value < bestValue) {
+                    secondValue = bestValue;
+                    bestValue = value;
+                    best = i;
+                } else if (value < secondValue) {
+                    secondValue = value;
+                }
+            }
+            if (pn >= thPn || dn >= thDn || aborted) {
+                store(key, pn, dn, (int) Math.min(nodes - startNodes + 1, Integer.MAX_VALUE));
+                return;
+            }
+            int slot = find(key(attackerChildren[best], defenderChildren[best], !orNode));
+            int childPn = slot < 0 ? 1 : proofNumbers[slot];
+            int childDn = slot < 0 ? 1 : disproofNumbers[slot];
+            int epsilonThreshold = (int) Math.min(secondValue + secondValue / 4L + 1, INFINITY); //1 + epsilon, epsilon = 1/4.
+            if (orNode)
+                mid(attackerChildren[best], defenderChildren[best], false, Math.min(thPn, epsilonThreshold), thDn - dn + childDn, ply + 1);
+            else
+                mid(attackerChildren[best], defenderChildren[best], true, thPn - pn + childPn, Math.min(thDn, epsilonThreshold), ply + 1);
+        }
+    }
+    
+    /**
+     * Generates the undecided children of a node into the buffers of a ply. Moves which end the game are not
+     * generated: a move which decides the node returns DECIDED_BY_MOVE (setting decisiveMove), other game
+     * ending moves are skipped.
+     * @return the amount of children, or DECIDED_BY_MOVE.
+     */
+    private int generate(long attackers, long defenders, boolean orNode, int ply) {
+        long mover = orNode ? attackers : defenders;
+        long other = orNode ? defenders : attackers;
+        long empty = ~(attackers | defenders) & BitBoard.FULL;
+        for (long e = empty; e != 0; e &= e - 1) { //Placing five in a row ends the game, the rotation is skipped.
+            if (BitBoard.hasFive(mover | Long.lowestOneBit(e))) {
+                decisiveMove = BitBoard.encode(Long.numberOfTrailingZeros(e), 0, 0);
+                return DECIDED_BY_MOVE;
+            }
+        }
+        long[] attackerChildren = childAttackers[ply];
+        long[] defenderChildren = childDefenders[ply];
+        int[] moves = childMoves[ply];
+        int count = 0;
+        for (long e = empty; e != 0; e &= e - 1) {
+            long placed = mover | Long.lowestOneBit(e);
+            int cell = Long.numberOfTrailingZeros(e);
+            boolean identityAdded = false;
+            for (int move = 0; move < 8; move++) {
+                long nextMover = BitBoard.rotate(placed, move >> 1, move & 1);
+                long nextOther = BitBoard.rotate(other, move >> 1, move & 1);
+                if (nextMover == placed && nextOther == other) { //Rotation leaves the board unchanged.
+                    if (identityAdded)
+                        continue;
+                    identityAdded = true;
+                }
+                boolean moverWins = BitBoard.hasFive(nextMover);
+                boolean otherWins = BitBoard.hasFive(nextOther);
+                boolean over = moverWins || otherWins || (nextMover | nextOther) == BitBoard.FULL;
+                if (over) {
+                    boolean attackerWins = orNode ? moverWins && !otherWins : otherWins && !moverWins;
+                    if (attackerWins == orNode) { //The attacker wins (OR node), or the defender escapes (AND node).
+                        decisiveMove = BitBoard.encode(cell, move >> 1, move & 1);
+                        return DECIDED_BY_MOVE;
+                    }
+                    continue; //Decided against the player to move, as good as no move.
+                }
+                attackerChildren[count] = orNode ? nextMover : nextOther;
+                defenderChildren[count] = orNode ? nextOther : nextMover;
+                moves[count] = BitBoard.encode(cell, move >> 1, move & 1);
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Builds the line of a solved position: for a proof, the attacker's winning moves against the defender's most
+     * stubborn replies; for a disproof, the defender's saving moves against the attacker's most promising tries.
+     * Positions missing from the table are solved again.
+     */
+    private void buildLine(long attackers, long defenders, boolean orNode, boolean proven) {
+        for (int ply = 0; ply <= BitBoard.CELLS; ply++) {
+            int count = generate(attackers, defenders, orNode, ply);
+            if (count == DECIDED_BY_MOVE) {
+                line.add(BitBoard.toArgs(decisiveMove));
+                return;
+            }
+            if (count == 0)
+                return;
+            boolean winnerToMove = orNode == proven; //The player to move needs one good move, not every move.
+            int chosen = -1;
+            int chosenWork = -1;
+            for (int i = 0; i < count && !aborted; i++) {
+                long key = key(childAttackers[ply][i], childDefenders[ply][i], !orNode);
+                int slot = find(key);
+                if (slot < 0 || proofNumbers[slot] != 0 && disproofNumbers[slot] != 0) { //Lost from the table.
+                    mid(childAttackers[ply][i], childDefenders[ply][i], !orNode, INFINITY, INFINITY, ply + 1);
+                    slot = find(key);
+                    if (slot < 0)
+                        continue;
+                }
+                boolean childProven = proofNumbers[slot] == 0;
+                if (winnerToMove) {
+                    if (childProven == proven) { //A move keeping the result.
+                        chosen = i;
+                        break;
+                    }
+                } else if (work[slot] > chosenWork) { //Every move keeps the result, follow the hardest one.
+                    chosen = i;
+                    chosenWork = work[slot];
+                }
+            }
+            if (chosen < 0)
+                return;
+            line.add(BitBoard.toArgs(childMoves[ply][chosen]));
+            long nextAttackers = childAttackers[ply][chosen];
+            long nextDefenders = childDefenders[ply][chosen];
+            attackers = nextAttackers;
+            defenders = nextDefenders;
+            orNode = !orNode;
+        }
+    }
+    
+    /**
+     * Returns the key of a node.
+     */
+    private static long key(long attackers, long defenders, boolean orNode) {
+        return BitBoard.hash(attackers, defenders, orNode ? 'b' : 'w');
+    }
+    
+    /**
+     * Finds the slot of a key.
+     * @return the slot, or -1 if the key is not in the table.
+     */
+    private int find(long key) {
+        int bucket = (int) key & bucketMask;
+        if (keys[bucket] == key && work[bucket] != 0)
+            return bucket;
+        if (keys[bucket + 1] == key && work[bucket + 1] != 0)
+            return bucket + 1;
+        return -1;
+    }
+    
+    /**
+     * Stores the proof and disproof numbers of a node, replacing the entry with the least work if the bucket is full.
+     */
+    private void store(long key, int pn, int dn, int nodeWork) {
+        int bucket = (int) key & bucketMask;
+        int slot;
+        if (keys[bucket] == key || work[bucket] == 0)
+            slot = bucket;
+        else if (keys[bucket + 1] == key || work[bucket + 1] == 0)
+            slot = bucket + 1;
+        else
+            slot = work[bucket] <= work[bucket + 1] ? bucket : bucket + 1;
+        keys[slot] = key;
+        proofNumbers[slot] = pn;
+        disproofNumbers[slot] = dn;
+        work[slot] = Math.max(nodeWork, 1);
+    }
+    
+    /**
+     * Returns the line of the last solve (see buildLine), empty if the result was UNKNOWN or the game was over.
+     * @return the arguments of the moves of the line.
+     */
+    public List<String> getLine() {
+        return line;
+    }
+    
+    /**
+     * Returns the amount of nodes searched by the last solve.
+     * @return the amount of nodes searched.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+    
+    /**
+     * Solves positions and prints the results.
+     * @param args the options described in the class documentation.
+     */
+    public static void main(String[] args) throws IOException {
+        int memory = 256;
+        long time = 10000;
+        char attacker = 0;
+        List<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--memory":
+                    memory = Integer.parseInt(args[++i]);
+                    break;
+                case "--time":
+                    time = Long.parseLong(args[++i]);
+                    break;
+                case "--attacker":
+                    attacker = args[++i].charAt(0);
+                    break;
+                default:
+                    inputs.add(args[i]);
+            }
+        }
+        ProofNumberSolver solver = new ProofNumberSolver(memory);
+        List<BufferedReader> readers = new ArrayList<BufferedReader>();
+        if (inputs.isEmpty())
+            readers.add(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+        for (String input : inputs)
+            readers.add(Files.newBufferedReader(Paths.get(input)));
+        String[] results = {"no win", "win"};
+        int index = 0;
+        for (BufferedReader reader : readers) {
+            try (BufferedReader in = reader) {
+                String text;
+                while ((text = in.readLine()) != null) {
+                    if (text.isBlank() || text.startsWith("#"))
+                        continue;
+                    BatchAnalyzer.Position position = BatchAnalyzer.parsePosition(text.trim());
+                    long start = System.nanoTime();
+                    int result = solver.solve(position.getState(), position.getToken(), attacker == 0 ? position.getToken() : attacker, time);
+                    System.out.println(index++ + "\t" + (result == UNKNOWN ? "unknown" : results[result]) + "\t" + solver.getNodes()
+                            + "\t" + (System.nanoTime() - start) / 1000000 + "\t" + String.join(", ", solver.getLine()));
+                }
+            }
+        }
+    }
+}
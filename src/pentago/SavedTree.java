@@ -0,0 +1,325 @@
+package pentago;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read only, memory mapped game tree saved after a search (see SavedTreeWriter), for analysis without searching
+ * again. Opening a tree costs nothing: nodes are read from the mapped file when they are visited, by index.
+ * - Scores are black minus white, like those of the search. A score is exact or a bound left by alpha beta pruning
+ *   (see GameTreeNode.getBound); only exact scores are the minimax value of their node.
+ * - Nodes which were not evaluated (e.g. expanded but cut off before their subtree was scored) have no score.
+ * File format (big endian):
+ *  int   magic (MAGIC)
+ *  int   node count
+ *  long  black tokens of the root, long white tokens of the root (see BitBoard)
+ *  short look ahead of the search, byte token to move at the root, byte reserved
+ *  nodes breadth first, the root first, each NODE_SIZE bytes:
+ *      int   score
+ *      int   index of the first child (0 if none), the children are consecutive and sorted by move code
+ *      short move code of the move which generated the node (see BitBoard), -1 for the root
+ *      short amount of children
+ *      byte  flags: bound type (bits 0-1), SCORED, MAXIMIZER
+ * Usage: java pentago.SavedTree <file> [move ...]
+ * - Prints the node reached by the moves from the root (b/p bd, e.g. "1/5 2r"), its children best first and its
+ *   principal variation.
+ */
+public class SavedTree {
+    
+    /** The magic number at the start of every saved tree file ("PST1"). */
+    public static final int MAGIC = 0x50535431;
+    
+    /** The size of the file header in bytes. */
+    public static final int HEADER_SIZE = 28;
+    
+    /** The size of a node in bytes. */
+    public static final int NODE_SIZE = 13;
+    
+    /** The index of the root node. */
+    public static final int ROOT = 0;
+    
+    /** Flag of a node which has a score. */
+    static final int SCORED = 4;
+    
+    /** Flag of a node whose token to move is the maximizer. */
+    static final int MAXIMIZER = 8;
+    
+    /** The mask of the bound type in the flags. */
+    private static final int BOUND_MASK = 3;
+    
+    /** The mapped tree file. */
+    private final MappedByteBuffer buffer;
+    
+    /** The amount of nodes in the tree. */
+    private final int nodeCount;
+    
+    /**
+     * Opens and memory maps a saved tree.
+     * @param path the path of the file.
+     * @throws IOException if the file cannot be read or is not a saved tree.
+     */
+    public SavedTree(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a saved tree: " + path);
+        nodeCount = buffer.getInt(4);
+        if (nodeCount < 1 || buffer.limit() < HEADER_SIZE + (long) nodeCount * NODE_SIZE)
+            throw new IOException("Truncated saved tree: " + path);
+    }
+    
+    /**
+     * Returns the amount of nodes in the tree.
+     * @return the amount of nodes.
+     */
+    public int size() {
+        return nodeCount;
+    }
+    
+    /**
+     * Returns the state of the root.
+     * @return a new copy of the state.
+     */
+    public char[][] getRootState() {
+        return BitBoard.toState(buffer.getLong(8), buffer.getLong(16));
+    }
+    
+    /**
+     * Returns the token to move at the root.
+     * @return 'b' or 'w'.
+     */
+    public char getRootToken() {
+        return (char) buffer.get(26);
+    }
+    
+    /**
+     * Returns the look ahead the tree was searched with.
+     * @return the look ahead.
+     */
+    public int getLookAhead() {
+        return buffer.getShort(24);
+    }
+    
+    /**
+     * Returns the score of a node.
+     * @param node the index of the node.
+     * @return the score, only meaningful if the node is scored (see isScored).
+     */
+    public int getScore(int node) {
+        return buffer.getInt(offset(node));
+    }
+    
+    /**
+     * Returns whether the score of a node is exact or a bound.
+     * @param node the index of the node.
+     * @return GameTreeNode.EXACT, LOWER_BOUND or UPPER_BOUND.
+     */
+    public int getBound(int node) {
+        return flags(node) & BOUND_MASK;
+    }
+    
+    /**
+     * Indicates if a node has a score.
+     * @param node the index of the node.
+     * @return true if the node was evaluated or searched.
+     */
+    public boolean isScored(int node) {
+        return (flags(node) & SCORED) != 0;
+    }
+    
+    /**
+     * Indicates if the token to move at a node is the maximizer (black).
+     * @param node the index of the node.
+     * @return true if higher scores are better for the token to move.
+     */
+    public boolean isMaximizer(int node) {
+        return (flags(node) & MAXIMIZER) != 0;
+    }
+    
+    /**
+     * Returns the move code of the move which generated a node (see BitBoard).
+     * @param node the index of the node.
+     * @return the move code, or -1 for the root.
+     */
+    public int getMove(int node) {
+        return buffer.getShort(offset(node) + 8);
+    }
+    
+    /**
+     * Returns the arguments of the move which generated a node.
+     * @param node the index of the node.
+     * @return the arguments (b/p bd), or null for the root.
+     */
+    public String getArgs(int node) {
+        int move = getMove(node);
+        return move < 0 ? null : BitBoard.toArgs(move);
+    }
+    
+    /**
+     * Returns the amount of children of a node.
+     * @param node the index of the node.
+     * @return the amount of children, 0 for a leaf.
+     */
+    public int getChildCount(int node) {
+        return buffer.getShort(offset(node) + 10) & 0xFFFF;
+    }
+    
+    /**
+     * Returns a child of a node.
+     * @param node the index of the node.
+     * @param child the number of the child, from 0 to getChildCount - 1 (in move code order).
+     * @return the index of the child.
+     */
+    public int getChild(int node, int child) {
+        if (child < 0 || child >= getChildCount(node))
+            throw new IndexOutOfBoundsException("Child " + child + " of node " + node);
+        return buffer.getInt(offset(node) + 4) + child;
+    }
+    
+    /**
+     * Finds the child of a node generated by a move, with a binary search over the move codes of the children.
+     * @param node the index of the node.
+     * @param move the move code (see BitBoard).
+     * @return the index of the child, or -1 if the node has no such child.
+     */
+    public int findChild(int node, int move) {
+        int first = buffer.getInt(offset(node) + 4);
+        int low = 0;
+        int high = getChildCount(node) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int code = getMove(first + middle);
+            if (code < move)
+                low = middle + 1;
+            else if (code > move)
+                high = middle - 1;
+            else
+                return first + middle;
+        }
+        return -1;
+    }
+    
+    /**
+     * Finds the node reached by a line of moves from the root. Moves equivalent to a saved move (see
+     * GameTreeNode.getEquivalentMoves) lead to the saved move's child.
+     * @param moves the arguments of the moves (b/p bd).
+     * @return the index of the node, or -1 if the line leaves the saved tree.
+     * @throws IllegalArgumentException if a move is not valid.
+     */
+    public int find(List<String> moves) {
+        int node = ROOT;
+        char[][] state = getRootState();
+        char token = getRootToken();
+        for (String args : moves) {
+            if (!GameState.isValidArgument(args))
+                throw new IllegalArgumentException("Invalid move: " + args);
+            int child = -1;
+            for (String equivalent : new GameTreeNode(null, state, token, 0, token == 'b', "none").getEquivalentMoves(args.toLowerCase())) {
+                child = findChild(node, BitBoard.fromArgs(equivalent)); //The tree keeps one of the equivalent moves. 
+                if (child >= 0)
+                    break;
+            }
+            if (child < 0)
+                return -1;
+            node = child;
+            state = GameState.alter(state, token, args.toLowerCase());
+            token = token == 'b' ? 'w' : 'b';
+        }
+        return node;
+    }
+    
+    /**
+     * Returns the scored children of a node, best first for the token to move at the node.
+     * @param node the index of the node.
+     * @return the indices of the children.
+     */
+    public List<Integer> getScoredChildren(int node) {
+        ArrayList<Integer> children = new ArrayList<Integer>();
+        for (int i = 0; i < getChildCount(node); i++) {
+            if (isScored(getChild(node, i)))
+                children.add(getChild(node, i));
+        }
+        boolean maximizer = isMaximizer(node);
+        children.sort((a, b) -> maximizer ? Integer.compare(getScore(b), getScore(a)) : Integer.compare(getScore(a), getScore(b)));
+        return children;
+    }
+    
+    /**
+     * Returns the principal variation of a node: the best scored child of each node, until a leaf.
+     * @param node the index of the node.
+     * @return the arguments of the moves of the line, empty if the node has no scored children.
+     */
+    public List<String> getPrincipalVariation(int node) {
+        ArrayList<String> line = new ArrayList<String>();
+        List<Integer> children = getScoredChildren(node);
+        while (!children.isEmpty()) {
+            node = children.get(0);
+            line.add(getArgs(node));
+            children = getScoredChildren(node);
+        }
+        return line;
+    }
+    
+    /**
+     * Returns the offset of a node in the file.
+     */
+    private int offset(int node) {
+        if (node < 0 || node >= nodeCount)
+            throw new IndexOutOfBoundsException("Node " + node + " of " + nodeCount);
+        return HEADER_SIZE + node * NODE_SIZE;
+    }
+    
+    /**
+     * Returns the flags of a node.
+     */
+    private int flags(int node) {
+        return buffer.get(offset(node) + 12);
+    }
+    
+    /**
+     * Formats the score of a node with its bound type, e.g. "<=12".
+     */
+    private String formatScore(int node) {
+        if (!isScored(node))
+            return "?";
+        int bound = getBound(node);
+        return (bound == GameTreeNode.LOWER_BOUND ? ">=" : bound == GameTreeNode.UPPER_BOUND ? "<=" : "") + getScore(node);
+    }
+    
+    /**
+     * Prints a node of a saved tree.
+     * @param args the file, then the moves leading to the node.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java pentago.SavedTree <file> [move ...]");
+            return;
+        }
+        SavedTree tree = new SavedTree(Paths.get(args[0]));
+        String[] words = String.join(" ", Arrays.copyOfRange(args, 1, args.length)).trim().split("\\s+");
+        ArrayList<String> moves = new ArrayList<String>();
+        for (int i = 0; i + 1 < words.length; i += 2) //Each move is two words, e.g. 1/5 2r.
+            moves.add(words[i] + " " + words[i + 1]);
+        int node = tree.find(moves);
+        System.out.println(tree.size() + " nodes, look ahead " + tree.getLookAhead() + ", root token " + tree.getRootToken());
+        if (node < 0) {
+            System.out.println("The line " + moves + " is not in the tree.");
+            return;
+        }
+        System.out.println("Node " + node + ": score " + tree.formatScore(node) + ", " + tree.getChildCount(node) + " children, "
+                + (tree.isMaximizer(node) ? "b" : "w") + " to move");
+        for (int child : tree.getScoredChildren(node))
+            System.out.println("  " + tree.getArgs(child) + "\t" + tree.formatScore(child) + "\t" + tree.getChildCount(child) + " children");
+        System.out.println("Principal variation: " + String.join(", ", tree.getPrincipalVariation(node)));
+    }
+}
@@ -0,0 +1,76 @@
+package pentago;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * Writes a searched game tree to a file in the format of SavedTree, so it can be analyzed after the game without
+ * searching it again (see GameTree.saveTree).
+ * - Nodes are written breadth first, so the children of every node are consecutive and a node only stores the
+ *   index of its first child. Children are sorted by move code.
+ * - Only the nodes which exist are written: subtrees pruned by alpha beta and subtrees of streaming searches
+ *   (which are not kept) are missing, and the nodes above them keep their scores and bounds.
+ */
+public final class SavedTreeWriter {
+    
+    private SavedTreeWriter() {
+    }
+    
+    /**
+     * Writes a tree.
+     * @param root the root of the tree to write.
+     * @param lookAhead the look ahead the tree was searched with, stored for reference.
+     * @param path the file to write.
+     * @return the amount of nodes written.
+     * @throws IOException if the file cannot be written, or the tree has more nodes than a file can map.
+     */
+    public static int write(GameTreeNode root, int lookAhead, Path path) throws IOException {
+        long count = root.countNodes();
+        if (SavedTree.HEADER_SIZE + count * SavedTree.NODE_SIZE > Integer.MAX_VALUE)
+            throw new IOException("Tree too large to save: " + count + " nodes.");
+        char[][] state = root.getState();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(SavedTree.MAGIC);
+            out.writeInt((int) count);
+            out.writeLong(BitBoard.fromState(state, 'b'));
+            out.writeLong(BitBoard.fromState(state, 'w'));
+            out.writeShort(lookAhead);
+            out.writeByte(root.getToken());
+            out.writeByte(0);
+            ArrayDeque<GameTreeNode> queue = new ArrayDeque<GameTreeNode>();
+            queue.add(root);
+            int next = 1; //The index of the first child of the next node with children.
+            while (!queue.isEmpty()) {
+                GameTreeNode node = queue.poll();
+                ArrayList<GameTreeNode> children = new ArrayList<GameTreeNode>(node.getChildren().values());
+                children.sort(Comparator.comparingInt(SavedTreeWriter::moveCode));
+                int flags = node.getBound();
+                if (node.isEvaluated())
+                    flags |= SavedTree.SCORED;
+                if (node.isMaximizer())
+                    flags |= SavedTree.MAXIMIZER;
+                out.writeInt(node.getScore());
+                out.writeInt(children.isEmpty() ? 0 : next);
+                out.writeShort(node == root ? -1 : moveCode(node));
+                out.writeShort(children.size());
+                out.writeByte(flags);
+                next += children.size();
+                queue.addAll(children);
+            }
+        }
+        return (int) count;
+    }
+    
+    /**
+     * Returns the move code of the move which generated a node (see BitBoard).
+     */
+    private static int moveCode(GameTreeNode node) {
+        return BitBoard.fromArgs(node.getArgs());
+    }
+}
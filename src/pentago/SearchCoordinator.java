@@ -0,0 +1,410 @@
+package pentago;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the search of a position over SearchWorker processes, so deep analyses are not limited by the heap and GC
+ * of one JVM.
+ * - The root is expanded once and its moves are ordered best first by their evaluation. The first move is searched
+ *   alone with a full window, so the others are searched with its score as their bound (principal variation
+ *   splitting). The other moves are then handed out one at a time to whichever worker is free, each with the best
+ *   score so far as its bound, so workers which finish early take more moves.
+ * - A worker whose connection fails is dropped and its move is given to another worker.
+ * - The scores are the same as those of a streaming GameTree search of the same depth without the opening book,
+ *   tablebase, tactical scan or endgame solver.
+ * Usage: java pentago.SearchCoordinator [--workers N] [--connect host:port,...] [--depth N] [--engine spec]
+ *                                      [--worker-heap size] [position]
+ * - Launches N local worker processes (default 2), unless --connect lists running workers.
+ * - The position is in the text format of BatchAnalyzer (36 characters, a space and the token to move); the empty
+ *   board with black to move by default. See EngineConfig.parse for the engine spec format.
+ */
+public class SearchCoordinator implements Closeable {
+    
+    /** The connections to the workers. */
+    private final List<WorkerConnection> workers;
+    
+    /** The worker processes launched by the coordinator, destroyed when it is closed. */
+    private final List<Process> processes;
+    
+    /** The evaluation function the root moves are ordered with. */
+    private final UtilityFunction function;
+    
+    /** The threads which talk to the workers, one per worker. */
+    private final ExecutorService pool;
+    
+    /**
+     * Creates a coordinator connected to running workers.
+     * @param addresses the addresses of the workers.
+     * @param engine the engine of the workers, whose evaluation function orders the root moves.
+     * @throws IOException if a worker cannot be connected to.
+     */
+    public SearchCoordinator(List<InetSocketAddress> addresses, EngineConfig engine) throws IOException {
+        this(addresses, engine, new ArrayList<Process>());
+    }
+    
+    private SearchCoordinator(List<InetSocketAddress> addresses, EngineConfig engine, List<Process> processes) throws IOException {
+        this.processes = processes;
+        function = engine.createEvaluationFunction();
+        workers = new ArrayList<WorkerConnection>();
+        try {
+            for (InetSocketAddress address : addresses)
+                workers.add(new WorkerConnection(address));
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        pool = Executors.newFixedThreadPool(Math.max(workers.size(), 1));
+    }
+    
+    /**
+     * Launches worker processes on this machine, with the class path of this JVM, and connects to them.
+     * @param count the amount of workers.
+     * @param engine the engine spec of the workers (see EngineConfig.parse).
+     * @param maxHeap the maximum heap of each worker (e.g. 2g), or null for the JVM default.
+     * @return the coordinator, which destroys the workers when closed.
+     * @throws IOException if a worker cannot be launched or connected to.
+     */
+    public static SearchCoordinator launchLocal(int count, String engine, String maxHeap) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ArrayList<Process> processes = new ArrayList<Process>();
+        ArrayList<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+        try {
+            for (int i = 0; i < count; i++) {
+                ArrayList<String> command = new ArrayList<String>();
+                command.add(java);
+                if (maxHeap != null)
+                    command.add("-Xmx" + maxHeap);
+                command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), SearchWorker.class.getName(),
+                        "--port", "0", "--engine", engine));
+                Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                processes.add(process);
+                BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+                String line = out.readLine();
+                if (line == null || !line.startsWith("Listening on port "))
+                    throw new IOException("Worker did not start: " + line);
+                addresses.add(new InetSocketAddress("localhost", Integer.parseInt(line.substring(18).trim())));
+            }
+            return new SearchCoordinator(addresses, EngineConfig.parse(engine, "coordinator"), processes);
+        } catch (IOException | RuntimeException e) {
+            for (Process process : processes)
+                process.destroy();
+            throw e;
+        }
+    }
+    
+    /**
+     * Searches a position to a depth on the workers.
+     * @param state the state to search.
+     * @param token the token to move.
+     * @param depth the look ahead, at least 1.
+     * @return the best move with its score and the nodes generated by the workers, or null if no move can be made.
+     *         The principal variation only holds the best move.
+     * @throws IOException if every worker failed.
+     */
+    public PositionAnalysis analyze(char[][] state, char token, int depth) throws IOException, InterruptedException {
+        GameTreeNode root = new GameTreeNode(null, state, token, 0, token == 'b', "none");
+        root.expand();
+        ArrayList<GameTreeNode> children = new ArrayList<GameTreeNode>(root.getChildren().values());
+        if (children.isEmpty())
+            return null;
+        for (GameTreeNode child : children)
+            child.evaluate(function);
+        children.sort((a, b) -> root.isMaximizer() ? Integer.compare(b.getScore(), a.getScore()) : Integer.compare(a.getScore(), b.getScore()));
+        Split split = new Split(root.isMaximizer(), children, depth - 1);
+        if (depth > 1) {
+            split.runFirst(); //The principal variation first, for a tight bound.
+            split.runAll();
+        } else {
+            split.best = children.get(0);
+            split.bestScore = children.get(0).getScore();
+        }
+        return new PositionAnalysis(split.best.getArgs(), split.bestScore, depth, split.nodes, List.of(split.best.getArgs()));
+    }
+    
+    /**
+     * Tells the workers to close their connections and destroys the launched worker processes.
+     */
+    @Override
+    public void close() {
+        if (pool != null)
+            pool.shutdownNow();
+        for (WorkerConnection worker : workers)
+            worker.quit();
+        for (Process process : processes)
+            process.destroy();
+    }
+    
+    /**
+     * The state of the search of one root: the moves left to search and the best move so far.
+     */
+    private class Split {
+        
+        /** Indicates if the root is a maximizer. */
+        private final boolean maximizer;
+        
+        /** The children of the root which have not been handed out yet, best first. */
+        private final ArrayDeque<GameTreeNode> queue;
+        
+        /** The best child so far, or null. */
+        private GameTreeNode best;
+        
+        /** The score of the best child so far. */
+        private int bestScore;
+        
+        /** The nodes generated for the search, by the coordinator and the workers. */
+        private long nodes;
+        
+        /** The look ahead of the children. */
+        private final int depth;
+        
+        Split(boolean maximizer, List<GameTreeNode> children, int depth) {
+            this.maximizer = maximizer;
+            this.depth = depth;
+            queue = new ArrayDeque<GameTreeNode>(children);
+            nodes = children.size(); //Generated by the coordinator, as a GameTree counts them.
+            bestScore = maximizer ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        }
+        
+        /**
+         * Searches the first child with a full window, on the first worker which does not fail.
+         * @throws IOException if every worker failed.
+         */
+        void runFirst() throws IOException {
+            for (WorkerConnection worker : workers) {
+                if (worker.isAlive())
+                    work(worker, false);
+                if (best != null)
+                    return;
+            }
+            throw new IOException("No search workers left.");
+        }
+        
+        /**
+         * Searches the remaining children on every worker, each taking the next child when it is done.
+         * @throws IOException if every worker failed before the children were searched.
+         */
+        void runAll() throws IOException, InterruptedException {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (WorkerConnection worker : workers) {
+                if (worker.isAlive())
+                    futures.add(pool.submit(() -> work(worker, true)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Search failed: " + e.getCause(), e.getCause());
+                }
+            }
+            if (!queue.isEmpty()) { //Workers failed after the others had finished.
+                if (workers.stream().noneMatch(WorkerConnection::isAlive))
+                    throw new IOException("No search workers left.");
+                runAll();
+            }
+        }
+        
+        /**
+         * Searches children on a worker, one at a time.
+         * @param repeat false to stop after one child.
+         */
+        private void work(WorkerConnection worker, boolean repeat) {
+            GameTreeNode child;
+            while ((child = next()) != null) {
+                int bound;
+                synchronized (this) {
+                    bound = bestScore;
+                }
+                int score;
+                try {
+                    score = maximizer ? worker.search(child, depth, bound, Integer.MAX_VALUE) : worker.search(child, depth, Integer.MIN_VALUE, bound);
+                } catch (IOException e) { //Give the child to another worker.
+                    worker.fail(e);
+                    synchronized (this) {
+                        queue.addFirst(child);
+                    }
+                    return;
+                }
+                synchronized (this) {
+                    nodes += worker.lastNodes;
+                    if (best == null || (maximizer ? score > bestScore : score < bestScore)) {
+                        best = child;
+                        bestScore = score;
+                    }
+                    if (bestScore == (maximizer ? Integer.MAX_VALUE : Integer.MIN_VALUE)) //A win is found, no other child can be better.
+                        queue.clear();
+                }
+                if (!repeat)
+                    return;
+            }
+        }
+        
+        /**
+         * Takes the next child to search, or null if none are left.
+         */
+        private synchronized GameTreeNode next() {
+            return queue.pollFirst();
+        }
+    }
+    
+    /**
+     * A connection to a worker. Used by one thread at a time.
+     */
+    private static class WorkerConnection {
+        
+        private final InetSocketAddress address;
+        
+        private final Socket socket;
+        
+        private final DataInputStream in;
+        
+        private final DataOutputStream out;
+        
+        /** The nodes of the last search. */
+        private long lastNodes;
+        
+        /** False once the connection failed. */
+        private volatile boolean alive;
+        
+        WorkerConnection(InetSocketAddress address) throws IOException {
+            this.address = address;
+            socket = new Socket(address.getHostString(), address.getPort());
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readInt() != SearchWorker.MAGIC || in.readByte() != SearchWorker.VERSION) {
+                socket.close();
+                throw new IOException("Not a search worker: " + address);
+            }
+            alive = true;
+        }
+        
+        /**
+         * Scores a child of the root on the worker.
+         * @return the score, or a bound on the side of the window it fell on.
+         */
+        int search(GameTreeNode child, int depth, int alpha, int beta) throws IOException {
+            char[][] state = child.getState();
+            out.writeByte(SearchWorker.SEARCH);
+            out.writeLong(BitBoard.fromState(state, 'b'));
+            out.writeLong(BitBoard.fromState(state, 'w'));
+            out.writeByte(child.getToken());
+            out.writeByte(depth);
+            out.writeInt(alpha);
+            out.writeInt(beta);
+            out.flush();
+            int score = in.readInt();
+            lastNodes = in.readLong();
+            return score;
+        }
+        
+        boolean isAlive() {
+            return alive;
+        }
+        
+        void fail(IOException e) {
+            alive = false;
+            System.err.println("Worker " + address + " failed: " + e);
+            try {
+                socket.close();
+            } catch (IOException closeError) { //Already broken.
+            }
+        }
+        
+        void quit() {
+            if (!alive)
+                return;
+            try {
+                out.writeByte(SearchWorker.QUIT);
+                out.flush();
+                socket.close();
+            } catch (IOException e) { //The worker is gone already.
+            }
+            alive = false;
+        }
+    }
+    
+    /**
+     * Searches a position on local or running workers and prints the result.
+     * @param args the options described in the class documentation.
+     */
+    public static void main(String[] args) throws Exception {
+        int count = 2;
+        String connect = null;
+        int depth = 3;
+        String engine = "";
+        String maxHeap = null;
+        String position = null;
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 < args.length && args[i].startsWith("--")) {
+                switch (args[i]) {
+                    case "--workers":
+                        count = Integer.parseInt(args[++i]);
+                        break;
+                    case "--connect":
+                        connect = args[++i];
+                        break;
+                    case "--depth":
+                        depth = Integer.parseInt(args[++i]);
+                        break;
+                    case "--engine":
+                        engine = args[++i];
+                        break;
+                    case "--worker-heap":
+                        maxHeap = args[++i];
+                        break;
+                    default:
+                        System.out.println("Unknown option: " + args[i]);
+                        return;
+                }
+            } else {
+                position = position == null ? args[i] : position + " " + args[i];
+            }
+        }
+        BatchAnalyzer.Position parsed = position == null ? new BatchAnalyzer.Position(GameState.initialState, 'b') 
+                : BatchAnalyzer.parsePosition(position);
+        SearchCoordinator coordinator;
+        if (connect == null) {
+            coordinator = launchLocal(count, engine, maxHeap);
+        } else {
+            ArrayList<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+            for (String address : connect.split(",")) {
+                int colon = address.lastIndexOf(':');
+                addresses.add(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+            }
+            coordinator = new SearchCoordinator(addresses, EngineConfig.parse(engine, "coordinator"));
+        }
+        try {
+            long start = System.currentTimeMillis();
+            PositionAnalysis analysis = coordinator.analyze(parsed.getState(), parsed.getToken(), depth);
+            long millis = System.currentTimeMillis() - start;
+            if (analysis == null) {
+                System.out.println("No moves can be made.");
+                return;
+            }
+            System.out.println(analysis);
+            System.out.println("Searched in " + millis + " ms on " + coordinator.workers.size() + " workers, "
+                    + analysis.getNodes() * 1000 / Math.max(millis, 1) + " nodes/s.");
+        } finally {
+            coordinator.close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package pentago;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a move chosen by a GameTree, from the start of the choice to the chosen move.
+ * - Disabled unless a recording enables it, e.g. java -XX:StartFlightRecording:settings=profile or
+ *   jcmd <pid> JFR.start. A disabled event is never filled in, so it costs one check per move.
+ * - The position and move identify slow searches, the duration lines them up with GC and other JVM events.
+ */
+@Name("pentago.Search")
+@Label("Pentago Search")
+@Category("Pentago")
+@Description("A move chosen by the game tree.")
+@StackTrace(false)
+public class SearchEvent extends Event {
+    
+    @Label("Position")
+    @Description("The searched state, 36 characters row by row.")
+    String position;
+    
+    @Label("Token")
+    @Description("The token to move.")
+    char token;
+    
+    @Label("Move")
+    @Description("The chosen move (b/p bd), or null if no move could be made.")
+    String move;
+    
+    @Label("Score")
+    int score;
+    
+    @Label("Depth")
+    @Description("The depth the move was searched to, or 0 if it was known without a search (opening book, tablebase, tactics, endgame solver).")
+    int depth;
+    
+    @Label("Nodes")
+    @Description("The nodes generated for the move, 0 if the move was known (opening book, tablebase, cache...).")
+    long nodes;
+}
@@ -0,0 +1,129 @@
+package pentago;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The pending result of a search started with GameTree.getNextAsync.
+ * - get() returns the chosen node. The tree moves to the chosen node when the search completes.
+ * - cancel() stops the search. A cancelled search leaves the tree at the node it started from.
+ * - getBestSoFar() returns the best move of the deepest level searched so far.
+ */
+public class SearchFuture extends FutureTask<GameTreeNode> {
+    
+    /** The flag which stops the expansion of the search when set. */
+    private final AtomicBoolean stop;
+    
+    /** A flag which is also set when the search is cancelled (see linkStopFlag), or null. */
+    private AtomicBoolean linkedStop;
+    
+    /** The best move of the deepest level searched so far, null if no level has been searched. */
+    private volatile String bestSoFar;
+    
+    /** Indicates if the search has moved the tree to its result. A committed search can no longer be cancelled. */
+    private boolean committed;
+    
+    /**
+     * Creates a search of the next move of a tree.
+     * @param tree the tree to search.
+     */
+    SearchFuture(GameTree tree) {
+        this(new Search(tree));
+    }
+    
+    /**
+     * Creates a search running a search task.
+     * @param search the task, which is given a reference to this future.
+     */
+    private SearchFuture(Search search) {
+        super(search);
+        search.future = this;
+        stop = new AtomicBoolean();
+    }
+    
+    /**
+     * Stops the search. Has no effect if the search has already moved the tree to its result.
+     * @param mayInterruptIfRunning whether the thread running the search is interrupted.
+     * @return true if the search was cancelled.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (committed)
+                return false;
+            stop.set(true);
+            if (linkedStop != null)
+                linkedStop.set(true);
+        }
+        return super.cancel(mayInterruptIfRunning);
+    }
+    
+    /**
+     * Links a flag which is also set when the search is cancelled, e.g. the stop flag of a time manager which stops 
+     * the deeper levels of the search at the hard limit of the move. 
+     * @param flag the flag to link. Set at once if the search has already been cancelled. 
+     */
+    synchronized void linkStopFlag(AtomicBoolean flag) {
+        linkedStop = flag;
+        if (stop.get())
+            flag.set(true);
+    }
+    
+    /**
+     * Returns the best move found so far. Before the search completes this is the choice of the deepest fully
+     * searched level of iterative deepening, so it is weaker than the final result.
+     * @return the arguments of the best move so far, or null if no level has been searched yet.
+     */
+    public String getBestSoFar() {
+        return bestSoFar;
+    }
+    
+    /**
+     * Sets the best move found so far.
+     * @param args the arguments of the move.
+     */
+    void setBestSoFar(String args) {
+        bestSoFar = args;
+    }
+    
+    /**
+     * Returns the flag which stops the expansion of the search.
+     * @return the stop flag.
+     */
+    AtomicBoolean getStopFlag() {
+        return stop;
+    }
+    
+    /**
+     * Marks the search as committed, after which it can no longer be cancelled.
+     * @return false if the search was cancelled first, in which case its result must be discarded.
+     */
+    synchronized boolean commit() {
+        if (stop.get())
+            return false;
+        committed = true;
+        return true;
+    }
+    
+    /**
+     * The task run by the future.
+     */
+    private static class Search implements Callable<GameTreeNode> {
+        
+        /** The tree to search. */
+        private final GameTree tree;
+        
+        /** The future running this task. */
+        private SearchFuture future;
+        
+        private Search(GameTree tree) {
+            this.tree = tree;
+        }
+        
+        @Override
+        public GameTreeNode call() {
+            return tree.searchNext(future);
+        }
+    }
+}
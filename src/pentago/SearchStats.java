@@ -0,0 +1,150 @@
+package pentago;
+
+/**
+ * Counters describing the searches performed by a GameTree.
+ */
+public class SearchStats {
+    
+    /** The amount of searches performed. */
+    private long searches;
+    
+    /** The amount of nodes generated by the searches. */
+    private long nodes;
+    
+    /** The total time spent searching, in nanoseconds. */
+    private long nanos;
+    
+    /** The depth reached by the last search. */
+    private int lastDepth;
+    
+    /** The amount of nodes generated by the last search. */
+    private long lastNodes;
+    
+    /** The amount of evaluation cache lookups made by the searches. */
+    private long cacheProbes;
+    
+    /** The amount of evaluation cache lookups which found a score. */
+    private long cacheHits;
+    
+    /** The amount of searches cut short by the memory budget of the tree. */
+    private long truncatedSearches;
+    
+    /**
+     * Records a completed search.
+     * @param nodes the amount of nodes generated.
+     * @param nanos the time taken in nanoseconds.
+     * @param depth the depth searched to.
+     */
+    public void recordSearch(long nodes, long nanos, int depth) {
+        searches++;
+        this.nodes += nodes;
+        this.nanos += nanos;
+        lastDepth = depth;
+        lastNodes = nodes;
+    }
+    
+    /**
+     * Records the evaluation cache lookups of a search.
+     * @param probes the amount of lookups.
+     * @param hits the amount of lookups which found a score.
+     */
+    public void recordEvaluationCache(long probes, long hits) {
+        cacheProbes += probes;
+        cacheHits += hits;
+    }
+    
+    /**
+     * Records a search which the memory budget of the tree cut short of its look ahead.
+     */
+    public void recordTruncatedSearch() {
+        truncatedSearches++;
+    }
+    
+    /**
+     * Adds the counters of another stats object to this one.
+     * @param other the stats to add.
+     */
+    public void add(SearchStats other) {
+        searches += other.searches;
+        nodes += other.nodes;
+        nanos += other.nanos;
+        lastDepth = other.lastDepth;
+        lastNodes = other.lastNodes;
+        cacheProbes += other.cacheProbes;
+        cacheHits += other.cacheHits;
+        truncatedSearches += other.truncatedSearches;
+    }
+    
+    /**
+     * Returns the counters recorded since an earlier copy of these stats was taken.
+     * @param earlier a copy of these stats (see add), taken before the searches to count.
+     * @return the searches recorded since the copy was taken.
+     */
+    public SearchStats since(SearchStats earlier) {
+        SearchStats difference = new SearchStats();
+        difference.searches = searches - earlier.searches;
+        difference.nodes = nodes - earlier.nodes;
+        difference.nanos = nanos - earlier.nanos;
+        difference.lastDepth = lastDepth;
+        difference.lastNodes = lastNodes;
+        difference.cacheProbes = cacheProbes - earlier.cacheProbes;
+        difference.cacheHits = cacheHits - earlier.cacheHits;
+        difference.truncatedSearches = truncatedSearches - earlier.truncatedSearches;
+        return difference;
+    }
+    
+    /**
+     * Returns the amount of nodes generated per second of searching.
+     * @return the nodes per second, 0 if no time has been spent searching.
+     */
+    public double getNodesPerSecond() {
+        return nanos == 0 ? 0 : nodes * 1e9 / nanos;
+    }
+    
+    /**
+     * Returns the fraction of evaluation cache lookups which found a score.
+     * @return the hit rate, 0 if the cache has not been used.
+     */
+    public double getEvaluationCacheHitRate() {
+        return cacheProbes == 0 ? 0 : (double) cacheHits / cacheProbes;
+    }
+    
+    public long getSearches() {
+        return searches;
+    }
+    
+    public long getNodes() {
+        return nodes;
+    }
+    
+    public long getNanos() {
+        return nanos;
+    }
+    
+    public int getLastDepth() {
+        return lastDepth;
+    }
+    
+    public long getLastNodes() {
+        return lastNodes;
+    }
+    
+    public long getEvaluationCacheProbes() {
+        return cacheProbes;
+    }
+    
+    public long getEvaluationCacheHits() {
+        return cacheHits;
+    }
+    
+    public long getTruncatedSearches() {
+        return truncatedSearches;
+    }
+    
+    @Override
+    public String toString() {
+        return "searches=" + searches + " nodes=" + nodes + " ms=" + (nanos / 1000000) + " nodes/s=" + Math.round(getNodesPerSecond())
+                + (cacheProbes == 0 ? "" : " eval cache hits=" + Math.round(getEvaluationCacheHitRate() * 100) + "%")
+                + (truncatedSearches == 0 ? "" : " truncated=" + truncatedSearches);
+    }
+}
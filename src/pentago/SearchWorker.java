@@ -0,0 +1,147 @@
+package pentago;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Searches subtrees for a SearchCoordinator in a separate JVM, so a search is not limited by the heap and GC of one
+ * process. Listens on the loopback interface and serves one coordinator connection at a time.
+ * Protocol (big endian, see DataOutputStream). On connect the worker sends MAGIC (int) and VERSION (byte). Then
+ * the coordinator sends requests and the worker answers each before reading the next:
+ *  SEARCH - black (long), white (long), token to move (byte), depth (byte), alpha (int), beta (int): scores the
+ *           position to the depth within the window (see GameTree.searchScore). Answer: score (int), nodes (long).
+ *  QUIT   - closes the connection. No answer.
+ * Usage: java pentago.SearchWorker [--port N] [--engine spec]
+ * - With port 0 (the default) a free port is chosen. The port is printed as "Listening on port N", so a
+ *   coordinator which launched the worker can connect to it.
+ * - See EngineConfig.parse for the engine spec format. Only the evaluation function of the engine is used, and
+ *   must match the coordinator's.
+ */
+public class SearchWorker {
+    
+    /** Sent by the worker when a connection opens, "PTGW". */
+    static final int MAGIC = 0x50544757;
+    
+    /** The version of the protocol. */
+    static final byte VERSION = 1;
+    
+    /** Request: search a position. */
+    static final byte SEARCH = 1;
+    
+    /** Request: close the connection. */
+    static final byte QUIT = 2;
+    
+    /** The socket connections are accepted on. */
+    private final ServerSocket server;
+    
+    /** The evaluation function subtrees are scored with, reused between requests so its cache stays warm. */
+    private final UtilityFunction function;
+    
+    /**
+     * Creates a worker listening on the loopback interface.
+     * @param port the port to listen on, 0 for a free port.
+     * @param engine the engine whose evaluation function is used.
+     */
+    public SearchWorker(int port, EngineConfig engine) throws IOException {
+        server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+        function = engine.createEvaluationFunction();
+    }
+    
+    /**
+     * Returns the port the worker listens on.
+     * @return the port.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+    
+    /**
+     * Serves coordinator connections, one at a time, until the server socket is closed.
+     */
+    public void serve() throws IOException {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                socket.setTcpNoDelay(true);
+                serve(socket);
+            } catch (IOException e) {
+                if (server.isClosed())
+                    return;
+                System.err.println("Connection failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Closes the server socket. A connection being served is finished first.
+     */
+    public void close() throws IOException {
+        server.close();
+    }
+    
+    /**
+     * Serves the requests of one connection until QUIT or the end of the stream.
+     */
+    private void serve(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.flush();
+        while (true) {
+            byte request;
+            try {
+                request = in.readByte();
+            } catch (EOFException e) { //The coordinator went away.
+                return;
+            }
+            if (request == QUIT)
+                return;
+            if (request != SEARCH)
+                throw new IOException("Unknown request: " + request);
+            long black = in.readLong();
+            long white = in.readLong();
+            char token = (char) in.readByte();
+            int depth = in.readByte();
+            int alpha = in.readInt();
+            int beta = in.readInt();
+            GameTree tree = new GameTree(BitBoard.toState(black, white), token, depth, function, true);
+            int score = tree.searchScore(alpha, beta);
+            out.writeInt(score);
+            out.writeLong(tree.getStats().getNodes());
+            out.flush();
+        }
+    }
+    
+    /**
+     * Starts a worker.
+     * @param args the options described in the class documentation.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 0;
+        EngineConfig engine = EngineConfig.parse("", "worker");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--engine":
+                    engine = EngineConfig.parse(args[i + 1], "worker");
+                    break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+        SearchWorker worker = new SearchWorker(port, engine);
+        System.out.println("Listening on port " + worker.getPort());
+        System.out.flush();
+        worker.serve();
+    }
+}
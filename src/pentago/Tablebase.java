@@ -0,0 +1,406 @@
+package pentago;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Read only, memory mapped table of exact endgame values (see TablebaseGenerator).
+ * - Positions are stored from the point of view of the player to move (mine / theirs), so the token to move
+ *   does not matter. Each position is indexed by its rank: the position read as a base 3 number
+ *   (cell i contributes 3^i times 0 = empty, 1 = mine, 2 = theirs), minimized over the 8 symmetries of the board.
+ * - Entries are sorted by rank and split into blocks of a fixed amount of entries. Each block is compressed on
+ *   its own, so a probe only inflates one block. The last block decoded by each thread is kept.
+ * File format (big endian):
+ *  int magic (MAGIC), int minimum stones, int block size, int block count, long entry count
+ *  block count * 20 byte index entries: long first rank, long offset of the block in the file, int compressed length
+ *  blocks, each deflated: (entries - 1) varint rank deltas, then one byte per 4 values (2 bits each, value + 1)
+ */
+public class Tablebase {
+    
+    /** The magic number at the start of every tablebase file ("PTB1"). */
+    public static final int MAGIC = 0x50544231;
+    
+    /** The default amount of entries per block. */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    
+    /** Value returned by probes of positions which are not in the table. */
+    public static final int MISS = Integer.MIN_VALUE;
+    
+    /** The size of the file header in bytes. */
+    private static final int HEADER_SIZE = 24;
+    
+    /** The size of a block index entry in bytes. */
+    private static final int INDEX_ENTRY_SIZE = 20;
+    
+    /** 3^i for each cell i. */
+    private static final long[] POWERS = buildPowers();
+    
+    /** The base 3 value of every row, indexed by (mine row bits | theirs row bits << 6). */
+    private static final long[] ROW_RANKS = buildRowRanks();
+    
+    /** The mapped table file. */
+    private final MappedByteBuffer buffer;
+    
+    /** The minimum amount of stones of the positions in the table. */
+    private final int minStones;
+    
+    /** The amount of entries per block. */
+    private final int blockSize;
+    
+    /** The amount of entries in the table. */
+    private final long entryCount;
+    
+    /** The first rank of each block. */
+    private final long[] firstRanks;
+    
+    /** The offset of each block in the file. */
+    private final long[] offsets;
+    
+    /** The compressed length of each block. */
+    private final int[] lengths;
+    
+    /** The last block decoded by each thread. */
+    private final ThreadLocal<Block> blocks;
+    
+    /**
+     * Opens a tablebase file.
+     * @param path the path of the file.
+     */
+    public Tablebase(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Tablebase too large to map: " + path);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a tablebase: " + path);
+        minStones = buffer.getInt(4);
+        blockSize = buffer.getInt(8);
+        int blockCount = buffer.getInt(12);
+        entryCount = buffer.getLong(16);
+        if (blockSize <= 0 || blockCount < 0 || HEADER_SIZE + (long) blockCount * INDEX_ENTRY_SIZE > buffer.limit())
+            throw new IOException("Corrupt tablebase: " + path);
+        firstRanks = new long[blockCount];
+        offsets = new long[blockCount];
+        lengths = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            int position = HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+            firstRanks[i] = buffer.getLong(position);
+            offsets[i] = buffer.getLong(position + 8);
+            lengths[i] = buffer.getInt(position + 16);
+            if (offsets[i] < 0 || offsets[i] + lengths[i] > buffer.limit())
+                throw new IOException("Corrupt tablebase: " + path);
+        }
+        blocks = ThreadLocal.withInitial(() -> new Block(blockSize));
+    }
+    
+    /**
+     * Returns the value of a position.
+     * @param mine the tokens of the player to move.
+     * @param theirs the tokens of the opponent.
+     * @return EndgameSolver.WIN, DRAW or LOSS for the player to move, or MISS if the position is not in the table.
+     */
+    public int probe(long mine, long theirs) {
+        if (Long.bitCount(mine | theirs) < minStones || firstRanks.length == 0)
+            return MISS;
+        long rank = canonicalRank(mine, theirs);
+        int low = 0;
+        int high = firstRanks.length - 1;
+        while (low < high) { //Find the last block starting at or before the rank.
+            int middle = (low + high + 1) >>> 1;
+            if (firstRanks[middle] <= rank)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        if (firstRanks[low] > rank)
+            return MISS;
+        Block block = blocks.get();
+        if (block.index != low)
+            decode(low, block);
+        int entry = Arrays.binarySearch(block.ranks, 0, block.count, rank);
+        if (entry < 0)
+            return MISS;
+        return ((block.values[entry >> 2] >> ((entry & 3) * 2)) & 3) - 1;
+    }
+    
+    /**
+     * Returns the value of a state.
+     * @param state the state to probe.
+     * @param token the token to move.
+     * @return EndgameSolver.WIN, DRAW or LOSS for the token to move, or MISS if the position is not in the table.
+     */
+    public int probe(char[][] state, char token) {
+        return probe(BitBoard.fromState(state, token), BitBoard.fromState(state, token == 'b' ? 'w' : 'b'));
+    }
+    
+    /**
+     * Returns the best move of a state in the table. Prefers wins, then draws.
+     * @param state the state to find the best move of.
+     * @param token the token to move.
+     * @return the move code of the best move (see BitBoard), or -1 if the state is not in the table.
+     */
+    public int bestMove(char[][] state, char token) {
+        long mine = BitBoard.fromState(state, token);
+        long theirs = BitBoard.fromState(state, token == 'b' ? 'w' : 'b');
+        if (probe(mine, theirs) == MISS)
+            return -1;
+        long empty = ~(mine | theirs) & BitBoard.FULL;
+        for (long e = empty; e != 0; e &= e - 1) { //Placing five in a row ends the game, the rotation is skipped.
+            if (BitBoard.hasFive(mine | Long.lowestOneBit(e)))
+                return BitBoard.encode(Long.numberOfTrailingZeros(e), 0, 0);
+        }
+        int bestMove = -1;
+        int bestValue = EndgameSolver.LOSS - 1;
+        for (long e = empty; e != 0; e &= e - 1) {
+            long placed = mine | Long.lowestOneBit(e);
+            for (int move = 0; move < 8; move++) {
+                long nextMine = BitBoard.rotate(placed, move >> 1, move & 1);
+                long nextTheirs = BitBoard.rotate(theirs, move >> 1, move & 1);
+                int value = EndgameSolver.terminalValue(nextMine, nextTheirs);
+                if (value == Integer.MIN_VALUE) {
+                    int childValue = probe(nextTheirs, nextMine);
+                    if (childValue == MISS) //Every child of a stored position is stored, the table is incomplete.
+                        return -1;
+                    value = -childValue;
+                }
+                if (value > bestValue) {
+                    bestValue = value;
+                    bestMove = BitBoard.encode(Long.numberOfTrailingZeros(e), move >> 1, move & 1);
+                    if (value == EndgameSolver.WIN)
+                        return bestMove;
+                }
+            }
+        }
+        return bestMove;
+    }
+    
+    /**
+     * Inflates a block.
+     * @param index the index of the block.
+     * @param block the block to decode into.
+     */
+    private void decode(int index, Block block) {
+        int count = (int) Math.min(blockSize, entryCount - (long) index * blockSize);
+        ByteBuffer compressed = buffer.duplicate();
+        compressed.position((int) offsets[index]).limit((int) offsets[index] + lengths[index]);
+        Inflater inflater = block.inflater;
+        inflater.reset();
+        inflater.setInput(compressed);
+        int length = 0;
+        try {
+            while (!inflater.finished() && length < block.data.length) {
+                int read = inflater.inflate(block.data, length, block.data.length - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                length += read;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt tablebase block " + index, e);
+        }
+        long rank = firstRanks[index];
+        block.ranks[0] = rank;
+        int position = 0;
+        for (int i = 1; i < count; i++) { //Varint deltas.
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = block.data[position++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            rank += delta;
+            block.ranks[i] = rank;
+        }
+        System.arraycopy(block.data, position, block.values, 0, (count + 3) / 4);
+        block.count = count;
+        block.index = index;
+    }
+    
+    /**
+     * Writes a tablebase file.
+     * @param out the stream to write to.
+     * @param minStones the minimum amount of stones of the positions in the table.
+     * @param blockSize the amount of entries per block.
+     * @param ranks the canonical ranks of the positions, sorted ascending without duplicates.
+     * @param values the value of each position (EndgameSolver.WIN, DRAW or LOSS).
+     * @param count the amount of positions.
+     */
+    static void write(DataOutputStream out, int minStones, int blockSize, long[] ranks, byte[] values, int count) throws IOException {
+        int blockCount = (count + blockSize - 1) / blockSize;
+        byte[][] compressed = new byte[blockCount][];
+        byte[] data = new byte[blockSize * 9 + blockSize / 4 + 1]; //Worst case varints plus packed values.
+        byte[] output = new byte[data.length + 64];
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        for (int block = 0; block < blockCount; block++) {
+            int start = block * blockSize;
+            int end = Math.min(start + blockSize, count);
+            int length = 0;
+            for (int i = start + 1; i < end; i++) {
+                long delta = ranks[i] - ranks[i - 1];
+                while ((delta & ~0x7FL) != 0) {
+                    data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                    delta >>>= 7;
+                }
+                data[length++] = (byte) delta;
+            }
+            for (int i = start; i < end; i += 4) {
+                int packed = 0;
+                for (int j = i; j < Math.min(i + 4, end); j++)
+                    packed |= (values[j] + 1) << ((j - i) * 2);
+                data[length++] = (byte) packed;
+            }
+            deflater.reset();
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == output.length)
+                    output = Arrays.copyOf(output, output.length * 2);
+                compressedLength += deflater.deflate(output, compressedLength, output.length - compressedLength);
+            }
+            compressed[block] = Arrays.copyOf(output, compressedLength);
+        }
+        deflater.end();
+        out.writeInt(MAGIC);
+        out.writeInt(minStones);
+        out.writeInt(blockSize);
+        out.writeInt(blockCount);
+        out.writeLong(count);
+        long offset = HEADER_SIZE + (long) blockCount * INDEX_ENTRY_SIZE;
+        for (int block = 0; block < blockCount; block++) {
+            out.writeLong(ranks[block * blockSize]);
+            out.writeLong(offset);
+            out.writeInt(compressed[block].length);
+            offset += compressed[block].length;
+        }
+        for (byte[] block : compressed)
+            out.write(block);
+    }
+    
+    /**
+     * Returns the base 3 rank of a position.
+     * @param mine the tokens of the player to move.
+     * @param theirs the tokens of the opponent.
+     * @return the rank of the position.
+     */
+    static long rank(long mine, long theirs) {
+        long rank = 0;
+        for (int row = 0; row < 6; row++) {
+            int index = (int) ((mine >>> (row * 6)) & 63) | (int) (((theirs >>> (row * 6)) & 63) << 6);
+            rank += ROW_RANKS[index] * POWERS[row * 6];
+        }
+        return rank;
+    }
+    
+    /**
+     * Returns the lowest rank of the symmetric forms of a position. Symmetric positions share the same value.
+     * @param mine the tokens of the player to move.
+     * @param theirs the tokens of the opponent.
+     * @return the canonical rank of the position.
+     */
+    static long canonicalRank(long mine, long theirs) {
+        long best = rank(mine, theirs);
+        for (int symmetry = 1; symmetry < BitBoard.SYMMETRIES; symmetry++)
+            best = Math.min(best, rank(BitBoard.transform(mine, symmetry), BitBoard.transform(theirs, symmetry)));
+        return best;
+    }
+    
+    /**
+     * Converts a rank back to a position.
+     * @param rank the rank to convert.
+     * @param position receives the tokens of the player to move (index 0) and of the opponent (index 1).
+     */
+    static void unrank(long rank, long[] position) {
+        long mine = 0;
+        long theirs = 0;
+        for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+            int digit = (int) (rank % 3);
+            rank /= 3;
+            if (digit == 1)
+                mine |= 1L << cell;
+            else if (digit == 2)
+                theirs |= 1L << cell;
+        }
+        position[0] = mine;
+        position[1] = theirs;
+    }
+    
+    /**
+     * Returns the minimum amount of stones of the positions in the table.
+     * @return the minimum amount of stones.
+     */
+    public int getMinStones() {
+        return minStones;
+    }
+    
+    /**
+     * Returns the amount of positions in the table.
+     * @return the amount of positions.
+     */
+    public long size() {
+        return entryCount;
+    }
+    
+    private static long[] buildPowers() {
+        long[] powers = new long[BitBoard.CELLS];
+        powers[0] = 1;
+        for (int i = 1; i < powers.length; i++)
+            powers[i] = powers[i - 1] * 3;
+        return powers;
+    }
+    
+    private static long[] buildRowRanks() {
+        long[] rowRanks = new long[1 << 12];
+        for (int mine = 0; mine < 64; mine++) {
+            for (int theirs = 0; theirs < 64; theirs++) {
+                if ((mine & theirs) != 0)
+                    continue;
+                long rank = 0;
+                for (int column = 5; column >= 0; column--)
+                    rank = rank * 3 + ((mine >> column) & 1) + ((theirs >> column) & 1) * 2;
+                rowRanks[mine | theirs << 6] = rank;
+            }
+        }
+        return rowRanks;
+    }
+    
+    /**
+     * A decoded block.
+     */
+    private static class Block {
+        
+        /** The index of the decoded block, -1 if none. */
+        private int index;
+        
+        /** The amount of entries in the block. */
+        private int count;
+        
+        private final long[] ranks;
+        
+        private final byte[] values;
+        
+        /** The inflated bytes of the block. */
+        private final byte[] data;
+        
+        private final Inflater inflater;
+        
+        private Block(int blockSize) {
+            index = -1;
+            ranks = new long[blockSize];
+            values = new byte[(blockSize + 3) / 4];
+            data = new byte[blockSize * 9 + blockSize / 4 + 1];
+            inflater = new Inflater();
+        }
+    }
+}
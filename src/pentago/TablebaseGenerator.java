@@ -0,0 +1,389 @@
+package pentago;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Offline generator for Tablebase files. Solves every position with at least a minimum amount of stones that can
+ * be reached from a set of seed positions, and writes the exact values as a tablebase.
+ * - Every position of pentago with K stones or more is far too many to store for any K below ~33, so the table
+ *   covers the positions reachable from the seeds: seed positions from a file (one position per line in the
+ *   format of BatchAnalyzer) and / or positions reached by random play from the initial state.
+ * - Positions are grouped in layers by their amount of stones. Every move adds a stone, so the children of a layer
+ *   are all in the next layer. The layers are generated forwards from the seeds, then solved backwards starting
+ *   from the fullest layer (retrograde analysis), each layer looking up the values of the layer after it.
+ * - Each layer is processed in parallel, split into chunks of positions.
+ * - Positions are stored by canonical rank (see Tablebase), so symmetric positions are generated and solved once.
+ * Usage: java pentago.TablebaseGenerator [--stones K (30)] [--seeds file] [--random N] [--threads N] [--block-size N] <output file>
+ */
+public class TablebaseGenerator {
+    
+    /** The amount of positions processed by one task. */
+    private static final int CHUNK_SIZE = 1 << 14;
+    
+    /** The minimum amount of stones of the positions in the table. */
+    private final int minStones;
+    
+    /** The amount of threads to generate with. */
+    private final int threads;
+    
+    /** The canonical ranks of the positions of each layer, indexed by amount of stones. Sorted, without duplicates. */
+    private final long[][] layers;
+    
+    /** The values of the positions of each layer. */
+    private final byte[][] values;
+    
+    /**
+     * Creates a new tablebase generator.
+     * @param minStones the minimum amount of stones of the positions in the table.
+     * @param threads the amount of threads to generate with.
+     */
+    public TablebaseGenerator(int minStones, int threads) {
+        this.minStones = minStones;
+        this.threads = threads;
+        layers = new long[BitBoard.CELLS + 1][];
+        values = new byte[BitBoard.CELLS + 1][];
+        for (int stones = 0; stones <= BitBoard.CELLS; stones++)
+            layers[stones] = new long[0];
+    }
+    
+    /**
+     * Adds a seed position. Positions with fewer stones than the minimum, or which are already over, are ignored.
+     * @param state the position.
+     * @param token the token to move.
+     * @return true if the position was added.
+     */
+    public boolean addSeed(char[][] state, char token) {
+        long mine = BitBoard.fromState(state, token);
+        long theirs = BitBoard.fromState(state, token == 'b' ? 'w' : 'b');
+        int stones = Long.bitCount(mine | theirs);
+        if (stones < minStones || BitBoard.hasFive(mine) || BitBoard.hasFive(theirs) || stones == BitBoard.CELLS)
+            return false;
+        long[] layer = layers[stones];
+        layer = Arrays.copyOf(layer, layer.length + 1);
+        layer[layer.length - 1] = Tablebase.canonicalRank(mine, theirs);
+        layers[stones] = layer; //Sorted when the layer is generated.
+        return true;
+    }
+    
+    /**
+     * Adds seed positions reached by random play from the initial state.
+     * @param count the amount of seeds to add.
+     * @param random the source of randomness.
+     */
+    public void addRandomSeeds(int count, Random random) {
+        int added = 0;
+        while (added < count) {
+            long mine = 0;
+            long theirs = 0;
+            boolean over = false;
+            for (int stones = 0; stones < minStones && !over; stones++) {
+                long empty = ~(mine | theirs) & BitBoard.FULL;
+                int cell = nthBit(empty, random.nextInt(Long.bitCount(empty)));
+                int move = random.nextInt(8);
+                long nextMine = BitBoard.rotate(mine | (1L << cell), move >> 1, move & 1);
+                long nextTheirs = BitBoard.rotate(theirs, move >> 1, move & 1);
+                over = EndgameSolver.terminalValue(nextMine, nextTheirs) != Integer.MIN_VALUE;
+                mine = nextTheirs; //The opponent moves next.
+                theirs = nextMine;
+            }
+            if (over)
+                continue;
+            long[] layer = layers[minStones];
+            layer = Arrays.copyOf(layer, layer.length + 1);
+            layer[layer.length - 1] = Tablebase.canonicalRank(mine, theirs);
+            layers[minStones] = layer;
+            added++;
+        }
+    }
+    
+    /**
+     * Generates and solves every position reachable from the seeds, and writes the table to a file.
+     * @param output the file to write.
+     * @param blockSize the amount of entries per block of the file.
+     * @return the amount of positions in the table.
+     */
+    public long generate(Path output, int blockSize) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int stones = minStones; stones < BitBoard.CELLS; stones++) { //Forwards: collect the positions.
+                layers[stones] = sortUnique(layers[stones], layers[stones].length);
+                long[] children = expandLayer(pool, layers[stones]);
+                long[] next = Arrays.copyOf(layers[stones + 1], layers[stones + 1].length + children.length);
+                System.arraycopy(children, 0, next, layers[stones + 1].length, children.length);
+                layers[stones + 1] = next;
+                System.err.println("layer " + stones + ": " + layers[stones].length + " positions");
+            }
+            layers[BitBoard.CELLS] = new long[0]; //Full boards are over and never stored.
+            for (int stones = BitBoard.CELLS - 1; stones >= minStones; stones--) { //Backwards: solve the positions.
+                values[stones] = solveLayer(pool, stones);
+                System.err.println("solved layer " + stones);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        int count = 0;
+        for (int stones = minStones; stones < BitBoard.CELLS; stones++)
+            count += layers[stones].length;
+        long[] packed = new long[count]; //rank << 2 | value + 1: sorting the packed entries sorts by rank.
+        int index = 0;
+        for (int stones = minStones; stones < BitBoard.CELLS; stones++) {
+            for (int i = 0; i < layers[stones].length; i++)
+                packed[index++] = layers[stones][i] << 2 | (values[stones][i] + 1);
+            layers[stones] = null;
+            values[stones] = null;
+        }
+        Arrays.parallelSort(packed);
+        long[] ranks = new long[count];
+        byte[] entryValues = new byte[count];
+        for (int i = 0; i < count; i++) {
+            ranks[i] = packed[i] >>> 2;
+            entryValues[i] = (byte) ((packed[i] & 3) - 1);
+        }
+        packed = null;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+            Tablebase.write(out, minStones, blockSize, ranks, entryValues, count);
+        }
+        return count;
+    }
+    
+    /**
+     * Collects the children of every position of a layer which do not end the game.
+     * @param pool the threads to expand with.
+     * @param layer the canonical ranks of the positions of the layer.
+     * @return the canonical ranks of the children, sorted without duplicates.
+     */
+    private long[] expandLayer(ExecutorService pool, long[] layer) throws InterruptedException {
+        List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+        for (int start = 0; start < layer.length; start += CHUNK_SIZE) {
+            int from = start;
+            int to = Math.min(start + CHUNK_SIZE, layer.length);
+            tasks.add(() -> expandChunk(layer, from, to));
+        }
+        List<long[]> chunks = collect(pool.invokeAll(tasks));
+        int total = 0;
+        for (long[] chunk : chunks)
+            total += chunk.length;
+        long[] children = new long[total];
+        int index = 0;
+        for (long[] chunk : chunks) {
+            System.arraycopy(chunk, 0, children, index, chunk.length);
+            index += chunk.length;
+        }
+        return sortUnique(children, total);
+    }
+    
+    /**
+     * Collects the children of the positions of part of a layer.
+     * @return the canonical ranks of the children, sorted without duplicates.
+     */
+    private static long[] expandChunk(long[] layer, int from, int to) {
+        long[] children = new long[1024];
+        int count = 0;
+        long[] position = new long[2];
+        for (int i = from; i < to; i++) {
+            Tablebase.unrank(layer[i], position);
+            long mine = position[0];
+            long theirs = position[1];
+            long empty = ~(mine | theirs) & BitBoard.FULL;
+            if (winsByPlacing(mine, empty)) //Decided without looking at the children.
+                continue;
+            for (long e = empty; e != 0; e &= e - 1) {
+                long placed = mine | Long.lowestOneBit(e);
+                for (int move = 0; move < 8; move++) {
+                    long nextMine = BitBoard.rotate(placed, move >> 1, move & 1);
+                    long nextTheirs = BitBoard.rotate(theirs, move >> 1, move & 1);
+                    if (EndgameSolver.terminalValue(nextMine, nextTheirs) != Integer.MIN_VALUE)
+                        continue;
+                    if (count == children.length) {
+                        count = sortUnique(children, count).length;
+                        if (count > children.length / 2)
+                            children = Arrays.copyOf(children, children.length * 2);
+                    }
+                    children[count++] = Tablebase.canonicalRank(nextTheirs, nextMine);
+                }
+            }
+        }
+        return sortUnique(children, count);
+    }
+    
+    /**
+     * Solves every position of a layer. The values of the next layer must be known.
+     * @param pool the threads to solve with.
+     * @param stones the amount of stones of the layer.
+     * @return the values of the positions of the layer.
+     */
+    private byte[] solveLayer(ExecutorService pool, int stones) throws InterruptedException {
+        long[] layer = layers[stones];
+        byte[] layerValues = new byte[layer.length];
+        List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+        for (int start = 0; start < layer.length; start += CHUNK_SIZE) {
+            int from = start;
+            int to = Math.min(start + CHUNK_SIZE, layer.length);
+            tasks.add(() -> {
+                long[] position = new long[2];
+                for (int i = from; i < to; i++) {
+                    Tablebase.unrank(layer[i], position);
+                    layerValues[i] = (byte) solvePosition(position[0], position[1], stones + 1);
+                }
+                return null;
+            });
+        }
+        collect(pool.invokeAll(tasks));
+        return layerValues;
+    }
+    
+    /**
+     * Calculates the value of a position from the values of its children.
+     * @param mine the tokens of the player to move.
+     * @param theirs the tokens of the opponent.
+     * @param nextStones the amount of stones of the children.
+     * @return EndgameSolver.WIN, DRAW or LOSS for the player to move.
+     */
+    private int solvePosition(long mine, long theirs, int nextStones) {
+        long empty = ~(mine | theirs) & BitBoard.FULL;
+        if (winsByPlacing(mine, empty))
+            return EndgameSolver.WIN;
+        int best = EndgameSolver.LOSS;
+        for (long e = empty; e != 0; e &= e - 1) {
+            long placed = mine | Long.lowestOneBit(e);
+            for (int move = 0; move < 8; move++) {
+                long nextMine = BitBoard.rotate(placed, move >> 1, move & 1);
+                long nextTheirs = BitBoard.rotate(theirs, move >> 1, move & 1);
+                int value = EndgameSolver.terminalValue(nextMine, nextTheirs);
+                if (value == Integer.MIN_VALUE) {
+                    int index = Arrays.binarySearch(layers[nextStones], Tablebase.canonicalRank(nextTheirs, nextMine));
+                    value = -values[nextStones][index]; //Every child was collected in the forward pass.
+                }
+                if (value > best) {
+                    best = value;
+                    if (best == EndgameSolver.WIN)
+                        return best;
+                }
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Returns true if placing a token in one of the empty cells makes five in a row.
+     */
+    private static boolean winsByPlacing(long mine, long empty) {
+        for (long e = empty; e != 0; e &= e - 1) {
+            if (BitBoard.hasFive(mine | Long.lowestOneBit(e)))
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Sorts the start of an array and removes duplicates.
+     * @param array the array to sort, modified in place.
+     * @param count the amount of elements to sort.
+     * @return a copy of the distinct elements, sorted.
+     */
+    private static long[] sortUnique(long[] array, int count) {
+        if (count > CHUNK_SIZE)
+            Arrays.parallelSort(array, 0, count);
+        else
+            Arrays.sort(array, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || array[i] != array[unique - 1])
+                array[unique++] = array[i];
+        }
+        return Arrays.copyOf(array, unique);
+    }
+    
+    /**
+     * Waits for tasks and returns their results, rethrowing the first failure.
+     */
+    private static List<long[]> collect(List<Future<long[]>> futures) throws InterruptedException {
+        List<long[]> results = new ArrayList<long[]>();
+        for (Future<long[]> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Tablebase generation failed", e.getCause());
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Returns the index of the nth set bit of a bitboard.
+     */
+    private static int nthBit(long bits, int n) {
+        for (int i = 0; i < n; i++)
+            bits &= bits - 1;
+        return Long.numberOfTrailingZeros(bits);
+    }
+    
+    /**
+     * Generates a tablebase.
+     * @param args the options described in the class documentation.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int stones = 30;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int blockSize = Tablebase.DEFAULT_BLOCK_SIZE;
+        int randomSeeds = 0;
+        Path seeds = null;
+        Path output = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--stones":
+                    stones = Integer.parseInt(args[++i]);
+                    break;
+                case "--seeds":
+                    seeds = Paths.get(args[++i]);
+                    break;
+                case "--random":
+                    randomSeeds = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--block-size":
+                    blockSize = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    output = Paths.get(args[i]);
+            }
+        }
+        if (output == null || seeds == null && randomSeeds == 0) {
+            System.err.println("Usage: java pentago.TablebaseGenerator [--stones K] [--seeds file] [--random N] [--threads N] [--block-size N] <output file>");
+            System.exit(1);
+        }
+        TablebaseGenerator generator = new TablebaseGenerator(stones, threads);
+        if (seeds != null) {
+            try (BufferedReader in = Files.newBufferedReader(seeds)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isBlank() || line.startsWith("#"))
+                        continue;
+                    BatchAnalyzer.Position position = BatchAnalyzer.parsePosition(line.trim());
+                    generator.addSeed(position.getState(), position.getToken());
+                }
+            }
+        }
+        generator.addRandomSeeds(randomSeeds, new Random());
+        long start = System.nanoTime();
+        long count = generator.generate(output, blockSize);
+        System.err.println(count + " positions written to " + output + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
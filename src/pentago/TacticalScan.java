@@ -0,0 +1,71 @@
+package pentago;
+
+/**
+ * Finds the moves which decide the game within one move, without building a tree.
+ * - A move wins immediately if it completes a line of the mover (see GameState.isWinningMove). Moves are played
+ *   as GameState.alter plays them: a placement which ends the game is not followed by a rotation.
+ * - A move blocks the opponent if the opponent has no immediately winning reply after it.
+ * - Works on bitboards (see BitBoard): a scan checks the win lines touched by each of the at most 36 * 9
+ *   placements and rotations, which takes microseconds. Positions passed in must not have a winner.
+ */
+public final class TacticalScan {
+    
+    private TacticalScan() {
+    }
+    
+    /**
+     * Finds a move which wins immediately.
+     * @param black the b tokens of the position.
+     * @param white the w tokens of the position.
+     * @param token the token to move.
+     * @return the move code (see BitBoard.encode) of a winning move, or -1 if there is none.
+     */
+    public static int findWin(long black, long white, char token) {
+        if (Long.bitCount(token == 'b' ? black : white) < 4) //A line needs 4 tokens and the placed one.
+            return -1;
+        long empty = ~(black | white) & BitBoard.FULL;
+        for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+            if ((empty & (1L << cell)) == 0)
+                continue;
+            long placedBlack = token == 'b' ? black | (1L << cell) : black;
+            long placedWhite = token == 'b' ? white : white | (1L << cell);
+            char winner = GameState.isWinningMove(placedBlack, placedWhite, cell, -1);
+            if (winner == token)
+                return BitBoard.encode(cell, 0, 0);
+            if (winner != 'n') //The game ends on the placement, whichever block is rotated.
+                continue;
+            for (int block = 0; block < 4; block++) {
+                for (int direction = 0; direction < 2; direction++) {
+                    if (GameState.isWinningMove(BitBoard.rotate(placedBlack, block, direction), BitBoard.rotate(placedWhite, block, direction), cell, block) == token)
+                        return BitBoard.encode(cell, block, direction);
+                }
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns true if a move leaves the opponent a move which wins immediately, or loses on its own (the rotation
+     * completes a line of the opponent only).
+     * @param black the b tokens of the position.
+     * @param white the w tokens of the position.
+     * @param token the token to move.
+     * @param move the move code of the move (see BitBoard.encode).
+     * @return true if the opponent wins on or after the move.
+     */
+    public static boolean allowsWin(long black, long white, char token, int move) {
+        char opponent = token == 'b' ? 'w' : 'b';
+        long placed = 1L << BitBoard.cell(move);
+        long nextBlack = token == 'b' ? black | placed : black;
+        long nextWhite = token == 'b' ? white : white | placed;
+        char winner = GameState.isWinningMove(nextBlack, nextWhite, BitBoard.cell(move), -1);
+        if (winner == 'n') {
+            nextBlack = BitBoard.rotate(nextBlack, BitBoard.block(move), BitBoard.direction(move));
+            nextWhite = BitBoard.rotate(nextWhite, BitBoard.block(move), BitBoard.direction(move));
+            winner = GameState.isWinningMove(nextBlack, nextWhite, BitBoard.cell(move), BitBoard.block(move));
+        }
+        if (winner != 'n') //The game is over: a tie, or a win of either token.
+            return winner == opponent;
+        return findWin(nextBlack, nextWhite, opponent) >= 0;
+    }
+}
@@ -0,0 +1,194 @@
+package pentago;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Spends a game clock (total time plus an increment per move) over the moves of a game, for an engine which deepens
+ * its search one level at a time.
+ * - Before a move, startMove sets a soft limit (the time the move should take) and a hard limit (the time it may
+ *   take). The soft limit is the remaining clock shared by the moves expected to be left, scaled by the phase of the
+ *   game: the branching factor is 8 moves per empty cell, so the midgame gets the most time, while the opening
+ *   (little to calculate) and the endgame (solved exactly, see EndgameSolver) get less.
+ * - After each completed level, continueSearch decides whether to start the next one. A best move which has not
+ *   changed over the last levels shrinks the soft limit, a changed best move or a swinging score grows it. A won or
+ *   lost score ends the move at once. The next level is only started if it is expected to finish within the hard
+ *   limit, predicted from how much longer the last level took than the one before (after the first level, from
+ *   the branching factor).
+ * - A level still running at the hard limit is stopped through the stop flag (see getStopFlag), and the move of the
+ *   last completed level is played.
+ * - endMove charges the time of the move to the clock and adds the increment.
+ */
+public class TimeManager {
+    
+    /** The most moves the remaining clock is shared by. Games rarely last longer, and ending early keeps time. */
+    private static final int MAX_MOVES_TO_GO = 10;
+    
+    /** The score difference between two levels at which the score is considered volatile. */
+    private static final int VOLATILE_SCORE = 8;
+    
+    /** The time kept on the clock for overhead, in milliseconds. */
+    private static final long RESERVE_MILLIS = 50;
+    
+    /** Sets the stop flags of moves which reach their hard limit. Shared by every time manager. */
+    private static final ScheduledExecutorService ALARMS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pentago-clock");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /** The remaining time on the clock, in milliseconds. */
+    private long remainingMillis;
+    
+    /** The time added to the clock after each move, in milliseconds. */
+    private final long incrementMillis;
+    
+    /** The time the current move started, in nanoseconds (System.nanoTime). */
+    private long moveStart;
+    
+    /** The time the current move should take, in nanoseconds. */
+    private long softLimit;
+    
+    /** The time the current move may take, in nanoseconds. */
+    private long hardLimit;
+    
+    /** The amount of empty cells of the position of the current move. */
+    private int emptyCells;
+    
+    /** The best move of the last completed level, or null before the first level. */
+    private String lastBest;
+    
+    /** The score of the last completed level. */
+    private int lastScore;
+    
+    /** The amount of consecutive levels which chose the same move as the level before. */
+    private int stableLevels;
+    
+    /** The time the last completed level took, in nanoseconds. 0 before the first level. */
+    private long lastLevelNanos;
+    
+    /** The time the last level completed (or the move started), in nanoseconds. */
+    private long lastLevelEnd;
+    
+    /** Set when the current move reaches its hard limit. */
+    private final AtomicBoolean outOfTime = new AtomicBoolean();
+    
+    /** The pending alarm of the current move, or null. */
+    private ScheduledFuture<?> alarm;
+    
+    /**
+     * Creates a time manager.
+     * @param clockMillis the total time of the engine for the game, in milliseconds.
+     * @param incrementMillis the time added to the clock after each move, in milliseconds.
+     */
+    public TimeManager(long clockMillis, long incrementMillis) {
+        remainingMillis = clockMillis;
+        this.incrementMillis = incrementMillis;
+    }
+    
+    /**
+     * Starts the clock of a move and sets its time limits.
+     * @param state the state the engine moves in.
+     */
+    public void startMove(char[][] state) {
+        moveStart = System.nanoTime();
+        lastLevelEnd = moveStart;
+        emptyCells = GameState.countEmpty(state);
+        lastBest = null;
+        stableLevels = 0;
+        lastLevelNanos = 0;
+        long available = Math.max(remainingMillis - RESERVE_MILLIS, 1);
+        int movesToGo = Math.max(2, Math.min(MAX_MOVES_TO_GO, (emptyCells + 1) / 2));
+        double phase;
+        if (emptyCells <= EndgameSolver.DEFAULT_THRESHOLD)
+            phase = 0.25; //Solved exactly.
+        else if (emptyCells >= 32)
+            phase = 0.5; //The opening: few tactics, and the opening book may know the move.
+        else
+            phase = 1.0 + (32 - emptyCells) / 40.0; //Tactics grow as the board fills.
+        double soft = (available / (double) movesToGo + incrementMillis * 0.75) * phase;
+        softLimit = (long) (Math.min(soft, available / 2.0) * 1000000);
+        hardLimit = (long) (Math.min(soft * 4, available / 3.0 + incrementMillis * 0.75) * 1000000);
+        hardLimit = Math.max(hardLimit, softLimit);
+        outOfTime.set(false);
+        alarm = ALARMS.schedule(() -> outOfTime.set(true), hardLimit, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Decides whether to search the next level after a level has completed.
+     * @param best the best move found by the level.
+     * @param score the score of the best move.
+     * @return true to search the next level, false to play the best move.
+     */
+    public boolean continueSearch(String best, int score) {
+        long now = System.nanoTime();
+        long elapsed = now - moveStart;
+        long levelNanos = now - lastLevelEnd;
+        lastLevelEnd = now;
+        double factor = 1.0;
+        if (lastBest != null) {
+            if (best.equals(lastBest)) {
+                stableLevels++;
+                factor = stableLevels >= 2 ? 0.5 : 0.7;
+            } else {
+                stableLevels = 0;
+                factor = 1.5;
+            }
+            if (Math.abs((long) score - lastScore) >= VOLATILE_SCORE)
+                factor *= 1.3;
+        }
+        double growth = lastLevelNanos > 0 ? Math.max(2.0, (double) levelNanos / lastLevelNanos) 
+                : estimateGrowth(emptyCells);
+        lastBest = best;
+        lastScore = score;
+        lastLevelNanos = Math.max(levelNanos, 1);
+        if (score == Integer.MAX_VALUE || score == Integer.MIN_VALUE) //A win or loss is certain, deeper levels will not change it.
+            return false;
+        return elapsed < softLimit * factor && elapsed + levelNanos * growth <= hardLimit;
+    }
+    
+    /**
+     * Estimates how many times the cost of a level grows with the next level, before any level has been timed.
+     * Alpha beta searches about the square root of the moves per level (8 per empty position).
+     * @param emptyCells the amount of empty positions.
+     * @return the estimated growth factor.
+     */
+    static double estimateGrowth(int emptyCells) {
+        return 2 * Math.sqrt(emptyCells * 8.0);
+    }
+    
+    /**
+     * Stops the clock of the current move: charges its time to the clock and adds the increment.
+     */
+    public void endMove() {
+        if (alarm != null)
+            alarm.cancel(false);
+        alarm = null;
+        remainingMillis -= (System.nanoTime() - moveStart) / 1000000;
+        remainingMillis += incrementMillis;
+    }
+    
+    /**
+     * Returns the flag which is set when the current move reaches its hard limit. Searches of the levels of the move 
+     * stop when it is set (see GameTree.setTimeManager).
+     * @return the stop flag of the current move.
+     */
+    public AtomicBoolean getStopFlag() {
+        return outOfTime;
+    }
+    
+    public long getRemainingMillis() {
+        return remainingMillis;
+    }
+    
+    public long getSoftLimitMillis() {
+        return softLimit / 1000000;
+    }
+    
+    public long getHardLimitMillis() {
+        return hardLimit / 1000000;
+    }
+}